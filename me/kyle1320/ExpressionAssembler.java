@@ -0,0 +1,408 @@
+package me.kyle1320;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A tiny class file writer, just capable enough to build a final class that
+ * implements a single interface with arithmetic methods and simple counted loops.
+ * Used by ExpressionCompiler to skip javac for simple expressions.
+ *
+ * @author Kyle Cutler
+ */
+final class ExpressionAssembler {
+	// opcodes used by the generated code
+	static final int ICONST_0 = 0x03, LCONST_0 = 0x09, DCONST_0 = 0x0e, BIPUSH = 0x10, SIPUSH = 0x11;
+	static final int LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+	static final int ILOAD = 0x15, LLOAD = 0x16, DLOAD = 0x18, ALOAD = 0x19, DALOAD = 0x31, DASTORE = 0x52;
+	// the long and double versions of these follow at +1 and +3
+	static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70;
+	static final int INEG = 0x74, LNEG = 0x75, DNEG = 0x77;
+	static final int IINC = 0x84, I2L = 0x85, I2D = 0x87, L2D = 0x8a;
+	static final int IF_ICMPLT = 0xa1, GOTO = 0xa7;
+	static final int IRETURN = 0xac, LRETURN = 0xad, DRETURN = 0xaf, ARETURN = 0xb0, RETURN = 0xb1;
+	static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+	static final int CHECKCAST = 0xc0;
+
+	private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	// the constant pool, with entries keyed by their encoded form so they are only added once
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIndices = new HashMap<>();
+	private int poolSize = 1;
+
+	private final int thisClass, superClass, iface;
+	private final List<byte[]> methods = new ArrayList<>();
+
+	/**
+	 * Starts a new class that extends Object and implements the given interface
+	 *
+	 * @param 	className 	The internal name of the class, e.g. me/kyle1320/Foo
+	 * @param 	ifaceName 	The internal name of the interface to implement
+	 */
+	ExpressionAssembler(String className, String ifaceName) {
+		thisClass = classRef(className);
+		superClass = classRef("java/lang/Object");
+		iface = classRef(ifaceName);
+
+		// every class needs a constructor
+		Code init = code(1);
+		init.load("L", 0);
+		init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", -1);
+		init.op(RETURN, 0);
+		addMethod("<init>", "()V", init);
+	}
+
+	/**
+	 * Adds a public method with the given code to the class
+	 *
+	 * @param 	name 		The name of the method
+	 * @param 	descriptor 	The JVM descriptor of the method
+	 * @param 	code 		The body of the method
+	 */
+	void addMethod(String name, String descriptor, Code code) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+
+			// a single Code attribute with no exception handlers.
+			// code that branches also needs a StackMapTable for the verifier
+			byte[] body = code.body.toByteArray();
+			byte[] frames = code.frames.toByteArray();
+			int framesLength = code.frameCount > 0 ? 8 + frames.length : 0;
+
+			out.writeShort(1);
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + body.length + framesLength);
+			out.writeShort(code.maxStack);
+			out.writeShort(code.maxLocals);
+			out.writeInt(body.length);
+			out.write(body);
+			out.writeShort(0);
+
+			if (code.frameCount > 0) {
+				int framesName = utf8("StackMapTable");
+
+				out.writeShort(1);
+				out.writeShort(framesName);
+				out.writeInt(2 + frames.length);
+				out.writeShort(code.frameCount);
+				out.write(frames);
+			} else {
+				out.writeShort(0);
+			}
+		} catch (IOException e) {
+			// can't happen when writing to a byte array
+			throw new IllegalStateException(e);
+		}
+
+		methods.add(bytes.toByteArray());
+	}
+
+	/**
+	 * Starts a new method body to be passed to addMethod
+	 *
+	 * @param 	maxLocals 	The number of local variable slots used by the method, including parameters
+	 *
+	 * @return 				An empty method body
+	 */
+	Code code(int maxLocals) {
+		return new Code(maxLocals);
+	}
+
+	/**
+	 * Returns the finished class file
+	 *
+	 * @return 	The bytes of the class file
+	 */
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(52);
+			out.writeShort(poolSize);
+			pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(iface);
+			out.writeShort(0);
+			out.writeShort(methods.size());
+			for (byte[] method : methods)
+				out.write(method);
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the JVM descriptor of the given type
+	 *
+	 * @param 	type 	A class or primitive type
+	 *
+	 * @return 			The descriptor of the type, e.g. D or Ljava/lang/Double;
+	 */
+	static String descriptor(Class<?> type) {
+		if (type == int.class) 		return "I";
+		if (type == long.class) 	return "J";
+		if (type == double.class) 	return "D";
+		if (type == float.class) 	return "F";
+		if (type == boolean.class) 	return "Z";
+		if (type == byte.class) 	return "B";
+		if (type == char.class) 	return "C";
+		if (type == short.class) 	return "S";
+		if (type == void.class) 	return "V";
+		if (type.isArray()) 		return type.getName().replace('.', '/');
+
+		return "L" + internalName(type) + ";";
+	}
+
+	/**
+	 * Returns the internal name of the given class, e.g. java/lang/Double
+	 */
+	static String internalName(Class<?> type) {
+		return type.getName().replace('.', '/');
+	}
+
+	private int constant(String key, int size, PoolWriter writer) {
+		Integer index = poolIndices.get(key);
+
+		if (index == null) {
+			index = poolSize;
+			poolSize += size;
+			poolIndices.put(key, index);
+
+			try {
+				writer.write(poolOut);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		return index;
+	}
+
+	private int utf8(String value) {
+		return constant("U" + value, 1, (out) -> { out.writeByte(1); out.writeUTF(value); });
+	}
+
+	private int classRef(String name) {
+		int utf = utf8(name);
+		return constant("C" + name, 1, (out) -> { out.writeByte(7); out.writeShort(utf); });
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		int n = utf8(name), d = utf8(descriptor);
+		return constant("N" + name + " " + descriptor, 1, (out) -> { out.writeByte(12); out.writeShort(n); out.writeShort(d); });
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		int c = classRef(owner), nt = nameAndType(name, descriptor);
+		return constant(tag + owner + "." + name + descriptor, 1, (out) -> { out.writeByte(tag); out.writeShort(c); out.writeShort(nt); });
+	}
+
+	private int intConstant(int value) {
+		return constant("I" + value, 1, (out) -> { out.writeByte(3); out.writeInt(value); });
+	}
+
+	private int longConstant(long value) {
+		return constant("J" + value, 2, (out) -> { out.writeByte(5); out.writeLong(value); });
+	}
+
+	private int doubleConstant(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		return constant("D" + bits, 2, (out) -> { out.writeByte(6); out.writeLong(bits); });
+	}
+
+	private interface PoolWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * The body of a single method. Keeps track of the maximum stack depth as instructions are added.
+	 *
+	 * @author Kyle Cutler
+	 */
+	final class Code {
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		private final int maxLocals;
+		private int stack, maxStack, frameCount, lastFrame = -1;
+
+		private Code(int maxLocals) {
+			this.maxLocals = maxLocals;
+		}
+
+		/**
+		 * Adds a single-byte instruction
+		 *
+		 * @param 	opcode 		The instruction to add
+		 * @param 	stackDelta 	The change in stack size (in slots) caused by the instruction
+		 */
+		void op(int opcode, int stackDelta) {
+			body.write(opcode);
+			stack += stackDelta;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		void u1(int value) {
+			body.write(value);
+		}
+
+		void u2(int value) {
+			body.write(value >> 8);
+			body.write(value);
+		}
+
+		/**
+		 * Returns the offset of the next instruction
+		 */
+		int position() {
+			return body.size();
+		}
+
+		/**
+		 * Adds a branch instruction
+		 *
+		 * @param 	opcode 		The branch instruction to add
+		 * @param 	stackDelta 	The change in stack size caused by the instruction
+		 * @param 	target 		The offset to jump to, or -1 to fill it in later with patch
+		 *
+		 * @return 				The offset of the branch instruction, to pass to patch
+		 */
+		int jump(int opcode, int stackDelta, int target) {
+			int at = position();
+
+			op(opcode, stackDelta);
+			u2(target < 0 ? 0 : target - at);
+
+			return at;
+		}
+
+		/**
+		 * Points a previously added branch instruction at the given offset
+		 *
+		 * @param 	jump 	The offset of the branch instruction
+		 * @param 	target 	The offset to jump to
+		 */
+		void patch(int jump, int target) {
+			byte[] bytes = body.toByteArray();
+			bytes[jump+1] = (byte)((target - jump) >> 8);
+			bytes[jump+2] = (byte)(target - jump);
+			body.reset();
+			body.write(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Records that the instruction at the current offset is a branch target,
+		 * with the same locals as on entry to the method and nothing on the stack.
+		 * Only branch targets need frames, and they must be added in order.
+		 */
+		void sameFrame() {
+			int offset = position();
+			int delta = lastFrame < 0 ? offset : offset - lastFrame - 1;
+
+			if (delta < 64) {
+				frames.write(delta);
+			} else {
+				frames.write(251);
+				frames.write(delta >> 8);
+				frames.write(delta);
+			}
+
+			lastFrame = offset;
+			frameCount++;
+		}
+
+		/**
+		 * Loads a local variable onto the stack
+		 *
+		 * @param 	type 	The descriptor of the variable's type
+		 * @param 	slot 	The slot that the variable lives in
+		 */
+		void load(String type, int slot) {
+			switch (type.charAt(0)) {
+				case 'I': op(ILOAD, 1); break;
+				case 'J': op(LLOAD, 2); break;
+				case 'D': op(DLOAD, 2); break;
+				default:  op(ALOAD, 1); break;
+			}
+
+			u1(slot);
+		}
+
+		void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				op(ICONST_0 + value, 1);
+			} else if (value == (byte)value) {
+				op(BIPUSH, 1);
+				u1(value);
+			} else if (value == (short)value) {
+				op(SIPUSH, 1);
+				u2(value);
+			} else {
+				int index = intConstant(value);
+				if (index < 256) {
+					op(LDC, 1);
+					u1(index);
+				} else {
+					op(LDC_W, 1);
+					u2(index);
+				}
+			}
+		}
+
+		void pushLong(long value) {
+			if (value == 0 || value == 1) {
+				op(LCONST_0 + (int)value, 2);
+			} else {
+				op(LDC2_W, 2);
+				u2(longConstant(value));
+			}
+		}
+
+		void pushDouble(double value) {
+			// dconst can't be used for -0.0
+			if ((value == 0 && 1 / value > 0) || value == 1) {
+				op(DCONST_0 + (int)value, 2);
+			} else {
+				op(LDC2_W, 2);
+				u2(doubleConstant(value));
+			}
+		}
+
+		/**
+		 * Adds a method invocation
+		 *
+		 * @param 	opcode 		INVOKESTATIC, INVOKEVIRTUAL or INVOKESPECIAL
+		 * @param 	stackDelta 	The change in stack size after the call returns
+		 */
+		void invoke(int opcode, String owner, String name, String descriptor, int stackDelta) {
+			op(opcode, stackDelta);
+			u2(memberRef(10, owner, name, descriptor));
+		}
+
+		void checkCast(String className) {
+			op(CHECKCAST, 0);
+			u2(classRef(className));
+		}
+	}
+}
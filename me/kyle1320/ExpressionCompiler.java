@@ -1,40 +1,127 @@
 package me.kyle1320;
 
-import java.io.File;
-import java.io.PrintWriter;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.net.URI;
 
 import javax.tools.ToolProvider;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.FileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileManager.Location;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import me.kyle1320.ExpressionParser.Node;
+import me.kyle1320.ExpressionParser.Variable;
+
+import static me.kyle1320.ExpressionAssembler.*;
 
 /**
  * compiles java expressions and returns a class instance that evaluates the expression.
  *
+ * Simple arithmetic expressions are turned directly into bytecode and loaded as hidden classes,
+ * which is orders of magnitude faster than starting up javac. Anything the fast path can't handle
+ * is compiled by javac instead.
+ *
+ * All of the methods here are thread-safe. Every class is compiled in memory and loaded
+ * separately, so any number of expressions can be compiled at the same time.
+ *
  * @author Kyle Cutler
  */
 public class ExpressionCompiler {
-	private static final String path = System.getProperty("user.dir") + System.getProperty("file.separator");
-
 	// used to create unique class names
 	// each time a class is created, this should be incremented
-	private static int classNum = 1;
+	private static final AtomicInteger classNum = new AtomicInteger(1);
+
+	// expressions currently being compiled, so that threads asking for the same one wait instead of compiling it again
+	private static final ConcurrentHashMap<CacheKey, CompletableFuture<Object>> compiling = new ConcurrentHashMap<>();
+
+	// runs the asynchronous compile methods
+	private static volatile Executor executor = ForkJoinPool.commonPool();
+
+	// javac's file managers are expensive to create but can't be shared between threads, so each compile borrows an idle one.
+	// Only a few are kept around, so that threads coming and going don't leave open file managers behind.
+	private static final ConcurrentLinkedQueue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger idleFileManagers = new AtomicInteger();
+	private static final int MAX_IDLE_FILE_MANAGERS = Runtime.getRuntime().availableProcessors();
+
+	// recently compiled expressions, least recently used first.
+	// every compiled class can be unloaded once it is evicted and nothing else refers to it
+	private static final Map<CacheKey, Object> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private static final MemoryPoolMXBean metaspace = findMetaspace();
+	private static int cacheCapacity = 256;
+
+	// whether metaspace was nearly full the last time the cache was trimmed
+	private static boolean metaspaceFull;
+	private static long cacheHits, cacheMisses, cacheEvictions;
 
 	// the class file we modify to create our expression
 	private static final String classBase =
 				"import static java.lang.Math.*;\n" +
 				"public class %s implements %s {\n" +
 				" public %s {\n" +
+				"%s" +
 				"  return %s;\n" +
 				" }\n" +
 				"}";
 
+	// the class file we modify to create a bulk evaluator, which evaluates the expression in a loop
+	private static final String bulkBase =
+				"import static java.lang.Math.*;\n" +
+				"public class %s implements %s {\n" +
+				" public %s {\n" +
+				"  for (int $i = $from; $i < $to; $i++) {\n" +
+				"%s" +
+				"   $out[$i] = %s;\n" +
+				"  }\n" +
+				" }\n" +
+				"}";
+
+	// the classes that the built-in compile methods fill in
+	private static final Template doubleBiFunction = new Template(classBase, BiFunction.class,
+			"java.util.function.BiFunction<Double, Double, Double>", "Double apply(Double x, Double y)", "",
+			(expression) -> assemble(BiFunction.class, functionalMethod(BiFunction.class),
+									 new Class<?>[] {Double.class, Double.class}, Double.class,
+									 new String[] {"x", "y"}, expression));
+
+	private static final Template bulkDoubleFunction = new Template(bulkBase, BulkDoubleFunction.class,
+			BulkDoubleFunction.class.getCanonicalName(),
+			"void evaluate(double[] $xs, double[] $ys, double[] $out, int $from, int $to)",
+			"   double x = $xs[$i], y = $ys[$i];\n",
+			ExpressionCompiler::assembleBulk);
+
 	/**
 	 * Returns a BiFunction that evaluates the given expression where the two parameters are "x" and "y"
 	 *
@@ -49,10 +136,96 @@ public class ExpressionCompiler {
 		if (expression == null || expression.length() == 0)
 			return null;
 
-		return (BiFunction<Double, Double, Double>)
-				createNewInstance(	"java.util.function.BiFunction<Double, Double, Double>",
-									"Double apply(Double x, Double y)",
-									expression);
+		return (BiFunction<Double, Double, Double>)compile(doubleBiFunction, expression);
+	}
+
+	/**
+	 * Compiles many expressions at once, returning a BiFunction for each expression that compiled
+	 * successfully, where the two parameters are "x" and "y". Every expression that has to go through
+	 * javac is compiled in the same compiler invocation, which is much faster than one at a time.
+	 *
+	 * @param 	expressions 	The expressions to compile, by name
+	 *
+	 * @return 					A map of names to BiFunctions, leaving out expressions that didn't compile
+	 */
+	public static Map<String, BiFunction<Double, Double, Double>> compileAll(Map<String, String> expressions) {
+		return compileAll(expressions, null);
+	}
+
+	/**
+	 * Compiles many expressions at once, returning a BiFunction for each expression that compiled
+	 * successfully, where the two parameters are "x" and "y". An invalid expression doesn't affect the others.
+	 *
+	 * @param 	expressions 	The expressions to compile, by name
+	 * @param 	errors 			A map to put the reason each failed expression didn't compile into, by name.
+	 * 							May be null.
+	 *
+	 * @return 					A map of names to BiFunctions, leaving out expressions that didn't compile
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, BiFunction<Double, Double, Double>> compileAll(Map<String, String> expressions, Map<String, String> errors) {
+		Map<String, ?> instances = compileAll(doubleBiFunction, expressions, errors);
+
+		return (Map<String, BiFunction<Double, Double, Double>>)instances;
+	}
+
+	/**
+	 * Returns a DoubleBinaryOperator that evaluates the given expression where the two parameters are "x" and "y".
+	 * Unlike compileDoubleBiFunction, nothing is boxed when the operator is applied.
+	 *
+	 * @param 	expression 	The expression that should be evaluated
+	 *
+	 * @return 				A DoubleBinaryOperator that calculates the given expression
+	 */
+	public static DoubleBinaryOperator compileDoubleBinaryOperator(String expression) {
+		return (DoubleBinaryOperator)compileCustomFunction(DoubleBinaryOperator.class, expression, "x", "y");
+	}
+
+	/**
+	 * Returns a DoubleUnaryOperator that evaluates the given expression where the parameter is "x".
+	 *
+	 * @param 	expression 	The expression that should be evaluated
+	 *
+	 * @return 				A DoubleUnaryOperator that calculates the given expression
+	 */
+	public static DoubleUnaryOperator compileDoubleUnaryOperator(String expression) {
+		return (DoubleUnaryOperator)compileCustomFunction(DoubleUnaryOperator.class, expression, "x");
+	}
+
+	/**
+	 * Returns a function of any number of doubles that evaluates the given expression.
+	 * The i-th element of the array passed to the function is bound to the i-th parameter name.
+	 *
+	 * @param 	expression 	The expression that should be evaluated
+	 * @param 	params 		A varargs list of parameter names
+	 *
+	 * @return 				A DoubleArrayFunction that calculates the given expression
+	 */
+	public static DoubleArrayFunction compileDoubleArrayFunction(String expression, String... params) {
+
+		// check for obviously invalid expressions
+		if (expression == null || expression.length() == 0)
+			return null;
+
+		return (DoubleArrayFunction)compile(doubleArrayFunction(params), expression);
+	}
+
+	/**
+	 * Returns a bulk evaluator that evaluates the given expression over whole arrays of
+	 * "x" and "y" values at a time. The generated loop is as simple as possible,
+	 * so that the JIT can unroll and vectorize it.
+	 *
+	 * @param 	expression 	The expression that should be evaluated
+	 *
+	 * @return 				A BulkDoubleFunction that calculates the given expression
+	 */
+	public static BulkDoubleFunction compileBulkDoubleFunction(String expression) {
+
+		// check for obviously invalid expressions
+		if (expression == null || expression.length() == 0)
+			return null;
+
+		return (BulkDoubleFunction)compile(bulkDoubleFunction, expression);
 	}
 
 	/**
@@ -72,20 +245,90 @@ public class ExpressionCompiler {
 		if (expression == null || expression.length() == 0)
 			return null;
 
+		Template template = customFunction(iface, params);
+
+		if (template == null)
+			return null;
+
+		return compile(template, expression);
+	}
+
+	/**
+	 * Compiles many expressions at once, returning an instance of the given interface for each
+	 * expression that compiled successfully. An invalid expression doesn't affect the others.
+	 *
+	 * @param 	iface 			The interface to implement the functions in. Must be
+	 * 							a non-generic interface with a single non-generic method.
+	 * @param 	expressions 	The expressions to compile, by name
+	 * @param 	errors 			A map to put the reason each failed expression didn't compile into, by name.
+	 * 							May be null.
+	 * @param 	params 			A varargs list of function parameter names, in the same
+	 * 							order as they are declared in the interface.
+	 *
+	 * @return 					A map of names to instances of the interface, leaving out expressions that didn't compile
+	 */
+	public static Map<String, Object> compileAllCustom(Class iface, Map<String, String> expressions, Map<String, String> errors, String... params) {
+		Template template = customFunction(iface, params);
+
+		if (template == null) {
+			for (String name : expressions.keySet())
+				report(errors, name, iface.getName() + " is not a functional interface");
+
+			return new LinkedHashMap<>();
+		}
+
+		return compileAll(template, expressions, errors);
+	}
+
+	/**
+	 * Returns the template for a DoubleArrayFunction with the given parameter names
+	 */
+	private static Template doubleArrayFunction(String[] params) {
+		Map<String, Variable> variables = new HashMap<>();
+		String prelude = "";
+
+		for (int i=0; i < params.length; i++) {
+			int index = i;
+
+			// load args[i]
+			variables.put(params[i], new Variable('D', (code) -> {
+				code.load("L", 1);
+				code.pushInt(index);
+				code.op(DALOAD, 0);
+			}));
+
+			// javac gets the array elements copied into locals named after the parameters
+			prelude += "  double " + params[i] + " = $args[" + i + "];\n";
+		}
+
+		Method method = functionalMethod(DoubleArrayFunction.class);
+		boolean unique = variables.size() == params.length;
+
+		return new Template(classBase, DoubleArrayFunction.class, DoubleArrayFunction.class.getCanonicalName(),
+							"double apply(double[] $args)", prelude,
+							(expression) -> unique ? assemble(DoubleArrayFunction.class, method, double.class, variables, 2, expression) : null);
+	}
+
+	/**
+	 * Returns the template for an implementation of the given interface with the given parameter names,
+	 * or null if the interface can't be implemented
+	 */
+	private static Template customFunction(Class<?> iface, String[] params) {
+
 		// class must be an interface
 		if (!iface.isInterface())
 			return null;
 
 		String signature;
+		Method method;
 
 		try {
-			Method[] methods = iface.getMethods();
+			method = functionalMethod(iface);
 
 			// must be a functional interface
-			if (methods.length != 1)
+			if (method == null)
 				return null;
 
-			Method method = methods[0];
 			Class<?> returnType = method.getReturnType();
 			Class<?>[] paramTypes = method.getParameterTypes();
 
@@ -112,70 +355,663 @@ public class ExpressionCompiler {
 			return null;
 		}
 
-		return createNewInstance(iface.getCanonicalName(),
-								 signature,
-								 expression);
+		return new Template(classBase, iface, iface.getCanonicalName(), signature, "",
+							(expression) -> assemble(iface, method, method.getParameterTypes(), method.getReturnType(), params, expression));
+	}
+
+	/**
+	 * Returns the single abstract method of the given interface, or null if there isn't exactly one.
+	 * Default and static methods don't count.
+	 */
+	private static Method functionalMethod(Class<?> iface) {
+		Method method = null;
+
+		for (Method m : iface.getMethods()) {
+			if (!Modifier.isAbstract(m.getModifiers()))
+				continue;
+			if (method != null)
+				return null;
+			method = m;
+		}
+
+		return method;
+	}
+
+	/**
+	 * Compiles a BiFunction in the background, like compileDoubleBiFunction.
+	 *
+	 * @param 	expression 	The expression that should be evaluated
+	 *
+	 * @return 				A future that completes with the BiFunction, or with null if the expression didn't compile
+	 */
+	public static CompletableFuture<BiFunction<Double, Double, Double>> compileDoubleBiFunctionAsync(String expression) {
+		return CompletableFuture.supplyAsync(() -> compileDoubleBiFunction(expression), executor);
+	}
+
+	/**
+	 * Compiles an instance of the given interface in the background, like compileCustomFunction.
+	 *
+	 * @param 	iface 		The interface to implement the function in
+	 * @param 	expression 	The expression to be calculated in the new class
+	 * @param 	params 		A varargs list of function parameter names
+	 *
+	 * @return 				A future that completes with the instance, or with null if the expression didn't compile
+	 */
+	public static CompletableFuture<Object> compileCustomFunctionAsync(Class iface, String expression, String... params) {
+		return CompletableFuture.supplyAsync(() -> compileCustomFunction(iface, expression, params), executor);
+	}
+
+	/**
+	 * Compiles many expressions in the background, like compileAll.
+	 *
+	 * @param 	expressions 	The expressions to compile, by name
+	 * @param 	errors 			A map to put the reason each failed expression didn't compile into, by name.
+	 * 							May be null. Should be thread-safe if it is read before the future completes.
+	 *
+	 * @return 					A future that completes with a map of names to BiFunctions
+	 */
+	public static CompletableFuture<Map<String, BiFunction<Double, Double, Double>>> compileAllAsync(Map<String, String> expressions, Map<String, String> errors) {
+		return CompletableFuture.supplyAsync(() -> compileAll(expressions, errors), executor);
+	}
+
+	/**
+	 * Sets the executor that the asynchronous compile methods run on.
+	 * By default they run on the common ForkJoinPool.
+	 *
+	 * @param 	executor 	The executor to compile expressions on
+	 */
+	public static void setExecutor(Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("executor");
+
+		ExpressionCompiler.executor = executor;
+	}
+
+	/**
+	 * Sets the maximum number of compiled expressions to keep around for reuse.
+	 * The least recently used expressions are dropped first.
+	 *
+	 * @param 	capacity 	The maximum number of cached expressions, or 0 to disable caching
+	 */
+	public static void setCacheCapacity(int capacity) {
+		synchronized (cache) {
+			cacheCapacity = Math.max(0, capacity);
+			trimCache();
+		}
+	}
+
+	/**
+	 * Removes every compiled expression from the cache, so that their classes can be unloaded
+	 * once no other references to them remain. The statistics are not reset.
+	 */
+	public static void clearCache() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of compiled expressions currently cached
+	 */
+	public static int getCacheSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Returns the number of times a compiled expression was reused from the cache
+	 */
+	public static long getCacheHits() {
+		synchronized (cache) {
+			return cacheHits;
+		}
+	}
+
+	/**
+	 * Returns the number of times an expression had to be compiled because it wasn't cached
+	 */
+	public static long getCacheMisses() {
+		synchronized (cache) {
+			return cacheMisses;
+		}
+	}
+
+	/**
+	 * Returns the number of compiled expressions that have been dropped from the cache to make room
+	 */
+	public static long getCacheEvictions() {
+		synchronized (cache) {
+			return cacheEvictions;
+		}
+	}
+
+	/**
+	 * Returns a cached instance for the given expression if there is one,
+	 * otherwise compiles a new one and caches it.
+	 *
+	 * @param 	template 	The class to put the expression into
+	 * @param 	expression 	The expression to be evaluated
+	 *
+	 * @return 				An instance that evaluates the expression, or null if it couldn't be compiled
+	 */
+	private static Object compile(Template template, String expression) {
+		CacheKey key = template.key(expression);
+		Object instance = cacheGet(key);
+
+		if (instance != null)
+			return instance;
+
+		// if another thread is already compiling this expression, just wait for it
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		CompletableFuture<Object> pending = compiling.putIfAbsent(key, result);
+
+		if (pending != null)
+			return pending.join();
+
+		try {
+			// try the fast path first, and only start up javac if that doesn't work
+			instance = template.assembler.apply(expression);
+
+			if (instance == null)
+				instance = createNewInstance(template, expression);
+
+			if (instance != null)
+				instance = cachePut(key, instance);
+
+			return instance;
+		} finally {
+			compiling.remove(key);
+			result.complete(instance);
+		}
+	}
+
+	/**
+	 * Compiles every expression in the map, sending all of those that need javac through a
+	 * single compiler invocation.
+	 *
+	 * @param 	template 		The class to put each expression into
+	 * @param 	expressions 	The expressions to compile, by name
+	 * @param 	errors 			A map to put the reason each failed expression didn't compile into. May be null.
+	 *
+	 * @return 					A map of names to instances, leaving out expressions that didn't compile
+	 */
+	private static Map<String, Object> compileAll(Template template, Map<String, String> expressions, Map<String, String> errors) {
+		Map<String, Object> instances = new LinkedHashMap<>();
+
+		// the sources for javac, and which expression each class belongs to
+		Map<String, String> sources = new LinkedHashMap<>();
+		Map<String, String> names = new LinkedHashMap<>();
+		Map<String, CacheKey> keys = new HashMap<>();
+
+		for (Map.Entry<String, String> entry : expressions.entrySet()) {
+			String name = entry.getKey(), expression = entry.getValue();
+
+			if (expression == null || expression.length() == 0) {
+				report(errors, name, "Empty expression");
+				continue;
+			}
+
+			// same restriction as createNewInstance
+			if (expression.contains(";")) {
+				report(errors, name, "Expression must not contain ';'");
+				continue;
+			}
+
+			CacheKey key = template.key(expression);
+			Object instance = cacheGet(key);
+
+			if (instance == null) {
+				instance = template.assembler.apply(expression);
+
+				if (instance != null)
+					instance = cachePut(key, instance);
+			}
+
+			if (instance != null) {
+				instances.put(name, instance);
+			} else {
+				String className = "MyExpression" + classNum.getAndIncrement();
+
+				sources.put(className, template.source(className, expression));
+				names.put(className, name);
+				keys.put(className, key);
+			}
+		}
+
+		if (sources.isEmpty())
+			return instances;
+
+		Map<String, String> failures = new HashMap<>();
+		Map<String, byte[]> classes = compileSources(sources, failures);
+
+		// javac doesn't output anything if any class has errors, so try again without the broken ones.
+		// it can stop before checking every class (e.g. after a syntax error), so this may take a few tries
+		while (classes == null && sources.keySet().removeAll(failures.keySet()) && !sources.isEmpty())
+			classes = compileSources(sources, failures);
+
+		for (Map.Entry<String, String> entry : names.entrySet()) {
+			String className = entry.getKey(), name = entry.getValue();
+
+			if (failures.containsKey(className)) {
+				report(errors, name, failures.get(className));
+			} else if (classes == null) {
+				report(errors, name, "Couldn't compile source");
+			} else {
+				Object instance = instantiate(className, classes);
+
+				if (instance == null)
+					report(errors, name, "Couldn't load class");
+				else
+					instances.put(name, cachePut(keys.get(className), instance));
+			}
+		}
+
+		return instances;
+	}
+
+	private static void report(Map<String, String> errors, String name, String error) {
+		if (errors != null)
+			errors.put(name, error);
+	}
+
+	/**
+	 * Returns the cached instance with the given key, or null if there isn't one
+	 */
+	private static Object cacheGet(CacheKey key) {
+		synchronized (cache) {
+			Object instance = cache.get(key);
+
+			if (instance != null)
+				cacheHits++;
+			else
+				cacheMisses++;
+
+			return instance;
+		}
 	}
 
 	/**
-	 * Writes the .java file, compiles it to a class, and returns true if everything was successful.
+	 * Caches the given instance, unless another one was cached under the same key in the meantime
 	 *
-	 * @param 	className 	The name of the class to create
-	 * @param 	implement 	The name of the parent interface to the new class
-	 * @param 	header 		The header of the method that evaluates the expression
+	 * @return 	The instance that ended up in the cache
+	 */
+	private static Object cachePut(CacheKey key, Object instance) {
+		synchronized (cache) {
+			Object existing = cache.putIfAbsent(key, instance);
+			trimCache();
+
+			return existing != null ? existing : instance;
+		}
+	}
+
+	/**
+	 * Evicts the least recently used expressions until the cache fits its capacity.
+	 * When metaspace becomes nearly full, half of the cache is dropped so that its classes can be unloaded.
+	 * That only happens once each time metaspace goes over 90%, since the classes aren't unloaded until the next collection,
+	 * and only if metaspace has a limit, which it doesn't unless -XX:MaxMetaspaceSize is set.
+	 * Must be called while holding the cache lock.
+	 */
+	private static void trimCache() {
+		int target = cacheCapacity;
+
+		if (metaspace != null) {
+			MemoryUsage usage = metaspace.getUsage();
+			boolean full = usage.getMax() > 0 && usage.getUsed() > usage.getMax() * 0.9;
+
+			if (full && !metaspaceFull)
+				target = Math.min(target, cache.size() / 2);
+
+			metaspaceFull = full;
+		}
+
+		Iterator<Object> it = cache.values().iterator();
+
+		while (cache.size() > target && it.hasNext()) {
+			it.next();
+			it.remove();
+			cacheEvictions++;
+		}
+	}
+
+	/**
+	 * Removes whitespace from the expression wherever it can't change the meaning,
+	 * so that "x + y" and "x+y" share a cache entry
+	 */
+	private static String normalize(String expression) {
+		// leave string and character literals alone
+		if (expression.indexOf('"') >= 0 || expression.indexOf('\'') >= 0)
+			return expression.trim();
+
+		StringBuilder out = new StringBuilder();
+		String operators = "+-*/%&|^!<>=";
+		char last = 0;
+		boolean space = false;
+
+		for (int i=0; i < expression.length(); i++) {
+			char c = expression.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+
+			// a space is only needed between two words, or two operators like "- -"
+			if (space && last != 0 &&
+					((isWordChar(last) && isWordChar(c)) ||
+					 (operators.indexOf(last) >= 0 && operators.indexOf(c) >= 0)))
+				out.append(' ');
+
+			out.append(c);
+			last = c;
+			space = false;
+		}
+
+		return out.toString();
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isJavaIdentifierPart(c) || c == '.';
+	}
+
+	private static MemoryPoolMXBean findMetaspace() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getName().equals("Metaspace"))
+				return pool;
+
+		return null;
+	}
+
+	/**
+	 * Tries to generate the class directly as bytecode, without going through javac.
+	 * Only handles arithmetic on int, long and double values (boxed or not) and functions
+	 * from java.lang.Math; returns null for anything else so that javac can be used instead.
+	 *
+	 * @param 	iface 		The interface to implement
+	 * @param 	method 		The interface method to implement
+	 * @param 	types 		The parameter types as the expression should see them, which may be
+	 * 						more specific than the method's (erased) parameter types
+	 * @param 	returnType 	The return type as the expression should see it
+	 * @param 	params 		The names of the parameters
 	 * @param 	expression 	The expression to be evaluated in the method
 	 *
-	 * @return 				True if the class was compiled successfully, false otherwise
+	 * @return 				An instance of the generated class, or null if the expression isn't supported
 	 */
-	private static boolean writeAndCompile(String className, String implement, String header, String expression) {
+	private static Object assemble(Class<?> iface, Method method, Class<?>[] types, Class<?> returnType,
+								   String[] params, String expression) {
+		Class<?>[] erased = method.getParameterTypes();
 
-		// build the class
-		String classData = String.format(classBase, className, implement, header, expression);
-		String classFileName = className + ".java";
+		if (types.length != params.length || erased.length != params.length)
+			return null;
 
-		// write the .java file
-		try (PrintWriter out = new PrintWriter(path + classFileName)) {
-			out.println(classData);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return false;
+		Map<String, Variable> variables = new HashMap<>();
+		int slot = 1;
+
+		for (int i=0; i < params.length; i++) {
+			char type = numericType(types[i]);
+
+			// the expression can't use parameters that aren't numbers
+			if (type == 0 || variables.containsKey(params[i]))
+				return null;
+
+			Class<?> boxed = types[i], erasedType = erased[i];
+			int index = slot;
+
+			if (boxed.isPrimitive()) {
+				if (erasedType != boxed)
+					return null;
+
+				variables.put(params[i], new Variable(type, (code) -> code.load(String.valueOf(type), index)));
+			} else {
+				if (!erasedType.isAssignableFrom(boxed))
+					return null;
+
+				variables.put(params[i], new Variable(type, (code) -> {
+					code.load("L", index);
+					if (erasedType != boxed)
+						code.checkCast(internalName(boxed));
+					code.invoke(INVOKEVIRTUAL, internalName(boxed), unboxMethod(type), "()" + type, type == 'I' ? 0 : 1);
+				}));
+			}
+
+			slot += erasedType == long.class || erasedType == double.class ? 2 : 1;
+		}
+
+		return assemble(iface, method, returnType, variables, slot, expression);
+	}
+
+	/**
+	 * Tries to generate the class directly as bytecode, using the given variables.
+	 *
+	 * @param 	iface 		The interface to implement
+	 * @param 	method 		The interface method to implement
+	 * @param 	returnType 	The return type as the expression should see it
+	 * @param 	variables 	The variables that the expression can use, by name
+	 * @param 	maxLocals 	The number of local variable slots taken by the method's parameters
+	 * @param 	expression 	The expression to be evaluated in the method
+	 *
+	 * @return 				An instance of the generated class, or null if the expression isn't supported
+	 */
+	private static Object assemble(Class<?> iface, Method method, Class<?> returnType,
+								   Map<String, Variable> variables, int maxLocals, String expression) {
+		Node root = ExpressionParser.parse(expression, variables);
+		char type = numericType(returnType);
+
+		if (root == null || type == 0)
+			return null;
+
+		ExpressionAssembler asm = new ExpressionAssembler("me/kyle1320/CompiledExpression", internalName(iface));
+		ExpressionAssembler.Code code = asm.code(maxLocals);
+
+		if (returnType.isPrimitive()) {
+			// javac allows widening the result, but nothing else
+			if (method.getReturnType() != returnType || !ExpressionParser.widens(root.type, type))
+				return null;
+
+			root.emit(code, type);
+			code.op(type == 'I' ? IRETURN : type == 'J' ? LRETURN : DRETURN, type == 'I' ? -1 : -2);
+		} else {
+			// results can only be boxed into their exact wrapper type
+			if (!method.getReturnType().isAssignableFrom(returnType) || root.type != type)
+				return null;
+
+			root.emit(code);
+			code.invoke(INVOKESTATIC, internalName(returnType), "valueOf",
+						"(" + type + ")" + descriptor(returnType), type == 'I' ? 0 : -1);
+			code.op(ARETURN, -1);
+		}
+
+		asm.addMethod(method.getName(), methodDescriptor(method), code);
+
+		return define(asm);
+	}
+
+	/**
+	 * Tries to generate a BulkDoubleFunction directly as bytecode. The method is a single loop of the form
+	 * <pre>
+	 * for (; from &lt; to; from++)
+	 *     out[from] = expression(xs[from], ys[from]);
+	 * </pre>
+	 *
+	 * @param 	expression 	The expression to be evaluated for each element
+	 *
+	 * @return 				An instance of the generated class, or null if the expression isn't supported
+	 */
+	private static Object assembleBulk(String expression) {
+		// locals: this, xs, ys, out, from, to. "from" doubles as the loop counter
+		Map<String, Variable> variables = new HashMap<>();
+		variables.put("x", arrayElement(1, 4));
+		variables.put("y", arrayElement(2, 4));
+
+		Node root = ExpressionParser.parse(expression, variables);
+
+		if (root == null)
+			return null;
+
+		ExpressionAssembler asm = new ExpressionAssembler("me/kyle1320/CompiledExpression", internalName(BulkDoubleFunction.class));
+		ExpressionAssembler.Code code = asm.code(6);
+
+		// jump straight to the condition, the same shape javac gives a for loop
+		int start = code.jump(GOTO, 0, -1);
+
+		int body = code.position();
+		code.sameFrame();
+		code.load("L", 3);
+		code.load("I", 4);
+		root.emit(code, 'D');
+		code.op(DASTORE, -4);
+		code.op(IINC, 0);
+		code.u1(4);
+		code.u1(1);
+
+		code.patch(start, code.position());
+		code.sameFrame();
+		code.load("I", 4);
+		code.load("I", 5);
+		code.jump(IF_ICMPLT, -2, body);
+		code.op(RETURN, 0);
+
+		asm.addMethod("evaluate", "([D[D[DII)V", code);
+
+		return define(asm);
+	}
+
+	/**
+	 * Returns a variable that reads a double array element
+	 *
+	 * @param 	array 	The local variable slot holding the array
+	 * @param 	index 	The local variable slot holding the index
+	 */
+	private static Variable arrayElement(int array, int index) {
+		return new Variable('D', (code) -> {
+			code.load("L", array);
+			code.load("I", index);
+			code.op(DALOAD, 0);
+		});
+	}
+
+	/**
+	 * Loads the finished class as a hidden class and returns a new instance of it
+	 *
+	 * @param 	asm 	The generated class
+	 *
+	 * @return 			An instance of the class, or null if it couldn't be loaded
+	 */
+	private static Object define(ExpressionAssembler asm) {
+		try {
+			// hidden classes don't need a class loader of their own, and are unloaded as soon as they're unreachable
+			Class<?> newClass = MethodHandles.lookup().defineHiddenClass(asm.toByteArray(), true).lookupClass();
+
+			return newClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// the interface might not be visible from here, let javac deal with it
+			return null;
 		}
+	}
 
-		// compile the file
+	/**
+	 * Returns the descriptor character of the given numeric type, ignoring boxing, or 0 if it isn't supported
+	 */
+	private static char numericType(Class<?> type) {
+		if (type == int.class || type == Integer.class)
+			return 'I';
+		if (type == long.class || type == Long.class)
+			return 'J';
+		if (type == double.class || type == Double.class)
+			return 'D';
+		return 0;
+	}
+
+	private static String unboxMethod(char type) {
+		return type == 'I' ? "intValue" : type == 'J' ? "longValue" : "doubleValue";
+	}
+
+	private static String methodDescriptor(Method method) {
+		StringBuilder desc = new StringBuilder("(");
+
+		for (Class<?> param : method.getParameterTypes())
+			desc.append(descriptor(param));
+
+		return desc.append(')').append(descriptor(method.getReturnType())).toString();
+	}
+
+	/**
+	 * Compiles the given classes in memory and returns the compiled bytecode, or null if compilation failed.
+	 * Nothing is written to disk; the sources are handed to the compiler as Strings
+	 * and the resulting class files are captured as byte arrays.
+	 *
+	 * @param 	sources 	The source of each class to compile, by class name
+	 * @param 	failures 	A map to put the errors for each class that failed to compile into, by class name
+	 *
+	 * @return 				A map of binary class names to class bytes, or null if any class didn't compile
+	 */
+	private static Map<String, byte[]> compileSources(Map<String, String> sources, Map<String, String> failures) {
 		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		int result;
 
 		if (compiler == null) {
-			System.out.println("No Compiler! Trying external tools..");
+			System.out.println("No Compiler! Make sure the program is running on a JDK.");
+			return null;
+		}
 
-			try {
-				com.sun.tools.javac.Main javac = new com.sun.tools.javac.Main();
-				result = javac.compile(new String[] {path + classFileName});
-			} catch (NoClassDefFoundError e) {
-				System.out.println("No external tools found!");
-				return false;
-			}
+		List<SourceFile> files = new ArrayList<>();
+		for (Map.Entry<String, String> source : sources.entrySet())
+			files.add(new SourceFile(source.getKey(), source.getValue()));
 
-			//return false;
-		} else
-			result = compiler.run(null, null, null, path + classFileName);
+		StandardJavaFileManager standardManager = fileManagers.poll();
+
+		if (standardManager != null)
+			idleFileManagers.decrementAndGet();
+		else
+			standardManager = compiler.getStandardFileManager(null, null, null);
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		MemoryFileManager fileManager = new MemoryFileManager(standardManager);
+		boolean result;
 
-		// delete the .java file, just because
 		try {
-			new File(path + classFileName).delete();
+			result = compiler.getTask(null, fileManager, diagnostics, null, null, files).call();
+		} finally {
+			releaseFileManager(standardManager);
+		}
 
-		// meh, we tried
-		} catch (Exception e) {}
+		if (!result) {
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				if (diagnostic.getKind() != Diagnostic.Kind.ERROR || !(diagnostic.getSource() instanceof SourceFile))
+					continue;
 
-		// if result is 0, compilation was successful
-		return result == 0;
+				failures.merge(((SourceFile)diagnostic.getSource()).className, diagnostic.toString(),
+							   (a, b) -> a + "\n" + b);
+			}
+
+			return null;
+		}
+
+		return fileManager.getClasses();
 	}
 
 	/**
-	 * Tries creating a new class and instantiating it. Returns an instance
+	 * Puts a file manager back for another compile to use, or closes it if enough are already idle
+	 */
+	private static void releaseFileManager(StandardJavaFileManager manager) {
+		if (idleFileManagers.incrementAndGet() <= MAX_IDLE_FILE_MANAGERS) {
+			fileManagers.offer(manager);
+			return;
+		}
+
+		idleFileManagers.decrementAndGet();
+
+		try {
+			manager.close();
+		} catch (IOException e) {
+			// nothing else can be done with it
+		}
+	}
+
+	/**
+	 * Tries creating a new class from the given template and instantiating it. Returns an instance
 	 * of that class if it is successful, or null if it fails.
 	 */
-	private static Object createNewInstance(String implement, String header, String expression) {
+	private static Object createNewInstance(Template template, String expression) {
 
 		// a feeble attempt at preventing arbitrary code execution
 		// by limiting expressions to a single statement.
@@ -185,37 +1021,303 @@ public class ExpressionCompiler {
 			return null;
 
 		// since we might create multiple expressions, we need their names to be unique
-		String className = "MyExpression" + classNum++;
+		String className = "MyExpression" + classNum.getAndIncrement();
+
+		Map<String, String> failures = new HashMap<>();
+		Map<String, byte[]> classes = compileSources(Collections.singletonMap(className, template.source(className, expression)), failures);
 
 		// if we compile the class susseccfully, try and instantiate it
-		if (writeAndCompile(className, implement, header, expression)) {
-			try {
-				File classFile = new File(path + className + ".class");
-				// load the class into the JVM, and try and get an instance of it
-				//Class<?> newClass = ClassLoader.getSystemClassLoader().loadClass(className);
-
-				URLClassLoader classLoader = URLClassLoader.newInstance(new URL[] { classFile.toURI().toURL() });
-				Class<?> newClass = Class.forName(className, true, classLoader);
-
-				// delete the class file, so we leave no trace
-				// this is okay because we already loaded the class
-				try {
-					classFile.delete();
-
-				// meh, we tried
-				} catch (Exception e) {}
-
-				return newClass.newInstance();
-			} catch (Exception e) {
-				e.printStackTrace();
-				//System.out.println("Couldn't load class");
-				return null;
-			}
-		} else {
-			System.out.println("Couldn't write / compile source");
-		}
+		if (classes != null)
+			return instantiate(className, classes);
+
+		failures.values().forEach(System.out::println);
+		System.out.println("Couldn't compile source");
 
 		// the class didn't compile
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Loads the given compiled class and returns a new instance of it, or null if that fails
+	 */
+	private static Object instantiate(String className, Map<String, byte[]> classes) {
+		try {
+			// load the class into the JVM straight from the compiled bytes, and try and get an instance of it.
+			// each expression gets its own loader so the class can be unloaded once the instance is unreachable.
+			// the loader only keeps the expression's own classes, so that it doesn't hold on to the rest of its batch
+			Map<String, byte[]> own = new HashMap<>();
+
+			for (Map.Entry<String, byte[]> entry : classes.entrySet())
+				if (entry.getKey().equals(className) || entry.getKey().startsWith(className + "$"))
+					own.put(entry.getKey(), entry.getValue());
+
+			ClassLoader classLoader = new MemoryClassLoader(own, ExpressionCompiler.class.getClassLoader());
+			Class<?> newClass = Class.forName(className, true, classLoader);
+
+			return newClass.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			e.printStackTrace();
+			//System.out.println("Couldn't load class");
+			return null;
+		}
+	}
+
+	/**
+	 * Describes the class that an expression gets compiled into:
+	 * which interface it implements, and how to build it with or without javac
+	 */
+	private static final class Template {
+		private final Class<?> iface;
+		private final String base, implement, header, prelude;
+
+		// generates an instance directly as bytecode, or returns null if it can't
+		private final Function<String, Object> assembler;
+
+		/**
+		 * @param 	base 		The class source to fill in
+		 * @param 	iface 		The interface to implement
+		 * @param 	implement 	The name of the interface as written in the source
+		 * @param 	header 		The header of the method that evaluates the expression
+		 * @param 	prelude 	Statements to run in the method before evaluating the expression
+		 * @param 	assembler 	Generates an instance without javac, or returns null
+		 */
+		public Template(String base, Class<?> iface, String implement, String header, String prelude, Function<String, Object> assembler) {
+			this.base = base;
+			this.iface = iface;
+			this.implement = implement;
+			this.header = header;
+			this.prelude = prelude;
+			this.assembler = assembler;
+		}
+
+		public String source(String className, String expression) {
+			return String.format(base, className, implement, header, prelude, expression);
+		}
+
+		public CacheKey key(String expression) {
+			return new CacheKey(iface, header + "\n" + prelude, normalize(expression));
+		}
+	}
+
+	/**
+	 * A function of any number of doubles, passed as an array, that produces a double
+	 *
+	 * @author Kyle Cutler
+	 */
+	public interface DoubleArrayFunction {
+		/**
+		 * Evaluates the function
+		 *
+		 * @param 	args 	The arguments to the function, in the order their names were given when compiling
+		 *
+		 * @return 			The result of the function
+		 */
+		double apply(double[] args);
+	}
+
+	/**
+	 * Evaluates an expression of "x" and "y" over arrays of values
+	 *
+	 * @author Kyle Cutler
+	 */
+	public interface BulkDoubleFunction {
+		// ranges smaller than this aren't worth splitting between threads
+		int PARALLEL_THRESHOLD = 1 << 14;
+
+		/**
+		 * Evaluates the expression for every index in the given range,
+		 * setting out[i] to the value of the expression with x = xs[i] and y = ys[i]
+		 *
+		 * @param 	xs 		The values of x
+		 * @param 	ys 		The values of y
+		 * @param 	out 	The array to store the results in
+		 * @param 	from 	The first index to evaluate (inclusive)
+		 * @param 	to 		The last index to evaluate (exclusive)
+		 */
+		void evaluate(double[] xs, double[] ys, double[] out, int from, int to);
+
+		/**
+		 * Evaluates the expression for every element of the output array
+		 *
+		 * @param 	xs 		The values of x
+		 * @param 	ys 		The values of y
+		 * @param 	out 	The array to store the results in
+		 */
+		default void evaluate(double[] xs, double[] ys, double[] out) {
+			evaluate(xs, ys, out, 0, out.length);
+		}
+
+		/**
+		 * Evaluates the expression for every element of the output array,
+		 * splitting the work up between the threads of the common ForkJoinPool
+		 *
+		 * @param 	xs 		The values of x
+		 * @param 	ys 		The values of y
+		 * @param 	out 	The array to store the results in
+		 */
+		default void evaluateParallel(double[] xs, double[] ys, double[] out) {
+			evaluateParallel(xs, ys, out, ForkJoinPool.commonPool());
+		}
+
+		/**
+		 * Evaluates the expression for every element of the output array,
+		 * splitting the work up between the threads of the given pool
+		 *
+		 * @param 	xs 		The values of x
+		 * @param 	ys 		The values of y
+		 * @param 	out 	The array to store the results in
+		 * @param 	pool 	The pool to run the evaluation in
+		 */
+		default void evaluateParallel(double[] xs, double[] ys, double[] out, ForkJoinPool pool) {
+			pool.invoke(new BulkTask(this, xs, ys, out, 0, out.length));
+		}
+	}
+
+	/**
+	 * Splits a bulk evaluation in half until the pieces are small enough to evaluate directly
+	 */
+	private static class BulkTask extends RecursiveAction {
+		private final BulkDoubleFunction function;
+		private final double[] xs, ys, out;
+		private final int from, to;
+
+		public BulkTask(BulkDoubleFunction function, double[] xs, double[] ys, double[] out, int from, int to) {
+			this.function = function;
+			this.xs = xs;
+			this.ys = ys;
+			this.out = out;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BulkDoubleFunction.PARALLEL_THRESHOLD) {
+				function.evaluate(xs, ys, out, from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new BulkTask(function, xs, ys, out, from, mid),
+						  new BulkTask(function, xs, ys, out, mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Identifies a compiled expression by the interface it implements,
+	 * the method it implements and the normalized expression
+	 */
+	private static final class CacheKey {
+		private final Class<?> iface;
+		private final String signature, expression;
+
+		public CacheKey(Class<?> iface, String signature, String expression) {
+			this.iface = iface;
+			this.signature = signature;
+			this.expression = expression;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof CacheKey))
+				return false;
+
+			CacheKey key = (CacheKey)other;
+			return iface == key.iface && signature.equals(key.signature) && expression.equals(key.expression);
+		}
+
+		@Override
+		public int hashCode() {
+			return (iface.hashCode() * 31 + signature.hashCode()) * 31 + expression.hashCode();
+		}
+	}
+
+	/**
+	 * A java source file whose contents are held in memory
+	 */
+	private static class SourceFile extends SimpleJavaFileObject {
+		private final String className, source;
+
+		public SourceFile(String className, String source) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+
+			this.className = className;
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	/**
+	 * A compiled class file that is written to a byte array instead of the disk
+	 */
+	private static class ClassFile extends SimpleJavaFileObject {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		public ClassFile(String className) {
+			super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * A file manager that reads sources and library classes as usual,
+	 * but captures every class the compiler outputs in memory
+	 */
+	private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		private final Map<String, ClassFile> outputs = new HashMap<>();
+
+		public MemoryFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location, String className,
+												   JavaFileObject.Kind kind, FileObject sibling) {
+			ClassFile file = new ClassFile(className);
+			outputs.put(className, file);
+			return file;
+		}
+
+		/**
+		 * Returns the bytecode of every class written so far, keyed by binary class name
+		 */
+		public Map<String, byte[]> getClasses() {
+			Map<String, byte[]> classes = new HashMap<>();
+
+			for (Map.Entry<String, ClassFile> entry : outputs.entrySet())
+				classes.put(entry.getKey(), entry.getValue().bytes.toByteArray());
+
+			return classes;
+		}
+	}
+
+	/**
+	 * A class loader that defines classes from bytecode compiled in memory
+	 */
+	private static class MemoryClassLoader extends ClassLoader {
+		private final Map<String, byte[]> classes;
+
+		public MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+			super(parent);
+
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] bytes = classes.get(name);
+
+			if (bytes == null)
+				throw new ClassNotFoundException(name);
+
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package me.kyle1320;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import me.kyle1320.ExpressionAssembler.Code;
+
+import static me.kyle1320.ExpressionAssembler.*;
+
+/**
+ * Parses simple arithmetic expressions into a typed tree that can be turned straight into bytecode.
+ * Supports int, long and double literals, variables, the operators + - * / %,
+ * parentheses, and static fields and methods of java.lang.Math, following Java's typing rules.
+ * Anything else is rejected, so that the caller can fall back on javac.
+ *
+ * @author Kyle Cutler
+ */
+final class ExpressionParser {
+	private final String source;
+	private final Map<String, Variable> variables;
+	private int pos;
+
+	private ExpressionParser(String source, Map<String, Variable> variables) {
+		this.source = source;
+		this.variables = variables;
+	}
+
+	/**
+	 * Parses the given expression
+	 *
+	 * @param 	expression 	The expression to parse
+	 * @param 	variables 	The variables that may be used in the expression, by name
+	 *
+	 * @return 				The root of the expression tree, or null if the expression isn't supported
+	 */
+	static Node parse(String expression, Map<String, Variable> variables) {
+		ExpressionParser parser = new ExpressionParser(expression, variables);
+
+		try {
+			Node root = parser.parseSum();
+
+			parser.skipWhitespace();
+			if (parser.pos != expression.length())
+				return null;
+
+			return root;
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the type that both operands of a binary operator are promoted to
+	 */
+	static char promote(char a, char b) {
+		if (a == 'D' || b == 'D')
+			return 'D';
+		if (a == 'J' || b == 'J')
+			return 'J';
+		return 'I';
+	}
+
+	/**
+	 * Returns true if a value of the first type can be widened to the second type
+	 */
+	static boolean widens(char from, char to) {
+		return from == to || "IJFD".indexOf(from) >= 0 && "IJFD".indexOf(from) < "IJFD".indexOf(to);
+	}
+
+	private Node parseSum() {
+		Node node = parseProduct();
+
+		while (true) {
+			if (accept('+'))
+				node = new Binary('+', node, parseProduct());
+			else if (accept('-'))
+				node = new Binary('-', node, parseProduct());
+			else
+				return node;
+		}
+	}
+
+	private Node parseProduct() {
+		Node node = parseUnary();
+
+		while (true) {
+			if (accept('*'))
+				node = new Binary('*', node, parseUnary());
+			else if (accept('/'))
+				node = new Binary('/', node, parseUnary());
+			else if (accept('%'))
+				node = new Binary('%', node, parseUnary());
+			else
+				return node;
+		}
+	}
+
+	private Node parseUnary() {
+		if (accept('-'))
+			return new Negate(parseUnary());
+		if (accept('+'))
+			return parseUnary();
+
+		return parsePrimary();
+	}
+
+	private Node parsePrimary() {
+		skipWhitespace();
+
+		if (pos >= source.length())
+			throw new Unsupported();
+
+		char c = source.charAt(pos);
+
+		if (c == '(') {
+			pos++;
+			Node node = parseSum();
+			expect(')');
+			return node;
+		}
+
+		if (Character.isDigit(c) || c == '.')
+			return parseNumber();
+
+		if (Character.isJavaIdentifierStart(c)) {
+			String name = parseName();
+			boolean qualified = false;
+
+			// the compiled class statically imports Math, but allow it to be named explicitly too
+			if (name.startsWith("Math.")) {
+				name = name.substring(5);
+				qualified = true;
+			} else if (name.startsWith("java.lang.Math.")) {
+				name = name.substring(15);
+				qualified = true;
+			}
+
+			if (accept('('))
+				return parseCall(name);
+
+			// something like Math.x is not a variable, so leave it for javac to reject
+			Variable variable = qualified ? null : variables.get(name);
+			if (variable != null)
+				return new Load(variable);
+
+			if (name.equals("PI"))
+				return new Constant('D', Math.PI);
+			if (name.equals("E"))
+				return new Constant('D', Math.E);
+		}
+
+		throw new Unsupported();
+	}
+
+	private Node parseCall(String name) {
+		List<Node> args = new ArrayList<>();
+
+		if (!accept(')')) {
+			do {
+				args.add(parseSum());
+			} while (accept(','));
+
+			expect(')');
+		}
+
+		Method method = findMathMethod(name, args);
+		return new Call(method, args);
+	}
+
+	/**
+	 * Finds the most specific method in java.lang.Math that can be called with the given arguments,
+	 * the same way that javac would choose between overloads.
+	 */
+	private static Method findMathMethod(String name, List<Node> args) {
+		Method best = null;
+		boolean ambiguous = false;
+
+		for (Method method : Math.class.getMethods()) {
+			if (!method.getName().equals(name) || !Modifier.isStatic(method.getModifiers()))
+				continue;
+
+			Class<?>[] params = method.getParameterTypes();
+			if (params.length != args.size())
+				continue;
+
+			boolean applicable = true;
+			for (int i=0; i < params.length && applicable; i++)
+				applicable = params[i].isPrimitive() && widens(args.get(i).type, ExpressionAssembler.descriptor(params[i]).charAt(0));
+
+			if (!applicable)
+				continue;
+
+			if (best == null || moreSpecific(method, best)) {
+				best = method;
+				ambiguous = false;
+			} else if (!moreSpecific(best, method)) {
+				ambiguous = true;
+			}
+		}
+
+		if (best == null || ambiguous)
+			throw new Unsupported();
+
+		// floats aren't supported by the rest of the parser
+		for (Class<?> param : best.getParameterTypes())
+			if (!isSupported(param))
+				throw new Unsupported();
+		if (!isSupported(best.getReturnType()))
+			throw new Unsupported();
+
+		return best;
+	}
+
+	private static boolean moreSpecific(Method a, Method b) {
+		Class<?>[] pa = a.getParameterTypes(), pb = b.getParameterTypes();
+
+		for (int i=0; i < pa.length; i++)
+			if (!widens(ExpressionAssembler.descriptor(pa[i]).charAt(0), ExpressionAssembler.descriptor(pb[i]).charAt(0)))
+				return false;
+
+		return true;
+	}
+
+	private static boolean isSupported(Class<?> type) {
+		return type == int.class || type == long.class || type == double.class;
+	}
+
+	private Node parseNumber() {
+		int start = pos;
+		boolean decimal = false;
+
+		while (pos < source.length() && Character.isDigit(source.charAt(pos)))
+			pos++;
+
+		if (pos < source.length() && source.charAt(pos) == '.') {
+			decimal = true;
+			pos++;
+			while (pos < source.length() && Character.isDigit(source.charAt(pos)))
+				pos++;
+		}
+
+		if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E')) {
+			decimal = true;
+			pos++;
+			if (pos < source.length() && (source.charAt(pos) == '+' || source.charAt(pos) == '-'))
+				pos++;
+			while (pos < source.length() && Character.isDigit(source.charAt(pos)))
+				pos++;
+		}
+
+		String digits = source.substring(start, pos);
+		char suffix = pos < source.length() ? source.charAt(pos) : ' ';
+
+		// hex, octal, underscores, floats and the like are left to javac
+		if ((Character.isJavaIdentifierPart(suffix) || suffix == '.') && "dDlL".indexOf(suffix) < 0)
+			throw new Unsupported();
+		if (!decimal && digits.length() > 1 && digits.charAt(0) == '0')
+			throw new Unsupported();
+
+		try {
+			if (suffix == 'd' || suffix == 'D') {
+				pos++;
+				return new Constant('D', Double.parseDouble(digits));
+			} else if (suffix == 'l' || suffix == 'L') {
+				pos++;
+				if (decimal)
+					throw new Unsupported();
+				return new Constant('J', Long.parseLong(digits));
+			} else if (decimal) {
+				return new Constant('D', Double.parseDouble(digits));
+			} else {
+				return new Constant('I', Integer.parseInt(digits));
+			}
+		} catch (NumberFormatException e) {
+			throw new Unsupported();
+		}
+	}
+
+	private String parseName() {
+		int start = pos;
+
+		while (pos < source.length() && (Character.isJavaIdentifierPart(source.charAt(pos)) || source.charAt(pos) == '.'))
+			pos++;
+
+		return source.substring(start, pos);
+	}
+
+	private void skipWhitespace() {
+		while (pos < source.length() && Character.isWhitespace(source.charAt(pos)))
+			pos++;
+	}
+
+	private boolean accept(char c) {
+		skipWhitespace();
+
+		if (pos < source.length() && source.charAt(pos) == c) {
+			// ++, --, +=, etc. mean something else entirely
+			if (pos+1 < source.length() && "+-*/%".indexOf(c) >= 0) {
+				char next = source.charAt(pos+1);
+				if (next == '=' || ((c == '+' || c == '-') && next == c))
+					throw new Unsupported();
+			}
+
+			pos++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void expect(char c) {
+		if (!accept(c))
+			throw new Unsupported();
+	}
+
+	/**
+	 * Thrown internally when the parser comes across something it doesn't handle
+	 */
+	private static class Unsupported extends RuntimeException {
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Something that an expression can refer to by name
+	 *
+	 * @author Kyle Cutler
+	 */
+	static final class Variable {
+		// the type of the variable: I, J or D
+		final char type;
+
+		// adds code that pushes the value of the variable onto the stack
+		final Consumer<Code> load;
+
+		Variable(char type, Consumer<Code> load) {
+			this.type = type;
+			this.load = load;
+		}
+	}
+
+	/**
+	 * A node in the expression tree
+	 *
+	 * @author Kyle Cutler
+	 */
+	abstract static class Node {
+		// the type of the value this node produces: I, J or D
+		final char type;
+
+		Node(char type) {
+			this.type = type;
+		}
+
+		/**
+		 * Adds code that pushes the value of this node onto the stack
+		 */
+		abstract void emit(Code code);
+
+		/**
+		 * Adds code that pushes the value of this node onto the stack, widened to the given type
+		 */
+		void emit(Code code, char target) {
+			emit(code);
+
+			if (type == 'I' && target == 'J')
+				code.op(I2L, 1);
+			else if (type == 'I' && target == 'D')
+				code.op(I2D, 1);
+			else if (type == 'J' && target == 'D')
+				code.op(L2D, 0);
+		}
+	}
+
+	private static class Constant extends Node {
+		private final Number value;
+
+		Constant(char type, Number value) {
+			super(type);
+			this.value = value;
+		}
+
+		void emit(Code code) {
+			if (type == 'I')
+				code.pushInt(value.intValue());
+			else if (type == 'J')
+				code.pushLong(value.longValue());
+			else
+				code.pushDouble(value.doubleValue());
+		}
+	}
+
+	private static class Load extends Node {
+		private final Variable variable;
+
+		Load(Variable variable) {
+			super(variable.type);
+			this.variable = variable;
+		}
+
+		void emit(Code code) {
+			variable.load.accept(code);
+		}
+	}
+
+	private static class Negate extends Node {
+		private final Node operand;
+
+		Negate(Node operand) {
+			super(operand.type);
+			this.operand = operand;
+		}
+
+		void emit(Code code) {
+			operand.emit(code);
+			code.op(type == 'I' ? INEG : type == 'J' ? LNEG : DNEG, 0);
+		}
+	}
+
+	private static class Binary extends Node {
+		private final char operator;
+		private final Node left, right;
+
+		Binary(char operator, Node left, Node right) {
+			super(promote(left.type, right.type));
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		void emit(Code code) {
+			left.emit(code, type);
+			right.emit(code, type);
+
+			int base;
+			switch (operator) {
+				case '+': base = IADD; break;
+				case '-': base = ISUB; break;
+				case '*': base = IMUL; break;
+				case '/': base = IDIV; break;
+				default:  base = IREM; break;
+			}
+
+			// the int, long, float and double versions of each instruction are consecutive
+			if (type == 'I')
+				code.op(base, -1);
+			else if (type == 'J')
+				code.op(base + 1, -2);
+			else
+				code.op(base + 3, -2);
+		}
+	}
+
+	private static class Call extends Node {
+		private final Method method;
+		private final List<Node> args;
+
+		Call(Method method, List<Node> args) {
+			super(ExpressionAssembler.descriptor(method.getReturnType()).charAt(0));
+			this.method = method;
+			this.args = args;
+		}
+
+		void emit(Code code) {
+			Class<?>[] params = method.getParameterTypes();
+			StringBuilder descriptor = new StringBuilder("(");
+			int argSize = 0;
+
+			for (int i=0; i < params.length; i++) {
+				char param = ExpressionAssembler.descriptor(params[i]).charAt(0);
+				args.get(i).emit(code, param);
+				descriptor.append(param);
+				argSize += param == 'I' ? 1 : 2;
+			}
+
+			descriptor.append(')').append(type);
+			code.invoke(INVOKESTATIC, "java/lang/Math", method.getName(), descriptor.toString(),
+						(type == 'I' ? 1 : 2) - argSize);
+		}
+	}
+}
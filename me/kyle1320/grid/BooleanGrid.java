@@ -0,0 +1,412 @@
+package me.kyle1320.grid;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size 2-dimensional grid of booleans that can be changed.
+ * The cells are packed 64 to a long, one row after another. Each row starts on a new long,
+ * so that rows can be changed from different threads at the same time.
+ *
+ * @author Kyle Cutler
+ */
+public class BooleanGrid extends PrimitiveGrid {
+	// the bits past the end of each row are always left clear
+	private final long[] data;
+
+	/**
+	 * Creates a Grid with the specified width and height, filled with false
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 */
+	public BooleanGrid(int width, int height) {
+		super(width, height, 6);
+
+		data = new long[length()];
+	}
+
+	/**
+	 * Creates a Grid with the specified width and height filled with the given value
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 * @param 	fill 	The value to fill the grid with
+	 */
+	public BooleanGrid(int width, int height, boolean fill) {
+		this(width, height);
+
+		this.fill(fill);
+	}
+
+	/**
+	 * Creates a Grid with the specified width and height filled using the given factory
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 * @param 	fill 	The Factory to use to fill the grid
+	 */
+	public BooleanGrid(int width, int height, Factory fill) {
+		this(width, height);
+
+		this.fill(fill);
+	}
+
+	/**
+	 * Applies the given void operation to every cell in the grid
+	 *
+	 * @param 	op 	The VoidOperation to apply to each cell in the grid
+	 */
+	public synchronized void each(VoidOperation op) {
+		rows(false, (y, start) -> {
+			for (int w=0, i=start; w < stride; w++, i++) {
+				long bits = data[i];
+				int first = w << 6, end = Math.min(64, width - first);
+
+				for (int b=0; b < end; b++)
+					op.apply(first + b, y, (bits & (1L << b)) != 0);
+			}
+
+			return false;
+		});
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid, using a single thread
+	 *
+	 * @param 	op 	The Operation to apply to each cell in the grid
+	 *
+	 * @return 		Whether or not the grid changed
+	 */
+	public synchronized boolean transform(Operation op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel,
+	 * so the operation must not depend on the order that cells are changed in.
+	 *
+	 * @param 	op 				The Operation to apply to each cell in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed
+	 */
+	public synchronized boolean transform(Operation op, boolean multithread) {
+		return rows(multithread, (y, start) -> {
+			boolean changed = false;
+
+			// build up each long of the row before storing it, so that each is only written once
+			for (int w=0, i=start; w < stride; w++, i++) {
+				long bits = data[i], next = 0;
+				int first = w << 6, end = Math.min(64, width - first);
+
+				for (int b=0; b < end; b++)
+					if (op.apply(first + b, y, (bits & (1L << b)) != 0))
+						next |= 1L << b;
+
+				changed |= next != bits;
+				data[i] = next;
+			}
+
+			return changed;
+		});
+	}
+
+	/**
+	 * Applies the given copied operation to every cell in the grid, using a single thread
+	 *
+	 * @param 	op 	The CopiedOperation to apply to each cell in the grid
+	 *
+	 * @return 		Whether or not the grid changed
+	 */
+	public synchronized boolean transform(CopiedOperation op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given copied operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel.
+	 *
+	 * @param 	op 				The CopiedOperation to apply to each cell in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed
+	 */
+	public synchronized boolean transform(CopiedOperation op, boolean multithread) {
+		BooleanGrid copy = this.copy();
+
+		return rows(multithread, (y, start) -> {
+			boolean changed = false;
+
+			for (int w=0, i=start; w < stride; w++, i++) {
+				long bits = data[i], next = 0;
+				int first = w << 6, end = Math.min(64, width - first);
+
+				for (int b=0; b < end; b++)
+					if (op.apply(first + b, y, copy, (bits & (1L << b)) != 0))
+						next |= 1L << b;
+
+				changed |= next != bits;
+				data[i] = next;
+			}
+
+			return changed;
+		});
+	}
+
+	/**
+	 * Fills the grid using the given factory, overwriting existing values
+	 *
+	 * @param 	factory 	The Factory to use to fill the grid
+	 */
+	public synchronized void fill(Factory factory) {
+		rows(false, (y, start) -> {
+			for (int w=0, i=start; w < stride; w++, i++) {
+				long next = 0;
+				int first = w << 6, end = Math.min(64, width - first);
+
+				for (int b=0; b < end; b++)
+					if (factory.produce(first + b, y))
+						next |= 1L << b;
+
+				data[i] = next;
+			}
+
+			return false;
+		});
+	}
+
+	/**
+	 * Fills the grid with the given value, overwriting existing values
+	 *
+	 * @param 	value 	The value to fill the grid with
+	 */
+	public synchronized void fill(boolean value) {
+		// a grid with no columns has no longs to fill
+		if (!value || stride == 0) {
+			Arrays.fill(data, 0);
+			return;
+		}
+
+		// leave the bits past the end of each row clear
+		long last = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+
+		for (int y=0; y < height; y++) {
+			Arrays.fill(data, y * stride, (y + 1) * stride, -1L);
+			data[(y + 1) * stride - 1] = last;
+		}
+	}
+
+	/**
+	 * Returns the number of cells in the grid that are true
+	 *
+	 * @return 	The number of true cells
+	 */
+	public synchronized int count() {
+		int count = 0;
+
+		for (long bits : data)
+			count += Long.bitCount(bits);
+
+		return count;
+	}
+
+	/**
+	 * Returns a new grid that contains the same data as this grid
+	 *
+	 * @return 	A new BooleanGrid with the same data as this BooleanGrid
+	 */
+	public synchronized BooleanGrid copy() {
+		BooleanGrid copy = new BooleanGrid(width, height);
+
+		System.arraycopy(data, 0, copy.data, 0, data.length);
+
+		return copy;
+	}
+
+	/**
+	 * Returns the value at the given coordinates in the grid
+	 *
+	 * @param 	x 	The x coordinate of the value to be retrieved
+	 * @param 	y 	The y coordinate of the value to be retrieved
+	 *
+	 * @return 		The value at the given position in the grid
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	public boolean get(int x, int y) throws ArrayIndexOutOfBoundsException {
+		return (data[row(x, y) + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Sets the value at the given coordinates in the grid.
+	 * Setting cells in the same row from different threads at the same time may lose changes.
+	 *
+	 * @param 	x 		The x coordinate to place the value
+	 * @param 	y 		The y coordinate to place the value
+	 * @param 	value 	The value to place
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	public void set(int x, int y, boolean value) throws ArrayIndexOutOfBoundsException {
+		int i = row(x, y) + (x >>> 6);
+
+		if (value)
+			data[i] |= 1L << x;
+		else
+			data[i] &= ~(1L << x);
+	}
+
+	/**
+	 * Returns the values of the 8 neighbors surrounding the given cell that are inside the grid
+	 *
+	 * @param 	x 	The x-coordinate of the cell to look around
+	 * @param 	y 	The y-coordinate of the cell to look around
+	 *
+	 * @return 		The values of up to 8 neighbors
+	 */
+	public boolean[] getNeighbors(int x, int y) {
+		return getNeighbors(x, y, Grid.SURROUNDING);
+	}
+
+	/**
+	 * Returns the values of neighbors to the given cell that are inside the grid
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 *
+	 * @return 				The values of the neighbors
+	 */
+	public boolean[] getNeighbors(int x, int y, int[][] relatives) {
+		return getNeighbors(x, y, relatives, false);
+	}
+
+	/**
+	 * Returns the values of neighbors to the given cell
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	wrap 		Whether or not to wrap the board edges, counting
+	 * 						neighbors along the opposite edge
+	 *
+	 * @return 				The values of the neighbors
+	 */
+	public boolean[] getNeighbors(int x, int y, int[][] relatives, boolean wrap) {
+		boolean[] neighbors = new boolean[relatives.length];
+		int count = getNeighbors(x, y, relatives, wrap, neighbors);
+
+		return count == neighbors.length ? neighbors : Arrays.copyOf(neighbors, count);
+	}
+
+	/**
+	 * Puts the values of neighbors to the given cell into an array, so that no new array needs to be created
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	wrap 		Whether or not to wrap the board edges, counting
+	 * 						neighbors along the opposite edge
+	 * @param 	neighbors 	The array to put the values in, which must be at least as long as relatives
+	 *
+	 * @return 				The number of neighbors put in the array
+	 */
+	public int getNeighbors(int x, int y, int[][] relatives, boolean wrap, boolean[] neighbors) {
+		return neighbors(x, y, relatives, wrap, neighbors);
+	}
+
+	/**
+	 * Compares this grid with another object, and returns true if they are equal.
+	 * For them to be equal, the other object must be a BooleanGrid with the same width, height and values as this grid.
+	 *
+	 * @param 	other 	Another object to check equality against
+	 */
+	public synchronized boolean equals(Object other) {
+		if (!(other instanceof BooleanGrid))
+			return false;
+		BooleanGrid grid = (BooleanGrid)other;
+
+		return width == grid.width && height == grid.height && Arrays.equals(data, grid.data);
+	}
+
+	public synchronized int hashCode() {
+		return 31 * width + Arrays.hashCode(data);
+	}
+
+	// the cell's bit in the long holding it is the low 6 bits of x
+	void copyCell(int row, int x, Object out, int slot) {
+		((boolean[])out)[slot] = (data[row + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * An interface used to fill a grid with generated values
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface Factory {
+		/**
+		 * Returns a newly created value
+		 *
+		 * @param 	x 	The x-coordinate where the value is to be placed
+		 * @param 	y 	The y-coordinate where the value is to be placed
+		 *
+		 * @return 		A value to be placed at the location (x, y) in the grid
+		 */
+		boolean produce(int x, int y);
+	}
+
+	/**
+	 * An interface used to change values in the grid based on their location and value
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface Operation {
+		/**
+		 * Returns the new value for a location in the grid
+		 *
+		 * @param 	x 		The x-coordinate of the value to be changed
+		 * @param 	y 		The y-coordinate of the value to be changed
+		 * @param 	value 	The value currently at the location in the grid
+		 *
+		 * @return 			A value to be placed at the location (x, y) in the grid
+		 */
+		boolean apply(int x, int y, boolean value);
+	}
+
+	/**
+	 * An interface used to change values in the grid based on their location and value.
+	 * A copy of the grid is also passed to the operation, so that current changes in the grid will not affect future operations.
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface CopiedOperation {
+		/**
+		 * Returns the new value for a location in the grid
+		 *
+		 * @param 	x 		The x-coordinate of the value to be changed
+		 * @param 	y 		The y-coordinate of the value to be changed
+		 * @param 	copy 	A copy of the original grid
+		 * @param 	value 	The value currently at the location in the grid
+		 *
+		 * @return 			A value to be placed at the location (x, y) in the grid
+		 */
+		boolean apply(int x, int y, BooleanGrid copy, boolean value);
+	}
+
+	/**
+	 * An interface used to do something with the values in the grid
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface VoidOperation {
+		/**
+		 * Takes a value at a location in the grid and does something
+		 *
+		 * @param 	x 		The x-coordinate of the value
+		 * @param 	y 		The y-coordinate of the value
+		 * @param 	value 	The value at the location in the grid
+		 */
+		void apply(int x, int y, boolean value);
+	}
+}
@@ -0,0 +1,78 @@
+package me.kyle1320.grid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the value of a cell into a fixed number of bytes and back, so that grids can be kept outside of the heap
+ *
+ * @author Kyle Cutler
+ */
+public interface CellCodec<T> {
+	/**
+	 * Returns the number of bytes every cell takes up
+	 *
+	 * @return 	The size of a cell in bytes
+	 */
+	int size();
+
+	/**
+	 * Reads a value from the given position in a buffer, without changing the buffer's position
+	 *
+	 * @param 	buffer 	The buffer to read from
+	 * @param 	offset 	The index of the first byte of the value
+	 *
+	 * @return 			The value that was read
+	 */
+	T read(ByteBuffer buffer, int offset);
+
+	/**
+	 * Writes a value to the given position in a buffer, without changing the buffer's position
+	 *
+	 * @param 	buffer 	The buffer to write to
+	 * @param 	offset 	The index to write the first byte of the value at
+	 * @param 	value 	The value to write, which must not be null
+	 */
+	void write(ByteBuffer buffer, int offset, T value);
+
+	CellCodec<Byte> BYTE = new CellCodec<Byte>() {
+		public int size() { return 1; }
+		public Byte read(ByteBuffer buffer, int offset) { return buffer.get(offset); }
+		public void write(ByteBuffer buffer, int offset, Byte value) { buffer.put(offset, value); }
+	};
+
+	CellCodec<Boolean> BOOLEAN = new CellCodec<Boolean>() {
+		public int size() { return 1; }
+		public Boolean read(ByteBuffer buffer, int offset) { return buffer.get(offset) != 0; }
+		public void write(ByteBuffer buffer, int offset, Boolean value) { buffer.put(offset, (byte)(value ? 1 : 0)); }
+	};
+
+	CellCodec<Short> SHORT = new CellCodec<Short>() {
+		public int size() { return 2; }
+		public Short read(ByteBuffer buffer, int offset) { return buffer.getShort(offset); }
+		public void write(ByteBuffer buffer, int offset, Short value) { buffer.putShort(offset, value); }
+	};
+
+	CellCodec<Integer> INT = new CellCodec<Integer>() {
+		public int size() { return 4; }
+		public Integer read(ByteBuffer buffer, int offset) { return buffer.getInt(offset); }
+		public void write(ByteBuffer buffer, int offset, Integer value) { buffer.putInt(offset, value); }
+	};
+
+	CellCodec<Long> LONG = new CellCodec<Long>() {
+		public int size() { return 8; }
+		public Long read(ByteBuffer buffer, int offset) { return buffer.getLong(offset); }
+		public void write(ByteBuffer buffer, int offset, Long value) { buffer.putLong(offset, value); }
+	};
+
+	CellCodec<Float> FLOAT = new CellCodec<Float>() {
+		public int size() { return 4; }
+		public Float read(ByteBuffer buffer, int offset) { return buffer.getFloat(offset); }
+		public void write(ByteBuffer buffer, int offset, Float value) { buffer.putFloat(offset, value); }
+	};
+
+	CellCodec<Double> DOUBLE = new CellCodec<Double>() {
+		public int size() { return 8; }
+		public Double read(ByteBuffer buffer, int offset) { return buffer.getDouble(offset); }
+		public void write(ByteBuffer buffer, int offset, Double value) { buffer.putDouble(offset, value); }
+	};
+}
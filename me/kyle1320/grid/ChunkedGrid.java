@@ -0,0 +1,561 @@
+package me.kyle1320.grid;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+/**
+ * A 2-dimensional grid of items with no edges, where every cell starts off holding a default value.
+ * The grid is split into 64x64 chunks, which are only created once something other than the default value is put in them,
+ * and are removed again when they go back to only holding the default value.
+ * So the memory used only depends on how much of the grid is in use, and not on where.
+ *
+ * Like Grid, reading cells is not synchronized. Cells must not be read while another thread is setting them.
+ *
+ * @author Kyle Cutler
+ */
+public class ChunkedGrid<T> {
+	private static final int CHUNK_SHIFT = 6, CHUNK = 1 << CHUNK_SHIFT, MASK = CHUNK - 1, CELLS = CHUNK * CHUNK;
+
+	private final T defaultValue;
+	private ChunkMap chunks = new ChunkMap();
+
+	/**
+	 * Creates an empty ChunkedGrid where every cell is null
+	 */
+	public ChunkedGrid() {
+		this(null);
+	}
+
+	/**
+	 * Creates a ChunkedGrid where every cell holds the given value
+	 *
+	 * @param 	defaultValue 	The value of cells that haven't been set
+	 */
+	public ChunkedGrid(T defaultValue) {
+		this.defaultValue = defaultValue;
+	}
+
+	/**
+	 * Applies the given void operation to every cell in the grid that doesn't hold the default value
+	 *
+	 * @param 	op 	The VoidOperation to apply to each cell
+	 */
+	public synchronized void each(Grid.VoidOperation<T> op) {
+		for (Chunk chunk : chunks.values()) {
+			int baseX = chunkX(chunk.key) << CHUNK_SHIFT, baseY = chunkY(chunk.key) << CHUNK_SHIFT;
+
+			for (int i=0; i < CELLS; i++)
+				if (Grid.differ(chunk.cells[i], defaultValue))
+					op.apply(baseX + (i & MASK), baseY + (i >>> CHUNK_SHIFT), cell(chunk, i));
+		}
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid that is in a chunk, using a single thread
+	 *
+	 * @param 	op 	The Operation to apply to the cells in the grid
+	 *
+	 * @return 		Whether or not the grid changed (according to .equals)
+	 */
+	public synchronized boolean transform(Grid.Operation<T> op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid that is in a chunk.
+	 * The rest of the grid is left holding the default value, so the operation must not change a cell that holds the default value.
+	 * When multithreaded, chunks are transformed in parallel on the grids' ForkJoinPool,
+	 * so the operation must not depend on the order that cells are changed in.
+	 *
+	 * @param 	op 				The Operation to apply to the cells in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed (according to .equals)
+	 */
+	public synchronized boolean transform(Grid.Operation<T> op, boolean multithread) {
+		Chunk[] all = chunks.values();
+
+		boolean changed = RowBands.transform(CELLS, all.length, multithread, i -> transformChunk(op, all[i]));
+
+		for (Chunk chunk : all)
+			if (chunk.count == 0)
+				chunks.remove(chunk.key);
+
+		return changed;
+	}
+
+	/**
+	 * Applies the given copied operation to every cell in or next to a chunk, using a single thread
+	 *
+	 * @param 	op 	The CopiedOperation to apply to the cells in the grid
+	 *
+	 * @return 		Whether or not the grid changed (according to .equals)
+	 */
+	public synchronized boolean transform(CopiedOperation<T> op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given copied operation to every cell in a chunk or in the chunks around one.
+	 * The rest of the grid is left holding the default value, so the operation must leave a cell holding the default value
+	 * when everything within 64 cells of it holds the default value, as the rules of a cellular automaton usually do.
+	 *
+	 * The next generation is written into new chunks, so the grid itself is passed to the operation as the copy,
+	 * and doesn't change until the transform is done.
+	 * When multithreaded, chunks are transformed in parallel on the grids' ForkJoinPool.
+	 *
+	 * @param 	op 				The CopiedOperation to apply to the cells in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed (according to .equals)
+	 */
+	public synchronized boolean transform(CopiedOperation<T> op, boolean multithread) {
+		long[] keys = nearbyKeys();
+		Chunk[] next = new Chunk[keys.length];
+
+		boolean changed = RowBands.transform(CELLS, keys.length, multithread, i -> transformChunk(op, keys[i], next, i));
+
+		ChunkMap map = new ChunkMap();
+
+		for (Chunk chunk : next)
+			if (chunk != null)
+				map.put(chunk);
+
+		chunks = map;
+		return changed;
+	}
+
+	/**
+	 * Applies an operation to every cell in a chunk, counting how many don't hold the default value afterwards
+	 *
+	 * @return 	Whether the chunk changed
+	 */
+	private boolean transformChunk(Grid.Operation<T> op, Chunk chunk) {
+		Object[] cells = chunk.cells;
+		int baseX = chunkX(chunk.key) << CHUNK_SHIFT, baseY = chunkY(chunk.key) << CHUNK_SHIFT;
+		int count = 0;
+		boolean changed = false;
+
+		for (int i=0; i < CELLS; i++) {
+			T n = op.apply(baseX + (i & MASK), baseY + (i >>> CHUNK_SHIFT), cell(chunk, i));
+			if (!changed)
+				changed = Grid.differ(cells[i], n);
+			if (Grid.differ(n, defaultValue))
+				count++;
+			cells[i] = n;
+		}
+
+		chunk.count = count;
+		return changed;
+	}
+
+	/**
+	 * Applies a copied operation to every cell in the chunk with the given key, putting the new chunk in next[slot].
+	 * The new chunk is only created once a cell in it doesn't hold the default value.
+	 *
+	 * @return 	Whether the chunk changed
+	 */
+	private boolean transformChunk(CopiedOperation<T> op, long key, Chunk[] next, int slot) {
+		Chunk old = chunks.get(key), chunk = null;
+		int baseX = chunkX(key) << CHUNK_SHIFT, baseY = chunkY(key) << CHUNK_SHIFT;
+		boolean changed = false;
+
+		for (int i=0; i < CELLS; i++) {
+			T value = old == null ? defaultValue : cell(old, i);
+			T n = op.apply(baseX + (i & MASK), baseY + (i >>> CHUNK_SHIFT), this, value);
+			if (!changed)
+				changed = Grid.differ(value, n);
+
+			if (Grid.differ(n, defaultValue)) {
+				if (chunk == null)
+					chunk = newChunk(key);
+				chunk.count++;
+			}
+
+			// before the chunk is created, every new value is the default, which the chunk starts off filled with
+			if (chunk != null)
+				chunk.cells[i] = n;
+		}
+
+		next[slot] = chunk;
+		return changed;
+	}
+
+	/**
+	 * Returns the keys of every chunk and the chunks around them, in order and without repeats
+	 */
+	private long[] nearbyKeys() {
+		Chunk[] all = chunks.values();
+		long[] keys = new long[all.length * 9];
+		int n = 0;
+
+		for (Chunk chunk : all) {
+			int cx = chunkX(chunk.key), cy = chunkY(chunk.key);
+
+			for (int dy=-1; dy <= 1; dy++)
+				for (int dx=-1; dx <= 1; dx++)
+					keys[n++] = key(cx + dx, cy + dy);
+		}
+
+		Arrays.sort(keys);
+
+		int unique = 0;
+		for (int i=0; i < n; i++)
+			if (unique == 0 || keys[i] != keys[unique - 1])
+				keys[unique++] = keys[i];
+
+		return Arrays.copyOf(keys, unique);
+	}
+
+	/**
+	 * Puts the default value back in every cell, removing all of the chunks
+	 */
+	public synchronized void clear() {
+		chunks = new ChunkMap();
+	}
+
+	/**
+	 * Returns a new grid that contains the same data as this grid
+	 *
+	 * @return 	A new ChunkedGrid with the same data as this ChunkedGrid
+	 */
+	public synchronized ChunkedGrid<T> copy() {
+		ChunkedGrid<T> copy = new ChunkedGrid<>(defaultValue);
+
+		for (Chunk chunk : chunks.values()) {
+			Chunk clone = new Chunk(chunk.key, chunk.cells.clone());
+			clone.count = chunk.count;
+			copy.chunks.put(clone);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Returns the item at the given coordinates in the grid
+	 *
+	 * @param 	x 	The x coordinate of the item to be retrieved
+	 * @param 	y 	The y coordinate of the item to be retrieved
+	 *
+	 * @return 		The item at the given position in the grid, or the default value if nothing was put there
+	 */
+	public T get(int x, int y) {
+		Chunk chunk = chunks.get(key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT));
+
+		return chunk == null ? defaultValue : cell(chunk, index(x, y));
+	}
+
+	/**
+	 * Sets the item at the given coordinates in the grid to the given value, overwriting any existing item.
+	 * This creates the chunk holding the cell if it doesn't exist yet, and removes it if it now only holds the default value.
+	 *
+	 * @param 	x 		The x coordinate to place the item
+	 * @param 	y 		The y coordinate to place the item
+	 * @param 	value 	The item to place
+	 */
+	public synchronized void set(int x, int y, T value) {
+		long key = key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+		Chunk chunk = chunks.get(key);
+
+		if (chunk == null) {
+			if (!Grid.differ(value, defaultValue))
+				return;
+
+			chunk = newChunk(key);
+			chunks.put(chunk);
+		}
+
+		int i = index(x, y);
+
+		if (Grid.differ(chunk.cells[i], defaultValue))
+			chunk.count--;
+		if (Grid.differ(value, defaultValue))
+			chunk.count++;
+
+		chunk.cells[i] = value;
+
+		if (chunk.count == 0)
+			chunks.remove(key);
+	}
+
+	/**
+	 * Returns a list of the values of the 8 neighbors surrounding the given cell
+	 *
+	 * @param 	x 	The x-coordinate of the cell to look around
+	 * @param 	y 	The y-coordinate of the cell to look around
+	 *
+	 * @return 		A list of the 8 neighbor values
+	 */
+	public List<T> getNeighbors(int x, int y) {
+		return getNeighbors(x, y, Grid.SURROUNDING);
+	}
+
+	/**
+	 * Returns a list of the values of neighbors to the given cell
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 *
+	 * @return 				A list of the neighbor values, in the same order as relatives
+	 */
+	public List<T> getNeighbors(int x, int y, int[][] relatives) {
+		List<T> neighbors = new ArrayList<>(relatives.length);
+		Chunk home = chunks.get(key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT));
+
+		for (int[] relative : relatives)
+			neighbors.add(neighbor(home, x, y, x + relative[0], y + relative[1]));
+
+		return neighbors;
+	}
+
+	/**
+	 * Applies the given void operation to each neighbor of the given cell, without allocating anything
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	op 			The VoidOperation to apply to each neighbor, which is given the neighbor's coordinates
+	 */
+	public void forEachNeighbor(int x, int y, int[][] relatives, Grid.VoidOperation<T> op) {
+		Chunk home = chunks.get(key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT));
+
+		for (int[] relative : relatives) {
+			int nx = x + relative[0], ny = y + relative[1];
+
+			op.apply(nx, ny, neighbor(home, x, y, nx, ny));
+		}
+	}
+
+	/**
+	 * Returns the number of the 8 neighbors surrounding the given cell that pass the given test, without allocating anything
+	 *
+	 * @param 	x 		The x-coordinate of the cell to look around
+	 * @param 	y 		The y-coordinate of the cell to look around
+	 * @param 	test 	The test a neighbor must pass to be counted
+	 *
+	 * @return 			The number of neighbors that passed the test
+	 */
+	public int countNeighbors(int x, int y, Predicate<? super T> test) {
+		return countNeighbors(x, y, Grid.SURROUNDING, test);
+	}
+
+	/**
+	 * Returns the number of neighbors to the given cell that pass the given test, without allocating anything
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	test 		The test a neighbor must pass to be counted
+	 *
+	 * @return 				The number of neighbors that passed the test
+	 */
+	public int countNeighbors(int x, int y, int[][] relatives, Predicate<? super T> test) {
+		Chunk home = chunks.get(key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT));
+		int count = 0;
+
+		for (int[] relative : relatives)
+			if (test.test(neighbor(home, x, y, x + relative[0], y + relative[1])))
+				count++;
+
+		return count;
+	}
+
+	/**
+	 * Returns the value of a neighbor of the cell (x, y), only looking up its chunk if it isn't in the same one as the cell
+	 */
+	private T neighbor(Chunk home, int x, int y, int nx, int ny) {
+		int cx = nx >> CHUNK_SHIFT, cy = ny >> CHUNK_SHIFT;
+		Chunk chunk = cx == x >> CHUNK_SHIFT && cy == y >> CHUNK_SHIFT ? home : chunks.get(key(cx, cy));
+
+		return chunk == null ? defaultValue : cell(chunk, index(nx, ny));
+	}
+
+	/**
+	 * Returns the value of cells that haven't been set
+	 *
+	 * @return 	The default value of this grid
+	 */
+	public T getDefaultValue() {
+		return defaultValue;
+	}
+
+	/**
+	 * Returns the number of chunks in this grid, each of which holds 64x64 cells
+	 *
+	 * @return 	The number of chunks in this grid
+	 */
+	public synchronized int getChunkCount() {
+		return chunks.size();
+	}
+
+	private Chunk newChunk(long key) {
+		Object[] cells = new Object[CELLS];
+
+		if (defaultValue != null)
+			Arrays.fill(cells, defaultValue);
+
+		return new Chunk(key, cells);
+	}
+
+	@SuppressWarnings("unchecked")
+	private T cell(Chunk chunk, int i) {
+		return (T)chunk.cells[i];
+	}
+
+	/**
+	 * Returns the index of the given cell within its chunk
+	 */
+	private static int index(int x, int y) {
+		return ((y & MASK) << CHUNK_SHIFT) | (x & MASK);
+	}
+
+	/**
+	 * Packs the coordinates of a chunk into a single key
+	 */
+	private static long key(int cx, int cy) {
+		return ((long)cy << 32) | (cx & 0xffffffffL);
+	}
+
+	private static int chunkX(long key) {
+		return (int)key;
+	}
+
+	private static int chunkY(long key) {
+		return (int)(key >>> 32);
+	}
+
+	/**
+	 * A 64x64 block of cells, kept in rows
+	 */
+	private static final class Chunk {
+		final long key;
+		final Object[] cells;
+
+		// the number of cells that don't hold the default value
+		int count;
+
+		Chunk(long key, Object[] cells) {
+			this.key = key;
+			this.cells = cells;
+		}
+	}
+
+	/**
+	 * A hash table of chunks by their keys, which keeps the keys as longs instead of boxing them.
+	 * Chunks are kept in one array, and a chunk that collides with another goes in the next free slot after it.
+	 */
+	private static final class ChunkMap {
+		private Chunk[] table = new Chunk[16];
+		private int size;
+
+		Chunk get(long key) {
+			Chunk[] table = this.table;
+			int mask = table.length - 1;
+
+			for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+				Chunk chunk = table[i];
+
+				if (chunk == null || chunk.key == key)
+					return chunk;
+			}
+		}
+
+		/**
+		 * Adds a chunk, which must not already have a chunk with the same key in the table
+		 */
+		void put(Chunk chunk) {
+			// keep the table at most half full, so that runs of collisions stay short
+			if (size + 1 > table.length >>> 1) {
+				Chunk[] old = table;
+				table = new Chunk[old.length << 1];
+
+				for (Chunk c : old)
+					if (c != null)
+						insert(table, c);
+			}
+
+			insert(table, chunk);
+			size++;
+		}
+
+		void remove(long key) {
+			Chunk[] table = this.table;
+			int mask = table.length - 1;
+			int gap = hash(key) & mask;
+
+			while (table[gap] != null && table[gap].key != key)
+				gap = (gap + 1) & mask;
+
+			if (table[gap] == null)
+				return;
+
+			// move back any chunks after the gap that would otherwise no longer be found past it
+			for (int i = (gap + 1) & mask; table[i] != null; i = (i + 1) & mask) {
+				int home = hash(table[i].key) & mask;
+
+				if (((i - home) & mask) >= ((i - gap) & mask)) {
+					table[gap] = table[i];
+					gap = i;
+				}
+			}
+
+			table[gap] = null;
+			size--;
+		}
+
+		int size() {
+			return size;
+		}
+
+		Chunk[] values() {
+			Chunk[] values = new Chunk[size];
+			int n = 0;
+
+			for (Chunk chunk : table)
+				if (chunk != null)
+					values[n++] = chunk;
+
+			return values;
+		}
+
+		private static void insert(Chunk[] table, Chunk chunk) {
+			int mask = table.length - 1;
+			int i = hash(chunk.key) & mask;
+
+			while (table[i] != null)
+				i = (i + 1) & mask;
+
+			table[i] = chunk;
+		}
+
+		private static int hash(long key) {
+			// spread the bits of both coordinates into the low bits, which are used to pick the slot
+			long h = key * 0x9e3779b97f4a7c15L;
+			return (int)(h ^ (h >>> 32));
+		}
+	}
+
+	/**
+	 * An interface used to change elements in the grid based on their location and data.
+	 * The grid is also passed to the operation as it was before the transform started,
+	 * so that current changes in the grid will not affect future operations.
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface CopiedOperation<T> {
+		/**
+		 * Changes the object at a location in the grid and returns the changed item
+		 *
+		 * @param 	x 		The x-coordinate of the item to be changed
+		 * @param 	y 		The y-coordinate of the item to be changed
+		 * @param 	copy 	The grid as it was before the transform started
+		 * @param 	data 	The value currently at the location in the grid
+		 *
+		 * @return 			An object to be placed at the location (x, y) in the grid
+		 */
+		T apply(int x, int y, ChunkedGrid<T> copy, T data);
+	}
+}
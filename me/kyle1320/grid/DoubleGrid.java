@@ -0,0 +1,360 @@
+package me.kyle1320.grid;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size 2-dimensional grid of doubles that can be changed.
+ * The cells are kept in a single array, one row after another, so nothing is boxed.
+ *
+ * @author Kyle Cutler
+ */
+public class DoubleGrid extends PrimitiveGrid {
+	private final double[] data;
+
+	/**
+	 * Creates a Grid with the specified width and height, filled with zeroes
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 */
+	public DoubleGrid(int width, int height) {
+		super(width, height, 0);
+
+		data = new double[length()];
+	}
+
+	/**
+	 * Creates a Grid with the specified width and height filled with the given value
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 * @param 	fill 	The value to fill the grid with
+	 */
+	public DoubleGrid(int width, int height, double fill) {
+		this(width, height);
+
+		this.fill(fill);
+	}
+
+	/**
+	 * Creates a Grid with the specified width and height filled using the given factory
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 * @param 	fill 	The Factory to use to fill the grid
+	 */
+	public DoubleGrid(int width, int height, Factory fill) {
+		this(width, height);
+
+		this.fill(fill);
+	}
+
+	/**
+	 * Applies the given void operation to every cell in the grid
+	 *
+	 * @param 	op 	The VoidOperation to apply to each cell in the grid
+	 */
+	public synchronized void each(VoidOperation op) {
+		rows(false, (y, start) -> {
+			for (int x=0, i=start; x < width; x++, i++)
+				op.apply(x, y, data[i]);
+
+			return false;
+		});
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid, using a single thread
+	 *
+	 * @param 	op 	The Operation to apply to each cell in the grid
+	 *
+	 * @return 		Whether or not the grid changed
+	 */
+	public synchronized boolean transform(Operation op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel,
+	 * so the operation must not depend on the order that cells are changed in.
+	 *
+	 * @param 	op 				The Operation to apply to each cell in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed
+	 */
+	public synchronized boolean transform(Operation op, boolean multithread) {
+		return rows(multithread, (y, start) -> {
+			boolean changed = false;
+
+			for (int x=0, i=start; x < width; x++, i++) {
+				double n = op.apply(x, y, data[i]);
+				changed |= differ(n, data[i]);
+				data[i] = n;
+			}
+
+			return changed;
+		});
+	}
+
+	/**
+	 * Applies the given copied operation to every cell in the grid, using a single thread
+	 *
+	 * @param 	op 	The CopiedOperation to apply to each cell in the grid
+	 *
+	 * @return 		Whether or not the grid changed
+	 */
+	public synchronized boolean transform(CopiedOperation op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given copied operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel.
+	 *
+	 * @param 	op 				The CopiedOperation to apply to each cell in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed
+	 */
+	public synchronized boolean transform(CopiedOperation op, boolean multithread) {
+		DoubleGrid copy = this.copy();
+
+		return rows(multithread, (y, start) -> {
+			boolean changed = false;
+
+			for (int x=0, i=start; x < width; x++, i++) {
+				double n = op.apply(x, y, copy, data[i]);
+				changed |= differ(n, data[i]);
+				data[i] = n;
+			}
+
+			return changed;
+		});
+	}
+
+	/**
+	 * Fills the grid using the given factory, overwriting existing values
+	 *
+	 * @param 	factory 	The Factory to use to fill the grid
+	 */
+	public synchronized void fill(Factory factory) {
+		rows(false, (y, start) -> {
+			for (int x=0, i=start; x < width; x++, i++)
+				data[i] = factory.produce(x, y);
+
+			return false;
+		});
+	}
+
+	/**
+	 * Fills the grid with the given value, overwriting existing values
+	 *
+	 * @param 	value 	The value to fill the grid with
+	 */
+	public synchronized void fill(double value) {
+		Arrays.fill(data, value);
+	}
+
+	/**
+	 * Returns a new grid that contains the same data as this grid
+	 *
+	 * @return 	A new DoubleGrid with the same data as this DoubleGrid
+	 */
+	public synchronized DoubleGrid copy() {
+		DoubleGrid copy = new DoubleGrid(width, height);
+
+		System.arraycopy(data, 0, copy.data, 0, data.length);
+
+		return copy;
+	}
+
+	/**
+	 * Returns the value at the given coordinates in the grid
+	 *
+	 * @param 	x 	The x coordinate of the value to be retrieved
+	 * @param 	y 	The y coordinate of the value to be retrieved
+	 *
+	 * @return 		The value at the given position in the grid
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	public double get(int x, int y) throws ArrayIndexOutOfBoundsException {
+		return data[row(x, y) + x];
+	}
+
+	/**
+	 * Sets the value at the given coordinates in the grid
+	 *
+	 * @param 	x 		The x coordinate to place the value
+	 * @param 	y 		The y coordinate to place the value
+	 * @param 	value 	The value to place
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	public void set(int x, int y, double value) throws ArrayIndexOutOfBoundsException {
+		data[row(x, y) + x] = value;
+	}
+
+	/**
+	 * Returns the values of the 8 neighbors surrounding the given cell that are inside the grid
+	 *
+	 * @param 	x 	The x-coordinate of the cell to look around
+	 * @param 	y 	The y-coordinate of the cell to look around
+	 *
+	 * @return 		The values of up to 8 neighbors
+	 */
+	public double[] getNeighbors(int x, int y) {
+		return getNeighbors(x, y, Grid.SURROUNDING);
+	}
+
+	/**
+	 * Returns the values of neighbors to the given cell that are inside the grid
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 *
+	 * @return 				The values of the neighbors
+	 */
+	public double[] getNeighbors(int x, int y, int[][] relatives) {
+		return getNeighbors(x, y, relatives, false);
+	}
+
+	/**
+	 * Returns the values of neighbors to the given cell
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	wrap 		Whether or not to wrap the board edges, counting
+	 * 						neighbors along the opposite edge
+	 *
+	 * @return 				The values of the neighbors
+	 */
+	public double[] getNeighbors(int x, int y, int[][] relatives, boolean wrap) {
+		double[] neighbors = new double[relatives.length];
+		int count = getNeighbors(x, y, relatives, wrap, neighbors);
+
+		return count == neighbors.length ? neighbors : Arrays.copyOf(neighbors, count);
+	}
+
+	/**
+	 * Puts the values of neighbors to the given cell into an array, so that no new array needs to be created
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	wrap 		Whether or not to wrap the board edges, counting
+	 * 						neighbors along the opposite edge
+	 * @param 	neighbors 	The array to put the values in, which must be at least as long as relatives
+	 *
+	 * @return 				The number of neighbors put in the array
+	 */
+	public int getNeighbors(int x, int y, int[][] relatives, boolean wrap, double[] neighbors) {
+		return neighbors(x, y, relatives, wrap, neighbors);
+	}
+
+	/**
+	 * Compares this grid with another object, and returns true if they are equal.
+	 * For them to be equal, the other object must be a DoubleGrid with the same width, height and values as this grid,
+	 * compared in the same way as Double.equals.
+	 *
+	 * @param 	other 	Another object to check equality against
+	 */
+	public synchronized boolean equals(Object other) {
+		if (!(other instanceof DoubleGrid))
+			return false;
+		DoubleGrid grid = (DoubleGrid)other;
+
+		return width == grid.width && height == grid.height && Arrays.equals(data, grid.data);
+	}
+
+	public synchronized int hashCode() {
+		return 31 * width + Arrays.hashCode(data);
+	}
+
+	/**
+	 * Returns true if the two values are different, in the same way as Double.equals,
+	 * so that NaN doesn't count as a change but going between 0.0 and -0.0 does
+	 */
+	private static boolean differ(double a, double b) {
+		return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+	}
+
+	void copyCell(int row, int x, Object out, int slot) {
+		((double[])out)[slot] = data[row + x];
+	}
+
+	/**
+	 * An interface used to fill a grid with generated values
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface Factory {
+		/**
+		 * Returns a newly created value
+		 *
+		 * @param 	x 	The x-coordinate where the value is to be placed
+		 * @param 	y 	The y-coordinate where the value is to be placed
+		 *
+		 * @return 		A value to be placed at the location (x, y) in the grid
+		 */
+		double produce(int x, int y);
+	}
+
+	/**
+	 * An interface used to change values in the grid based on their location and value
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface Operation {
+		/**
+		 * Returns the new value for a location in the grid
+		 *
+		 * @param 	x 		The x-coordinate of the value to be changed
+		 * @param 	y 		The y-coordinate of the value to be changed
+		 * @param 	value 	The value currently at the location in the grid
+		 *
+		 * @return 			A value to be placed at the location (x, y) in the grid
+		 */
+		double apply(int x, int y, double value);
+	}
+
+	/**
+	 * An interface used to change values in the grid based on their location and value.
+	 * A copy of the grid is also passed to the operation, so that current changes in the grid will not affect future operations.
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface CopiedOperation {
+		/**
+		 * Returns the new value for a location in the grid
+		 *
+		 * @param 	x 		The x-coordinate of the value to be changed
+		 * @param 	y 		The y-coordinate of the value to be changed
+		 * @param 	copy 	A copy of the original grid
+		 * @param 	value 	The value currently at the location in the grid
+		 *
+		 * @return 			A value to be placed at the location (x, y) in the grid
+		 */
+		double apply(int x, int y, DoubleGrid copy, double value);
+	}
+
+	/**
+	 * An interface used to do something with the values in the grid
+	 *
+	 * @author 	Kyle Cutler
+	 */
+	public interface VoidOperation {
+		/**
+		 * Takes a value at a location in the grid and does something
+		 *
+		 * @param 	x 		The x-coordinate of the value
+		 * @param 	y 		The y-coordinate of the value
+		 * @param 	value 	The value at the location in the grid
+		 */
+		void apply(int x, int y, double value);
+	}
+}
@@ -1,8 +1,12 @@
 package me.kyle1320.grid;
 
 import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.SynchronousQueue;
 
 /**
@@ -16,7 +20,26 @@ public class Grid<T> {
 	public static final int[][] DIAGONAL 	= {{1, 1}, {1, -1}, {-1, -1}, {-1, 1}};
 
 	private final int width, height;
-	private final T[][] data;
+
+	// the cells are kept in one array, one row after another. Each row starts stride cells after the last,
+	// which is more than the width when the rows are padded.
+	private final int stride;
+	private Object[] data;
+
+	// when double buffered, copied operations write the next generation into the back buffer,
+	// while the front grid shows the current generation to the operation without copying it
+	private Object[] back;
+	private Grid<T> front;
+
+	// when tracking activity, the grid is split into square tiles, and each tile is marked dirty when one of its cells changes
+	private static final int TILE_SHIFT = 6, TILE = 1 << TILE_SHIFT;
+	private final int tilesWide, tilesHigh;
+
+	// which tiles have changed since the last active transform, or null if activity isn't being tracked
+	private boolean[] dirty;
+
+	// which tiles the current active transform is looking at
+	private boolean[] active;
 
 	/**
 	 * Creates an empty Grid with the specified width and height
@@ -24,12 +47,38 @@ public class Grid<T> {
 	 * @param 	width 	The width of the grid
 	 * @param 	height 	The height of the grid
 	 */
-	@SuppressWarnings("unchecked")
 	public Grid(int width, int height) {
+		this(width, height, width);
+	}
+
+	/**
+	 * Creates an empty Grid with rows that start stride cells apart
+	 */
+	private Grid(int width, int height, int stride) {
+		this(new Object[cells(width, height, stride)], width, height, stride);
+	}
+
+	/**
+	 * Creates a Grid that shows the given array of cells
+	 */
+	private Grid(Object[] data, int width, int height, int stride) {
 		this.width = width;
 		this.height = height;
+		this.stride = stride;
+		this.data = data;
+
+		this.tilesWide = (int)((width + (long)TILE - 1) >>> TILE_SHIFT);
+		this.tilesHigh = (int)((height + (long)TILE - 1) >>> TILE_SHIFT);
+	}
+
+	/**
+	 * Returns the number of cells in the array behind a grid, checking the size before anything is allocated
+	 */
+	private static int cells(int width, int height, int stride) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("width and height must not be negative");
 
-		data = (T[][])new Object[height][width];
+		return Math.multiplyExact(stride, height);
 	}
 
 	/**
@@ -58,6 +107,28 @@ public class Grid<T> {
 		this.fill(fill);
 	}
 
+	/**
+	 * Creates an empty Grid whose rows are padded so that each one starts on a multiple of the given number of cells.
+	 * With 4-byte references, an alignment of 16 starts every row on its own 64-byte cache line (relative to the start of the array),
+	 * so threads transforming neighboring bands of rows never write to the same cache line.
+	 *
+	 * @param 	width 		The width of the grid
+	 * @param 	height 		The height of the grid
+	 * @param 	alignment 	The number of cells each row's start is rounded up to a multiple of
+	 *
+	 * @return 				A new empty Grid with padded rows
+	 */
+	public static <T> Grid<T> aligned(int width, int height, int alignment) {
+		if (alignment <= 0)
+			throw new IllegalArgumentException("alignment must be positive");
+		if (width < 0)
+			throw new IllegalArgumentException("width and height must not be negative");
+
+		int stride = Math.multiplyExact((width + alignment - 1) / alignment, alignment);
+
+		return new Grid<>(width, height, stride);
+	}
+
 	/**
 	 * Applies the given operation to the cell at the given coordinate
 	 *
@@ -66,7 +137,9 @@ public class Grid<T> {
 	 * @param 	y 	The y-coordinate of the cell to apply the operation to
 	 */
 	public void applyOperation(Operation<T> op, int x, int y) {
-		data[y][x] = op.apply(x, y, data[y][x]);
+		int i = index(x, y);
+		data[i] = op.apply(x, y, cell(data, i));
+		touch(x, y);
 	}
 
 	/**
@@ -77,7 +150,7 @@ public class Grid<T> {
 	 * @param 	y 	The y-coordinate of the cell to apply the operation to
 	 */
 	public void applyOperation(VoidOperation<T> op, int x, int y) {
-		op.apply(x, y, data[y][x]);
+		op.apply(x, y, cell(data, index(x, y)));
 	}
 
 	/**
@@ -86,9 +159,11 @@ public class Grid<T> {
 	 * @param 	op 	The VoidOperation to apply to each cell in the grid
 	 */
 	public synchronized void each(VoidOperation<T> op) {
+		Object[] cells = data;
+
 		for (int y=0; y < height; y++)
-			for (int x=0; x < width; x++)
-				op.apply(x, y, data[y][x]);
+			for (int x=0, i=y*stride; x < width; x++, i++)
+				op.apply(x, y, cell(cells, i));
 	}
 
 	/**
@@ -101,20 +176,16 @@ public class Grid<T> {
 	public synchronized boolean transform(Operation<T> op) {
 		boolean changed = false;
 
-		for (int y=0; y < height; y++) {
-			for (int x=0; x < width; x++) {
-				T n = op.apply(x, y, data[y][x]);
-				if (!changed)
-					changed = (data[y][x] != n && (data[y][x] == null || n == null || !data[y][x].equals(n)));
-				data[y][x] = n;
-			}
-		}
+		for (int y=0; y < height; y++)
+			changed |= transformRow(op, y);
 
 		return changed;
 	}
 
 	/**
-	 * Applies the given operation to every cell in the grid
+	 * Applies the given operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel on the grid's ForkJoinPool,
+	 * so the operation must not depend on the order that cells are changed in.
 	 *
 	 * @param 	op 				The Operation to apply to each cell in the grid
 	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
@@ -123,39 +194,7 @@ public class Grid<T> {
 	 */
 	public synchronized boolean transform(Operation<T> op, boolean multithread) {
 		if (multithread) {
-			Grid<T> copy = this.copy();
-
-			int threadcount = Runtime.getRuntime().availableProcessors();
-			int cellcount = width * height;
-			Thread[] threads = new Thread[threadcount];
-			int[] starts = new int[threadcount+1];
-
-			for (int i=1; i <= threadcount; i++) {
-				starts[i] = (int)(cellcount * (double)i / threadcount);
-			}
-
-			for (int i=0; i < threadcount; i++) {
-				int index = i;
-				threads[i] = new Thread(() -> {
-					int x, y;
-					for (int j=starts[index]; j < starts[index+1]; j++) {
-						x = j % width;
-						y = j / width;
-
-						data[y][x] = op.apply(x, y, data[y][x]);
-					}
-				});
-				threads[i].start();
-			}
-
-			for (int i=0; i < threadcount; i++) {
-				try {
-					threads[i].join();
-				} catch (InterruptedException e) {}
-			}
-
-			// take the lazy way out
-			return !this.equals(copy);
+			return transformRows(y -> transformRow(op, y));
 		} else {
 			return transform(op);
 		}
@@ -169,23 +208,33 @@ public class Grid<T> {
 	 * @return 		Whether or not the grid changed (according to .equals)
 	 */
 	public synchronized boolean transform(CopiedOperation<T> op) {
+		if (back != null) {
+			boolean changed = false;
+
+			try {
+				for (int y=0; y < height; y++)
+					changed |= transformBackRow(op, y);
+			} catch (RuntimeException | Error e) {
+				resyncBackBuffer();
+				throw e;
+			}
+
+			swapBuffers();
+			return changed;
+		}
+
 		Grid<T> copy = this.copy();
 		boolean changed = false;
 
-		for (int y=0; y < height; y++) {
-			for (int x=0; x < width; x++) {
-				T n = op.apply(x, y, copy, data[y][x]);
-				if (!changed)
-					changed = (data[y][x] != n && (data[y][x] == null || n == null || !data[y][x].equals(n)));
-				data[y][x] = n;
-			}
-		}
+		for (int y=0; y < height; y++)
+			changed |= transformRow(op, copy, y);
 
 		return changed;
 	}
 
 	/**
-	 * Applies the given copied operation to every cell in the grid
+	 * Applies the given copied operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel on the grid's ForkJoinPool.
 	 *
 	 * @param 	op 				The CopiedOperation to apply to each cell in the grid
 	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
@@ -193,43 +242,325 @@ public class Grid<T> {
 	 * @return 					Whether or not the grid changed (according to .equals)
 	 */
 	public synchronized boolean transform(CopiedOperation<T> op, boolean multithread) {
-		if (multithread) {
+		if (multithread && back != null) {
+			boolean changed;
+
+			try {
+				changed = transformRows(y -> transformBackRow(op, y));
+			} catch (RuntimeException | Error e) {
+				resyncBackBuffer();
+				throw e;
+			}
+
+			swapBuffers();
+			return changed;
+		} else if (multithread) {
 			Grid<T> copy = this.copy();
 
-			int threadcount = Runtime.getRuntime().availableProcessors();
-			int cellcount = width * height;
-			Thread[] threads = new Thread[threadcount];
-			int[] starts = new int[threadcount+1];
+			return transformRows(y -> transformRow(op, copy, y));
+		} else {
+			return transform(op);
+		}
+	}
+
+	/**
+	 * Sets whether this grid is double buffered. A double buffered grid keeps a second array of cells,
+	 * which copied operations write the next generation into while reading the current one,
+	 * and then the two arrays are swapped. This saves copying the whole grid on every transform,
+	 * at the cost of keeping the extra array around.
+	 *
+	 * The copy given to the operation is not a copy at all, but a view of the grid's current generation.
+	 * Once the transform returns the arrays are swapped, and the view shows the new generation from then on,
+	 * so it should not be kept to look back at the old one.
+	 *
+	 * @param 	doubleBuffered 	Whether or not to double buffer the grid
+	 */
+	public synchronized void setDoubleBuffered(boolean doubleBuffered) {
+		if (doubleBuffered && back == null) {
+			// start off the same as the grid, so that active transforms can leave the back buffer alone where nothing changes
+			back = data.clone();
+			front = new Grid<>(data, width, height, stride);
+		} else if (!doubleBuffered) {
+			back = null;
+			front = null;
+		}
+	}
 
-			for (int i=1; i <= threadcount; i++) {
-				starts[i] = (int)(cellcount * (double)i / threadcount);
+	/**
+	 * Returns whether this grid is double buffered
+	 *
+	 * @return 	True if copied operations write into a back buffer instead of copying the grid
+	 */
+	public synchronized boolean isDoubleBuffered() {
+		return back != null;
+	}
+
+	/**
+	 * Sets whether this grid keeps track of which parts of it change, so that transformActive can skip the parts that don't.
+	 * The grid is split into 64x64 tiles, and a tile is marked when any of its cells are set or transformed to something different.
+	 * When tracking starts, every tile is marked.
+	 *
+	 * @param 	tracking 	Whether or not to track activity in the grid
+	 */
+	public synchronized void setTrackingActivity(boolean tracking) {
+		if (tracking && dirty == null) {
+			dirty = new boolean[Math.multiplyExact(tilesWide, tilesHigh)];
+			active = new boolean[dirty.length];
+			Arrays.fill(dirty, true);
+		} else if (!tracking) {
+			dirty = null;
+			active = null;
+		}
+	}
+
+	/**
+	 * Returns whether this grid keeps track of which parts of it change
+	 *
+	 * @return 	True if transformActive can be used on this grid
+	 */
+	public synchronized boolean isTrackingActivity() {
+		return dirty != null;
+	}
+
+	/**
+	 * Applies the given copied operation to the cells in each tile that changed since the last active transform,
+	 * and to the cells in the tiles around them, using a single thread
+	 *
+	 * @param 	op 	The CopiedOperation to apply to the active cells in the grid
+	 *
+	 * @return 		Whether or not the grid changed (according to .equals)
+	 *
+	 * @exception 	IllegalStateException 	If the grid is not tracking activity
+	 */
+	public synchronized boolean transformActive(CopiedOperation<T> op) {
+		return transformActive(op, false);
+	}
+
+	/**
+	 * Applies the given copied operation to the cells in each tile that changed since the last active transform,
+	 * and to the cells in the tiles around them. Every other cell is left as it is, so the operation must leave a cell
+	 * unchanged when nothing within 64 cells of it has changed, as the rules of a cellular automaton usually do.
+	 * Tiles along opposite edges of the grid count as being next to each other, so operations can wrap the edges.
+	 *
+	 * The grid still has to be copied for the operation on every transform, unless it is double buffered,
+	 * in which case the time taken only depends on how much of the grid is changing.
+	 * When multithreaded, bands of tiles are transformed in parallel on the grid's ForkJoinPool.
+	 *
+	 * @param 	op 				The CopiedOperation to apply to the active cells in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed (according to .equals)
+	 *
+	 * @exception 	IllegalStateException 	If the grid is not tracking activity
+	 */
+	public synchronized boolean transformActive(CopiedOperation<T> op, boolean multithread) {
+		if (dirty == null)
+			throw new IllegalStateException("this grid is not tracking activity");
+
+		// a tile needs to be looked at if it or any of the tiles around it changed last time
+		Arrays.fill(active, false);
+
+		for (int ty=0; ty < tilesHigh; ty++) {
+			for (int tx=0; tx < tilesWide; tx++) {
+				if (!dirty[ty * tilesWide + tx])
+					continue;
+
+				for (int dy=-1; dy <= 1; dy++)
+					for (int dx=-1; dx <= 1; dx++)
+						active[Math.floorMod(ty + dy, tilesHigh) * tilesWide + Math.floorMod(tx + dx, tilesWide)] = true;
 			}
+		}
+
+		Arrays.fill(dirty, false);
+
+		// when double buffered, the back buffer already matches the grid in every tile that didn't change last time
+		Grid<T> copy = back != null ? front : this.copy();
+		Object[] to = back != null ? back : data;
+
+		// each band is a row of tiles, so no two threads ever mark the same tile
+		int bandWidth = (int)Math.min(Integer.MAX_VALUE, (long)width << TILE_SHIFT);
+		boolean changed;
+
+		try {
+			changed = RowBands.transform(bandWidth, tilesHigh, multithread, ty -> transformActiveTiles(op, copy, to, ty));
+		} catch (RuntimeException | Error e) {
+			// the marks from last time were cleared, and the tiles done so far may not match the back buffer,
+			// so everything has to be looked at again
+			if (back != null)
+				resyncBackBuffer();
+			touchAll();
+			throw e;
+		}
+
+		if (back != null)
+			swapBuffers();
+
+		return changed;
+	}
+
+	/**
+	 * Applies a copied operation to the active tiles in a row of tiles, writing the results into the given array
+	 * and marking the tiles that changed
+	 *
+	 * @return 	Whether any of the tiles changed
+	 */
+	private boolean transformActiveTiles(CopiedOperation<T> op, Grid<T> copy, Object[] to, int ty) {
+		Object[] cells = data;
+		int fromY = ty << TILE_SHIFT, toY = Math.min(height, fromY + TILE);
+		boolean changed = false;
+
+		for (int tx=0, t=ty*tilesWide; tx < tilesWide; tx++, t++) {
+			if (!active[t])
+				continue;
+
+			int fromX = tx << TILE_SHIFT, toX = Math.min(width, fromX + TILE);
+			boolean tileChanged = false;
+
+			for (int y=fromY; y < toY; y++) {
+				for (int x=fromX, i=y*stride+fromX; x < toX; x++, i++) {
+					T n = op.apply(x, y, copy, cell(cells, i));
+					if (!tileChanged)
+						tileChanged = differ(cells[i], n);
+					to[i] = n;
+				}
+			}
+
+			dirty[t] = tileChanged;
+			changed |= tileChanged;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Marks the tile containing the given cell as changed, if activity is being tracked
+	 */
+	private void touch(int x, int y) {
+		boolean[] marks = dirty;
+
+		if (marks != null)
+			marks[(y >>> TILE_SHIFT) * tilesWide + (x >>> TILE_SHIFT)] = true;
+	}
+
+	/**
+	 * Marks every tile as changed, if activity is being tracked
+	 */
+	private void touchAll() {
+		boolean[] marks = dirty;
+
+		if (marks != null)
+			Arrays.fill(marks, true);
+	}
 
-			for (int i=0; i < threadcount; i++) {
-				int index = i;
-				threads[i] = new Thread(() -> {
-					int x, y;
-					for (int j=starts[index]; j < starts[index+1]; j++) {
-						x = j % width;
-						y = j / width;
-
-						data[y][x] = op.apply(x, y, copy, data[y][x]);
-					}
-				});
-				threads[i].start();
+	/**
+	 * Applies an operation to a row of the grid
+	 *
+	 * @return 	Whether the row changed
+	 */
+	private boolean transformRow(Operation<T> op, int y) {
+		Object[] cells = data;
+		boolean[] marks = dirty;
+		int tiles = (y >>> TILE_SHIFT) * tilesWide;
+		boolean changed = false;
+
+		for (int x=0, i=y*stride; x < width; x++, i++) {
+			T n = op.apply(x, y, cell(cells, i));
+			// every change has to be looked for when marking tiles
+			if ((marks != null || !changed) && differ(cells[i], n)) {
+				changed = true;
+				if (marks != null)
+					marks[tiles + (x >>> TILE_SHIFT)] = true;
 			}
+			cells[i] = n;
+		}
+
+		return changed;
+	}
 
-			for (int i=0; i < threadcount; i++) {
-				try {
-					threads[i].join();
-				} catch (InterruptedException e) {}
+	/**
+	 * Applies a copied operation to a row of the grid
+	 *
+	 * @return 	Whether the row changed
+	 */
+	private boolean transformRow(CopiedOperation<T> op, Grid<T> copy, int y) {
+		Object[] cells = data;
+		boolean[] marks = dirty;
+		int tiles = (y >>> TILE_SHIFT) * tilesWide;
+		boolean changed = false;
+
+		for (int x=0, i=y*stride; x < width; x++, i++) {
+			T n = op.apply(x, y, copy, cell(cells, i));
+			// every change has to be looked for when marking tiles
+			if ((marks != null || !changed) && differ(cells[i], n)) {
+				changed = true;
+				if (marks != null)
+					marks[tiles + (x >>> TILE_SHIFT)] = true;
 			}
+			cells[i] = n;
+		}
 
-			// take the lazy way out
-			return !this.equals(copy);
-		} else {
-			return transform(op);
+		return changed;
+	}
+
+	/**
+	 * Applies a copied operation to a row of the grid, writing the results into the back buffer
+	 *
+	 * @return 	Whether the row changed
+	 */
+	private boolean transformBackRow(CopiedOperation<T> op, int y) {
+		Object[] cells = data, next = back;
+		boolean[] marks = dirty;
+		int tiles = (y >>> TILE_SHIFT) * tilesWide;
+		boolean changed = false;
+
+		for (int x=0, i=y*stride; x < width; x++, i++) {
+			T n = op.apply(x, y, front, cell(cells, i));
+			// every change has to be looked for when marking tiles
+			if ((marks != null || !changed) && differ(cells[i], n)) {
+				changed = true;
+				if (marks != null)
+					marks[tiles + (x >>> TILE_SHIFT)] = true;
+			}
+			next[i] = n;
 		}
+
+		return changed;
+	}
+
+	/**
+	 * Copies the grid into the back buffer after a transform into it failed part way through.
+	 * The grid itself is left as it was, but the back buffer no longer matches it where nothing changed.
+	 */
+	private void resyncBackBuffer() {
+		System.arraycopy(data, 0, back, 0, data.length);
+	}
+
+	private void swapBuffers() {
+		Object[] next = back;
+		back = data;
+		data = next;
+		front.data = next;
+	}
+
+	/**
+	 * Sets the pool that multithreaded transforms run on, for all grids.
+	 * By default they run on the common ForkJoinPool.
+	 *
+	 * @param 	pool 	The pool to transform grids on
+	 */
+	public static void setPool(ForkJoinPool pool) {
+		RowBands.setPool(pool);
+	}
+
+	private boolean transformRows(IntPredicate row) {
+		return RowBands.transform(width, height, true, row);
+	}
+
+	/**
+	 * Returns true if the two values are different, according to .equals
+	 */
+	static boolean differ(Object a, Object b) {
+		return a != b && (a == null || b == null || !a.equals(b));
 	}
 
 	/**
@@ -238,11 +569,11 @@ public class Grid<T> {
 	 * @param 	factory 	The Factory to use to fill the grid
 	 */
 	public synchronized void fill(Factory<T> factory) {
-		for (int y=0; y < height; y++) {
-			for (int x=0; x < width; x++) {
-				set(x, y, factory.produce(x, y));
-			}
-		}
+		for (int y=0; y < height; y++)
+			for (int x=0, i=y*stride; x < width; x++, i++)
+				data[i] = factory.produce(x, y);
+
+		touchAll();
 	}
 
 	/**
@@ -251,22 +582,19 @@ public class Grid<T> {
 	 * @param 	value 	The object to use to fill the grid
 	 */
 	public synchronized void fill(T value) {
-		for (int y=0; y < height; y++) {
-			for (int x=0; x < width; x++) {
-				set(x, y, value);
-			}
-		}
+		for (int y=0; y < height; y++)
+			Arrays.fill(data, y * stride, y * stride + width, value);
+
+		touchAll();
 	}
 
 	/**
 	* Fills the grid with null values.
 	*/
 	public synchronized void empty() {
-		for (int y=0; y < height; y++) {
-			for (int x=0; x < width; x++) {
-				set(x, y, null);
-			}
-		}
+		Arrays.fill(data, null);
+
+		touchAll();
 	}
 
 	/**
@@ -275,12 +603,10 @@ public class Grid<T> {
 	 * @return 	True if there are no null values contained in this grid
 	 */
 	public boolean isFull() {
-		for (int y=0; y < height; y++) {
-			for (int x=0; x < width; x++) {
-				if (data[y][y] == null)
+		for (int y=0; y < height; y++)
+			for (int x=0, i=y*stride; x < width; x++, i++)
+				if (data[i] == null)
 					return false;
-			}
-		}
 
 		return true;
 	}
@@ -291,13 +617,7 @@ public class Grid<T> {
 	 * @return 	A new Grid with the same data as this Grid
 	 */
 	public synchronized Grid<T> copy() {
-		Grid<T> copy = new Grid<>(width, height);
-
-		for (int y=0; y < height; y++) {
-			System.arraycopy(data[y], 0, copy.data[y], 0, width);
-		}
-
-		return copy;
+		return new Grid<>(data.clone(), width, height, stride);
 	}
 
 	/**
@@ -311,7 +631,7 @@ public class Grid<T> {
 	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
 	 */
 	public T get(int x, int y) throws ArrayIndexOutOfBoundsException {
-		return data[y][x];
+		return cell(data, index(x, y));
 	}
 
 	/**
@@ -323,7 +643,8 @@ public class Grid<T> {
 	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
 	 */
 	public void set(int x, int y, T value) throws ArrayIndexOutOfBoundsException {
-		data[y][x] = value;
+		data[index(x, y)] = value;
+		touch(x, y);
 	}
 
 	/**
@@ -382,25 +703,125 @@ public class Grid<T> {
 	public synchronized List<T> getNeighbors(int x, int y, int[][] relatives, Function<T, Boolean> test, boolean wrap) {
 		List<T> neighbors = new ArrayList<>(relatives.length);
 
-		if (wrap) {
-			for (int[] neighbor : relatives) {
-				T n = get((x+neighbor[0]+width)%width, (y+neighbor[1]+height)%height);
+		for (int[] relative : relatives) {
+			int i = neighborIndex(x, y, relative, wrap);
+
+			if (i < 0)
+				continue;
 
-				if (n != null)
+			T n = cell(data, i);
+
+			// when wrapping, empty cells have always been left out instead of tested
+			if (wrap ? n != null : test.apply(n))
 				neighbors.add(n);
-			}
-		} else {
-			for (int[] neighbor : relatives) {
-				try {
-					T n = get(x+neighbor[0], y+neighbor[1]);
+		}
+
+		return neighbors;
+	}
+
+	/**
+	 * Applies the given void operation to each of the 8 neighbors surrounding the given cell that are inside the grid.
+	 * Nothing is allocated, so this can be called for every cell in a transform.
+	 * This method is not synchronized, so that many threads can look at the same grid at once.
+	 *
+	 * @param 	x 	The x-coordinate of the cell to look around
+	 * @param 	y 	The y-coordinate of the cell to look around
+	 * @param 	op 	The VoidOperation to apply to each neighbor, which is given the neighbor's coordinates
+	 */
+	public void forEachNeighbor(int x, int y, VoidOperation<T> op) {
+		forEachNeighbor(x, y, SURROUNDING, op, false);
+	}
 
-					if (test.apply(n))
-						neighbors.add(n);
-				} catch (ArrayIndexOutOfBoundsException e) {}
+	/**
+	 * Applies the given void operation to each neighbor of the given cell.
+	 * Nothing is allocated, so this can be called for every cell in a transform.
+	 * This method is not synchronized, so that many threads can look at the same grid at once.
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	op 			The VoidOperation to apply to each neighbor, which is given the neighbor's coordinates
+	 * @param 	wrap 		Whether or not to wrap the board edges, visiting
+	 * 						neighbors along the opposite edge
+	 */
+	public void forEachNeighbor(int x, int y, int[][] relatives, VoidOperation<T> op, boolean wrap) {
+		Object[] cells = data;
+
+		for (int[] relative : relatives) {
+			int nx = x + relative[0], ny = y + relative[1];
+
+			if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+				if (!wrap)
+					continue;
+
+				nx = Math.floorMod(nx, width);
+				ny = Math.floorMod(ny, height);
 			}
+
+			op.apply(nx, ny, cell(cells, ny * stride + nx));
 		}
+	}
 
-		return neighbors;
+	/**
+	 * Returns the number of the 8 neighbors surrounding the given cell that are inside the grid and pass the given test.
+	 * Nothing is allocated, so this can be called for every cell in a transform.
+	 * This method is not synchronized, so that many threads can look at the same grid at once.
+	 *
+	 * @param 	x 		The x-coordinate of the cell to look around
+	 * @param 	y 		The y-coordinate of the cell to look around
+	 * @param 	test 	The test a neighbor must pass to be counted
+	 *
+	 * @return 			The number of neighbors that passed the test
+	 */
+	public int countNeighbors(int x, int y, Predicate<? super T> test) {
+		return countNeighbors(x, y, SURROUNDING, test, false);
+	}
+
+	/**
+	 * Returns the number of neighbors to the given cell that pass the given test.
+	 * Nothing is allocated, so this can be called for every cell in a transform.
+	 * This method is not synchronized, so that many threads can look at the same grid at once.
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	test 		The test a neighbor must pass to be counted
+	 * @param 	wrap 		Whether or not to wrap the board edges, counting
+	 * 						neighbors along the opposite edge
+	 *
+	 * @return 				The number of neighbors that passed the test
+	 */
+	public int countNeighbors(int x, int y, int[][] relatives, Predicate<? super T> test, boolean wrap) {
+		Object[] cells = data;
+		int count = 0;
+
+		for (int[] relative : relatives) {
+			int i = neighborIndex(x, y, relative, wrap);
+
+			if (i >= 0 && test.test(cell(cells, i)))
+				count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the index in the array of the neighbor at the given relative coordinates,
+	 * or -1 if it is outside of the grid and the edges don't wrap
+	 */
+	private int neighborIndex(int x, int y, int[] relative, boolean wrap) {
+		int nx = x + relative[0], ny = y + relative[1];
+
+		if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+			if (!wrap)
+				return -1;
+
+			// only cells along the edges pay for the division
+			nx = Math.floorMod(nx, width);
+			ny = Math.floorMod(ny, height);
+		}
+
+		return ny * stride + nx;
 	}
 
 	/**
@@ -440,8 +861,8 @@ public class Grid<T> {
 
 		for (int y=0; y < height; y++) {
 			for (int x=0; x < width; x++) {
-				Object o1 = data[y][x];
-				Object o2 = grid.data[y][x];
+				Object o1 = data[y * stride + x];
+				Object o2 = grid.data[y * grid.stride + x];
 
 				if ((o1 == null) ^ (o2 == null))
 					return false;
@@ -455,6 +876,22 @@ public class Grid<T> {
 		return true;
 	}
 
+	/**
+	 * Returns the index in the array of the cell at the given coordinates
+	 */
+	private int index(int x, int y) {
+		// a flat array would let an x-coordinate past the edge spill over into the next row
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ") is outside of the grid");
+
+		return y * stride + x;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T cell(Object[] cells, int i) {
+		return (T)cells[i];
+	}
+
 	/**
 	 * An interface used to fill a grid with generated items
 	 *
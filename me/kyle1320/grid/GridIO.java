@@ -0,0 +1,367 @@
+package me.kyle1320.grid;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+
+/**
+ * Saves grids in a compact binary format and loads them back, exactly as they were.
+ *
+ * After a header holding the width, height and cell size, the cells are written in rows as a series of runs.
+ * Each run starts with a variable-length count, which also says what kind of run it is:
+ * a single value that repeats, a list of different values, or empty cells, which take up no more space.
+ * So large areas of a grid that are empty or hold the same value take up next to nothing.
+ *
+ * @author Kyle Cutler
+ */
+public class GridIO {
+	// "GRLE". MappedGrid keeps its raw cells in a different format, with a magic number of its own.
+	static final int MAGIC = 0x47524c45;
+	private static final int HEADER = 16;
+	private static final int BUFFER = 1 << 20;
+
+	// the kinds of runs, which are kept in the low bits of each run's count
+	private static final int REPEAT = 0, LITERAL = 1, EMPTY = 2, KIND_BITS = 2;
+
+	// the most cells a list of different values holds before a new run is started
+	private static final int MAX_LITERAL = 4096;
+
+	private GridIO() {}
+
+	/**
+	 * Saves a grid to the given file, replacing anything already in it
+	 *
+	 * @param 	grid 	The grid to save
+	 * @param 	file 	The file to save the grid to
+	 * @param 	codec 	The CellCodec used to write each cell that isn't empty
+	 *
+	 * @exception 	IOException 	If the file couldn't be written
+	 */
+	public static <T> void save(Grid<T> grid, Path file, CellCodec<T> codec) throws IOException {
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			write(grid, out, codec);
+		}
+	}
+
+	/**
+	 * Loads a grid from the given file
+	 *
+	 * @param 	file 	The file to load the grid from
+	 * @param 	codec 	The CellCodec used to read each cell that isn't empty, which must be the same size as the one it was saved with
+	 *
+	 * @return 			The grid that was saved in the file
+	 *
+	 * @exception 	IOException 	If the file couldn't be read, or doesn't hold a grid with cells of the codec's size
+	 */
+	public static <T> Grid<T> load(Path file, CellCodec<T> codec) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(in, codec);
+		}
+	}
+
+	/**
+	 * Writes a grid to the given channel, leaving the channel open
+	 *
+	 * @param 	grid 	The grid to write
+	 * @param 	out 	The channel to write the grid to
+	 * @param 	codec 	The CellCodec used to write each cell that isn't empty
+	 *
+	 * @exception 	IOException 	If the grid couldn't be written
+	 */
+	public static <T> void write(Grid<T> grid, WritableByteChannel out, CellCodec<T> codec) throws IOException {
+		Writer<T> writer = new Writer<>(out, codec);
+
+		writer.header(grid.getWidth(), grid.getHeight());
+
+		try {
+			grid.each((x, y, v) -> writer.cell(v));
+		} catch (Failure e) {
+			throw (IOException)e.getCause();
+		}
+
+		writer.finish();
+	}
+
+	/**
+	 * Reads a grid from the given channel, leaving the channel open
+	 *
+	 * @param 	in 		The channel to read the grid from
+	 * @param 	codec 	The CellCodec used to read each cell that isn't empty, which must be the same size as the one it was written with
+	 *
+	 * @return 			The grid that was read
+	 *
+	 * @exception 	IOException 	If the grid couldn't be read, or the channel doesn't hold a grid with cells of the codec's size
+	 */
+	public static <T> Grid<T> read(ReadableByteChannel in, CellCodec<T> codec) throws IOException {
+		Reader reader = new Reader(in);
+
+		reader.require(HEADER);
+		ByteBuffer buffer = reader.buffer;
+
+		if (buffer.getInt() != MAGIC)
+			throw new IOException("not a saved grid");
+
+		int width = buffer.getInt(), height = buffer.getInt(), cellSize = buffer.getInt();
+
+		if (cellSize != codec.size())
+			throw new IOException("the grid has cells of " + cellSize + " bytes, but the codec uses " + codec.size());
+		if (width < 0 || height < 0)
+			throw new IOException("the grid has a negative size");
+
+		Grid<T> grid = new Grid<>(width, height);
+		long total = (long)width * height;
+		long pos = 0;
+		int x = 0, y = 0;
+
+		while (pos < total) {
+			long tag = reader.varint();
+			long count = tag >>> KIND_BITS;
+			int kind = (int)tag & ((1 << KIND_BITS) - 1);
+
+			if (count <= 0 || count > total - pos)
+				throw new IOException("the grid is corrupt");
+
+			if (kind == EMPTY) {
+				// a new grid is already empty
+				pos += count;
+				x = (int)(pos % width);
+				y = (int)(pos / width);
+			} else if (kind == REPEAT) {
+				reader.require(cellSize);
+				T value = codec.read(buffer, buffer.position());
+				buffer.position(buffer.position() + cellSize);
+
+				for (long end = pos + count; pos < end; pos++) {
+					grid.set(x, y, value);
+					if (++x == width) {
+						x = 0;
+						y++;
+					}
+				}
+			} else if (kind == LITERAL) {
+				for (long end = pos + count; pos < end; pos++) {
+					reader.require(cellSize);
+					grid.set(x, y, codec.read(buffer, buffer.position()));
+					buffer.position(buffer.position() + cellSize);
+					if (++x == width) {
+						x = 0;
+						y++;
+					}
+				}
+			} else {
+				throw new IOException("the grid is corrupt");
+			}
+		}
+
+		return grid;
+	}
+
+	/**
+	 * Splits cells up into runs as they come, and writes them out through a buffer
+	 */
+	private static final class Writer<T> {
+		private final WritableByteChannel channel;
+		private final CellCodec<T> codec;
+		private final int cellSize;
+		private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+		// the cell being written, and the last cell that was
+		private final ByteBuffer cell;
+		private final byte[] last;
+
+		// the run that hasn't been written yet. For a list of different values, the values are kept in literals.
+		private int kind = -1;
+		private long count;
+		private final ByteBuffer literals;
+
+		Writer(WritableByteChannel channel, CellCodec<T> codec) {
+			this.channel = channel;
+			this.codec = codec;
+			this.cellSize = codec.size();
+
+			cell = ByteBuffer.allocate(cellSize).order(ByteOrder.LITTLE_ENDIAN);
+			last = new byte[cellSize];
+			literals = ByteBuffer.allocate(MAX_LITERAL * cellSize).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		void header(int width, int height) throws IOException {
+			ensure(HEADER);
+			out.putInt(MAGIC).putInt(width).putInt(height).putInt(cellSize);
+		}
+
+		void cell(T value) {
+			try {
+				if (value == null) {
+					if (kind != EMPTY) {
+						flushRun();
+						kind = EMPTY;
+					}
+
+					count++;
+					return;
+				}
+
+				codec.write(cell, 0, value);
+				byte[] bytes = cell.array();
+				boolean same = kind == REPEAT || kind == LITERAL ? Arrays.equals(bytes, last) : false;
+
+				if (kind == REPEAT && same) {
+					count++;
+				} else if (kind == LITERAL && same) {
+					// the last value in the list starts a repeat instead
+					literals.position(literals.position() - cellSize);
+					count--;
+					flushRun();
+					kind = REPEAT;
+					count = 2;
+				} else if (kind == REPEAT && count == 1) {
+					// a single value followed by a different one starts a list
+					kind = LITERAL;
+					literals.put(last);
+					literals.put(bytes);
+					count = 2;
+				} else if (kind == LITERAL && count < MAX_LITERAL) {
+					literals.put(bytes);
+					count++;
+				} else {
+					flushRun();
+					kind = REPEAT;
+					count = 1;
+				}
+
+				System.arraycopy(bytes, 0, last, 0, cellSize);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		void finish() throws IOException {
+			flushRun();
+
+			out.flip();
+			while (out.hasRemaining())
+				channel.write(out);
+			out.clear();
+		}
+
+		/**
+		 * Writes out the run that hasn't been written yet, if there is one
+		 */
+		private void flushRun() throws IOException {
+			if (count == 0) {
+				kind = -1;
+				literals.clear();
+				return;
+			}
+
+			ensure(10);
+			varint((count << KIND_BITS) | kind);
+
+			if (kind == REPEAT) {
+				ensure(cellSize);
+				out.put(last);
+			} else if (kind == LITERAL) {
+				literals.flip();
+
+				while (literals.hasRemaining()) {
+					ensure(cellSize);
+					int n = Math.min(literals.remaining(), out.remaining());
+					int limit = literals.limit();
+
+					literals.limit(literals.position() + n);
+					out.put(literals);
+					literals.limit(limit);
+				}
+			}
+
+			kind = -1;
+			count = 0;
+			literals.clear();
+		}
+
+		private void varint(long value) {
+			while ((value & ~0x7fL) != 0) {
+				out.put((byte)((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+
+			out.put((byte)value);
+		}
+
+		/**
+		 * Makes sure there is room for at least the given number of bytes in the buffer, writing it out if there isn't
+		 */
+		private void ensure(int bytes) throws IOException {
+			if (out.remaining() >= bytes)
+				return;
+
+			out.flip();
+			while (out.hasRemaining())
+				channel.write(out);
+			out.clear();
+		}
+	}
+
+	/**
+	 * Reads from a channel through a buffer
+	 */
+	private static final class Reader {
+		private final ReadableByteChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+		Reader(ReadableByteChannel channel) {
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		/**
+		 * Makes sure at least the given number of bytes are in the buffer, reading more from the channel if there aren't
+		 */
+		void require(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+
+			buffer.compact();
+
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0)
+					throw new IOException("the grid ended early");
+			}
+
+			buffer.flip();
+		}
+
+		long varint() throws IOException {
+			long value = 0;
+
+			for (int shift=0; shift < 64; shift += 7) {
+				require(1);
+				byte b = buffer.get();
+				value |= (long)(b & 0x7f) << shift;
+
+				if (b >= 0)
+					return value;
+			}
+
+			throw new IOException("the grid is corrupt");
+		}
+	}
+
+	/**
+	 * Carries an IOException out of a grid operation, which can't throw one
+	 */
+	private static final class Failure extends RuntimeException {
+		Failure(IOException cause) {
+			super(cause);
+		}
+	}
+}
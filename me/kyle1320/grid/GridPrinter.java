@@ -2,23 +2,95 @@ package me.kyle1320.grid;
 
 import java.awt.Color;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import javax.imageio.ImageIO;
 
 public class GridPrinter {
 	public static <T> BufferedImage toImage(Grid<T> grid, Function<T, Color> display) throws IOException {
-		BufferedImage out = new BufferedImage(grid.getWidth(), grid.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		// the display function may not expect to be called from several threads at once
+		return render(grid, v -> display.apply(v).getRGB(), BufferedImage.TYPE_INT_ARGB, false);
+	}
+
+	// writes packed 0xRRGGBB values straight into the image's pixel array, bands of rows in parallel,
+	// so rgb must be safe to call from several threads at once
+	public static <T> BufferedImage toImageRGB(Grid<T> grid, ToIntFunction<? super T> rgb) {
+		return render(grid, rgb, BufferedImage.TYPE_INT_RGB, true);
+	}
+
+	private static <T> BufferedImage render(Grid<T> grid, ToIntFunction<? super T> rgb, int type, boolean parallel) {
+		// render a copy rather than holding the grid's lock while rgb runs on other threads,
+		// since rgb calling one of the grid's synchronized methods would then never return
+		Grid<T> cells = grid.copy();
+
+		int width = cells.getWidth(), height = cells.getHeight();
+		BufferedImage out = new BufferedImage(width, height, type);
+		int[] pixels = ((DataBufferInt)out.getRaster().getDataBuffer()).getData();
 
-		grid.each((x, y, v) -> out.setRGB(x, y, display.apply(v).getRGB()));
+		RowBands.transform(width, height, parallel, y -> {
+			for (int x=0, i=y*width; x < width; x++, i++)
+				pixels[i] = rgb.applyAsInt(cells.get(x, y));
+
+			return false;
+		});
 
 		return out;
 	}
 
 	public static <T> Grid<T> fromImage(BufferedImage img, ReadMethod<T> read) throws IOException {
-		return new Grid<T>(	img.getWidth(), img.getHeight(),
-							(x, y) -> read.read(img.getRGB(x, y)));
+		return read(img, rgb -> read.read(rgb), false);
+	}
+
+	// reads the image's pixels as packed 0xAARRGGBB values, straight from its pixel array when it has one,
+	// bands of rows in parallel, so read must be safe to call from several threads at once
+	public static <T> Grid<T> fromImageRGB(BufferedImage img, IntFunction<T> read) {
+		return read(img, read, true);
+	}
+
+	private static <T> Grid<T> read(BufferedImage img, IntFunction<T> read, boolean parallel) {
+		int width = img.getWidth(), height = img.getHeight();
+		Grid<T> grid = new Grid<T>(width, height);
+
+		WritableRaster raster = img.getRaster();
+		int type = img.getType();
+
+		if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+				&& raster.getDataBuffer() instanceof DataBufferInt
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+			DataBufferInt buffer = (DataBufferInt)raster.getDataBuffer();
+			int[] pixels = buffer.getData();
+			int stride = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+
+			// the image may only be part of a larger one that shares its pixels
+			int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+
+			// getRGB would say these pixels are opaque
+			int alpha = type == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+
+			RowBands.transform(width, height, parallel, y -> {
+				for (int x=0, i=start+y*stride; x < width; x++, i++)
+					grid.set(x, y, read.apply(pixels[i] | alpha));
+
+				return false;
+			});
+		} else {
+			RowBands.transform(width, height, parallel, y -> {
+				int[] row = img.getRGB(0, y, width, 1, null, 0, width);
+
+				for (int x=0; x < width; x++)
+					grid.set(x, y, read.apply(row[x]));
+
+				return false;
+			});
+		}
+
+		return grid;
 	}
 
 	public static <T> void toFile(Grid<T> grid, String filename, String format, Function<T, Color> display) throws IOException {
@@ -42,4 +114,4 @@ public class GridPrinter {
 			return read((rgb>>16)&255, (rgb>>8)&255, rgb&255);
 		}
 	}
-}
\ No newline at end of file
+}
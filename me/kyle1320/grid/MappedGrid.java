@@ -0,0 +1,343 @@
+package me.kyle1320.grid;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fixed-size 2-dimensional grid kept in a memory-mapped file instead of on the heap, so it can be larger than the heap.
+ * The operating system decides which parts of the grid are in memory, and opening a grid only maps the file instead of reading it.
+ * Every cell takes up the same number of bytes, as given by a CellCodec.
+ *
+ * The file is mapped in regions of whole rows of up to 1GB each, since a single mapping can't be larger than 2GB.
+ *
+ * @author Kyle Cutler
+ */
+public class MappedGrid<T> implements Closeable {
+	// the file starts with a header of the magic number, the width, the height and the size of a cell.
+	// The magic number is "GRID", which is deliberately not GridIO's: its files hold runs of cells, which can't be mapped.
+	private static final int MAGIC = 0x47524944, HEADER = 16;
+	private static final int REGION_BYTES = 1 << 30;
+
+	// the most cells that fill writes out before copying them
+	private static final int FILL_CELLS = 4096;
+
+	private final int width, height;
+	private final CellCodec<T> codec;
+	private final int cellSize, rowBytes, rowsPerRegion;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] regions;
+
+	private MappedGrid(FileChannel channel, int width, int height, CellCodec<T> codec) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.codec = codec;
+		this.channel = channel;
+
+		cellSize = codec.size();
+		rowBytes = Math.multiplyExact(width, cellSize);
+		rowsPerRegion = Math.max(1, REGION_BYTES / Math.max(1, rowBytes));
+
+		regions = new MappedByteBuffer[(height + rowsPerRegion - 1) / rowsPerRegion];
+
+		for (int r=0; r < regions.length; r++) {
+			int rows = Math.min(rowsPerRegion, height - r * rowsPerRegion);
+			long position = HEADER + (long)r * rowsPerRegion * rowBytes;
+
+			regions[r] = channel.map(FileChannel.MapMode.READ_WRITE, position, (long)rows * rowBytes);
+			regions[r].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Creates a new grid in the given file, replacing anything already in it.
+	 * The grid starts off filled with whatever value the codec reads from bytes that are all zero.
+	 *
+	 * @param 	file 	The file to keep the grid in
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 * @param 	codec 	The CellCodec used to read and write cells
+	 *
+	 * @return 			A new MappedGrid
+	 *
+	 * @exception 	IOException 	If the file couldn't be created or mapped
+	 */
+	public static <T> MappedGrid<T> create(Path file, int width, int height, CellCodec<T> codec) throws IOException {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("width and height must not be negative");
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(width).putInt(height).putInt(codec.size()).flip();
+
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+
+			return new MappedGrid<>(channel, width, height, codec);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a grid that was created in the given file
+	 *
+	 * @param 	file 	The file the grid is kept in
+	 * @param 	codec 	The CellCodec used to read and write cells, which must be the same size as the one the grid was created with
+	 *
+	 * @return 			The MappedGrid in the file
+	 *
+	 * @exception 	IOException 	If the file couldn't be mapped, or doesn't hold a grid with cells of the codec's size
+	 */
+	public static <T> MappedGrid<T> open(Path file, CellCodec<T> codec) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+
+			while (header.hasRemaining())
+				if (channel.read(header, header.position()) < 0)
+					throw new IOException(file + " is not a grid file");
+
+			header.flip();
+
+			int magic = header.getInt();
+
+			if (magic == GridIO.MAGIC)
+				throw new IOException(file + " was saved by GridIO, so it has to be loaded with GridIO.load");
+			if (magic != MAGIC)
+				throw new IOException(file + " is not a grid file");
+
+			int width = header.getInt(), height = header.getInt(), cellSize = header.getInt();
+
+			if (cellSize != codec.size())
+				throw new IOException(file + " has cells of " + cellSize + " bytes, but the codec uses " + codec.size());
+			if (width < 0 || height < 0)
+				throw new IOException(file + " is corrupt");
+
+			// a row has to fit in a single mapping. With that checked, the size of the whole grid can't overflow.
+			long rowBytes = (long)width * cellSize;
+
+			if (rowBytes > Integer.MAX_VALUE)
+				throw new IOException(file + " is corrupt");
+			if (channel.size() < HEADER + rowBytes * height)
+				throw new IOException(file + " is shorter than its grid");
+
+			return new MappedGrid<>(channel, width, height, codec);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Applies the given void operation to every cell in the grid
+	 *
+	 * @param 	op 	The VoidOperation to apply to each cell in the grid
+	 */
+	public synchronized void each(Grid.VoidOperation<T> op) {
+		for (int y=0; y < height; y++) {
+			ByteBuffer region = region(y);
+
+			for (int x=0, i=rowOffset(y); x < width; x++, i+=cellSize)
+				op.apply(x, y, codec.read(region, i));
+		}
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid, using a single thread
+	 *
+	 * @param 	op 	The Operation to apply to each cell in the grid
+	 *
+	 * @return 		Whether or not the grid changed (according to .equals)
+	 */
+	public synchronized boolean transform(Grid.Operation<T> op) {
+		return transform(op, false);
+	}
+
+	/**
+	 * Applies the given operation to every cell in the grid.
+	 * When multithreaded, bands of rows are transformed in parallel on the grids' ForkJoinPool,
+	 * so the operation must not depend on the order that cells are changed in.
+	 *
+	 * An operation that needs to see the grid as it was before the transform can read from a snapshot of it.
+	 *
+	 * @param 	op 				The Operation to apply to each cell in the grid
+	 * @param 	multithread 	A boolean whether or not to use multiple threads when transforming
+	 *
+	 * @return 					Whether or not the grid changed (according to .equals)
+	 */
+	public synchronized boolean transform(Grid.Operation<T> op, boolean multithread) {
+		return RowBands.transform(width, height, multithread, y -> {
+			ByteBuffer region = region(y);
+			boolean changed = false;
+
+			for (int x=0, i=rowOffset(y); x < width; x++, i+=cellSize) {
+				T old = codec.read(region, i);
+				T n = op.apply(x, y, old);
+				if (!changed)
+					changed = Grid.differ(old, n);
+				codec.write(region, i, n);
+			}
+
+			return changed;
+		});
+	}
+
+	/**
+	 * Fills the grid with the given value, overwriting existing values
+	 *
+	 * @param 	value 	The value to fill the grid with
+	 */
+	public synchronized void fill(T value) {
+		if (cellSize == 0)
+			return;
+
+		// every cell gets the same bytes, so encode the value once and copy it across each region
+		ByteBuffer cells = ByteBuffer.allocate(cellSize * Math.max(1, Math.min(width, FILL_CELLS))).order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int i=0; i < cells.capacity(); i += cellSize)
+			codec.write(cells, i, value);
+
+		byte[] pattern = cells.array();
+
+		// each region holds whole rows, so it is just one run of cells
+		for (MappedByteBuffer region : regions) {
+			ByteBuffer out = region.duplicate();
+			out.clear();
+
+			while (out.hasRemaining())
+				out.put(pattern, 0, Math.min(pattern.length, out.remaining()));
+		}
+	}
+
+	/**
+	 * Writes any changes to the grid out to its file
+	 */
+	public synchronized void flush() {
+		for (MappedByteBuffer region : regions)
+			region.force();
+	}
+
+	/**
+	 * Copies this grid into a new file, and returns the copy.
+	 * The copy is made by the operating system, without going through the heap.
+	 *
+	 * @param 	file 	The file to put the copy in, which is replaced if it exists
+	 *
+	 * @return 			A MappedGrid holding a copy of this grid, which doesn't change when this grid does
+	 *
+	 * @exception 	IOException 	If the copy couldn't be made
+	 */
+	public synchronized MappedGrid<T> snapshot(Path file) throws IOException {
+		flush();
+
+		long size = HEADER + (long)rowBytes * height;
+
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for (long done = 0; done < size; )
+				done += channel.transferTo(done, size - done, out);
+		}
+
+		return open(file, codec);
+	}
+
+	/**
+	 * Returns the value at the given coordinates in the grid
+	 *
+	 * @param 	x 	The x coordinate of the value to be retrieved
+	 * @param 	y 	The y coordinate of the value to be retrieved
+	 *
+	 * @return 		The value at the given position in the grid
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	public T get(int x, int y) throws ArrayIndexOutOfBoundsException {
+		check(x, y);
+
+		return codec.read(region(y), rowOffset(y) + x * cellSize);
+	}
+
+	/**
+	 * Sets the value at the given coordinates in the grid
+	 *
+	 * @param 	x 		The x coordinate to place the value
+	 * @param 	y 		The y coordinate to place the value
+	 * @param 	value 	The value to place
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	public void set(int x, int y, T value) throws ArrayIndexOutOfBoundsException {
+		check(x, y);
+
+		codec.write(region(y), rowOffset(y) + x * cellSize, value);
+	}
+
+	/**
+	 * Returns the width of this Grid
+	 *
+	 * @return 	The width of this Grid
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of this Grid
+	 *
+	 * @return 	The height of this Grid
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the codec used to read and write cells
+	 *
+	 * @return 	The CellCodec of this Grid
+	 */
+	public CellCodec<T> getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Closes the grid's file. The mapping itself is only released once the grid is garbage collected,
+	 * so the grid must not be used after it is closed.
+	 *
+	 * @exception 	IOException 	If the file couldn't be closed
+	 */
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	private void check(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ") is outside of the grid");
+	}
+
+	/**
+	 * Returns the mapped region holding the given row
+	 */
+	private ByteBuffer region(int y) {
+		return regions[y / rowsPerRegion];
+	}
+
+	/**
+	 * Returns the offset of the start of the given row within its region
+	 */
+	private int rowOffset(int y) {
+		return (y % rowsPerRegion) * rowBytes;
+	}
+}
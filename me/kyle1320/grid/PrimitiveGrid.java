@@ -0,0 +1,137 @@
+package me.kyle1320.grid;
+
+/**
+ * The layout shared by the grids of primitives. The cells are kept in a single array, one row after another,
+ * and each row starts on a new element so that rows can be changed from different threads at the same time.
+ * A grid may pack several cells into each element, in which case x is shifted down to find the element holding a cell.
+ *
+ * @author Kyle Cutler
+ */
+abstract class PrimitiveGrid {
+	final int width, height;
+
+	// the number of elements in each row
+	final int stride;
+
+	/**
+	 * Sets up the layout of a grid
+	 *
+	 * @param 	width 	The width of the grid
+	 * @param 	height 	The height of the grid
+	 * @param 	shift 	The number of bits that x is shifted down by to find the element holding a cell
+	 */
+	PrimitiveGrid(int width, int height, int shift) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("width and height must not be negative");
+
+		this.width = width;
+		this.height = height;
+		this.stride = (int)((width + (1L << shift) - 1) >>> shift);
+	}
+
+	/**
+	 * Returns the number of elements needed to hold the whole grid
+	 */
+	final int length() {
+		return Math.multiplyExact(stride, height);
+	}
+
+	/**
+	 * Runs the given operation on every row of the grid
+	 *
+	 * @param 	multithread 	Whether or not to run bands of rows in parallel
+	 * @param 	row 			The RowOperation to run on each row
+	 *
+	 * @return 					Whether any row changed
+	 */
+	final boolean rows(boolean multithread, RowOperation row) {
+		return RowBands.transform(width, height, multithread, y -> row.apply(y, y * stride));
+	}
+
+	/**
+	 * Finds the neighbors to the given cell and has the grid copy each of their values into an array
+	 *
+	 * @param 	x 			The x-coordinate of the cell to look around
+	 * @param 	y 			The y-coordinate of the cell to look around
+	 * @param 	relatives 	The list of relative coordinates to look for neighbors in
+	 * @param 	wrap 		Whether or not to wrap the board edges
+	 * @param 	out 		The array of the grid's type to copy the values into
+	 *
+	 * @return 				The number of neighbors copied
+	 */
+	final int neighbors(int x, int y, int[][] relatives, boolean wrap, Object out) {
+		int count = 0;
+
+		for (int[] relative : relatives) {
+			int nx = x + relative[0], ny = y + relative[1];
+
+			if (wrap) {
+				nx = Math.floorMod(nx, width);
+				ny = Math.floorMod(ny, height);
+			} else if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+				continue;
+			}
+
+			copyCell(ny * stride, nx, out, count++);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Copies the value of a cell into an array of the grid's type
+	 *
+	 * @param 	row 	The index of the first element of the cell's row
+	 * @param 	x 		The x-coordinate of the cell
+	 * @param 	out 	The array to copy the value into
+	 * @param 	slot 	The index in the array to copy the value to
+	 */
+	abstract void copyCell(int row, int x, Object out, int slot);
+
+	/**
+	 * Returns the index of the first element of the row holding the given cell.
+	 * A grid that keeps a cell in each element adds x to find the cell; this is left to the grid so that it is as cheap as possible.
+	 *
+	 * @exception 	ArrayIndexOutOfBoundsException 	If the coordinates are outside of the grid
+	 */
+	final int row(int x, int y) {
+		// a flat array would let an x-coordinate past the edge spill over into the next row
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ") is outside of the grid");
+
+		return y * stride;
+	}
+
+	/**
+	 * Returns the width of this Grid
+	 *
+	 * @return 	The width of this Grid
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of this Grid
+	 *
+	 * @return 	The height of this Grid
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Something done to a single row of a grid
+	 */
+	interface RowOperation {
+		/**
+		 * Runs on a row of the grid
+		 *
+		 * @param 	y 		The y-coordinate of the row
+		 * @param 	start 	The index of the first element of the row
+		 *
+		 * @return 			Whether the row changed
+		 */
+		boolean apply(int y, int start);
+	}
+}
@@ -0,0 +1,95 @@
+package me.kyle1320.grid;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+/**
+ * Runs a transform over every row of a grid, optionally splitting the rows into bands that are transformed in parallel
+ *
+ * @author Kyle Cutler
+ */
+final class RowBands {
+	// the number of cells below which a band of rows is transformed on one thread instead of being split further
+	private static final int BAND_CELLS = 1 << 14;
+
+	private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	private RowBands() {}
+
+	static void setPool(ForkJoinPool pool) {
+		if (pool == null)
+			throw new NullPointerException("pool");
+
+		RowBands.pool = pool;
+	}
+
+	/**
+	 * Transforms every row of a grid
+	 *
+	 * @param 	width 		The width of the grid
+	 * @param 	height 		The height of the grid
+	 * @param 	parallel 	Whether or not to transform bands of rows in parallel
+	 * @param 	row 		Transforms the row at the given y-coordinate, returning whether it changed
+	 *
+	 * @return 				Whether any row changed
+	 */
+	static boolean transform(int width, int height, boolean parallel, IntPredicate row) {
+		// split down to bands of at least one row, but not so small that the splitting costs more than the work
+		int grain = Math.max(1, BAND_CELLS / Math.max(1, width));
+
+		if (!parallel || height <= grain) {
+			boolean changed = false;
+
+			for (int y=0; y < height; y++)
+				changed |= row.test(y);
+
+			return changed;
+		}
+
+		return pool.invoke(new Band(row, 0, height, grain));
+	}
+
+	/**
+	 * A band of rows to transform, which splits itself in half until it is small enough to do on one thread.
+	 * Each band keeps track of whether its own rows changed, so nothing needs to be compared afterwards.
+	 */
+	private static final class Band extends RecursiveTask<Boolean> {
+		private final IntPredicate row;
+		private final int from, to, grain;
+
+		Band(IntPredicate row, int from, int to, int grain) {
+			this.row = row;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		protected Boolean compute() {
+			if (to - from <= grain) {
+				boolean changed = false;
+
+				for (int y=from; y < to; y++)
+					changed |= row.test(y);
+
+				return changed;
+			}
+
+			int mid = (from + to) >>> 1;
+			Band top = new Band(row, from, mid, grain);
+			top.fork();
+
+			boolean changed;
+
+			try {
+				changed = new Band(row, mid, to, grain).compute();
+			} catch (RuntimeException | Error e) {
+				// don't let the transform end while the other half is still changing the grid
+				top.quietlyJoin();
+				throw e;
+			}
+
+			return top.join() | changed;
+		}
+	}
+}
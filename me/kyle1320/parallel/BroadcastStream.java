@@ -0,0 +1,318 @@
+package me.kyle1320.parallel;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import me.kyle1320.parallel.ConcurrentStream.StreamClosedException;
+
+/**
+ * A stream where every subscriber sees every element, in the order they were written.
+ * Elements are kept in a single shared ring and each subscriber just has its own position in it,
+ * so nothing is copied per subscriber. A slot is only reused once every subscriber has read past it,
+ * so writers wait for the slowest subscriber once the ring is full.
+ *
+ * A subscriber sees the elements written after it subscribes. With no subscribers at all, writes never wait
+ * and the elements are simply dropped.
+ *
+ * @author Kyle Cutler
+ */
+public class BroadcastStream<T> {
+    private final Object[] items;
+    private final int capacity, mask;
+
+    // the position of the element last written to each slot, which goes up by a lap each time the slot is written
+    private final AtomicLongArray published;
+
+    // the total number of elements ever written
+    private final AtomicLong tail = new AtomicLong();
+
+    // no subscriber is behind this position, so writers only need to look at every subscriber when they get this far behind
+    private volatile long slowest = 0;
+
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+    private final Waiters readers = new Waiters(), writers = new Waiters();
+    private volatile boolean finished = false;
+
+    /**
+     * Creates a stream
+     *
+     * @param   capacity    The maximum number of elements that the slowest subscriber can fall behind by
+     */
+    public BroadcastStream(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity is too large");
+
+        // use a power of two slots so that positions can be turned into indices with a mask
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity)
+            slots <<= 1;
+
+        this.capacity = capacity;
+        this.mask = slots - 1;
+        this.items = new Object[slots];
+        this.published = new AtomicLongArray(slots);
+
+        for (int i=0; i < slots; i++)
+            published.set(i, -1);
+    }
+
+    /**
+     * Starts receiving elements
+     *
+     * @return  A subscription that will see every element written from now on
+     */
+    public Subscription subscribe() {
+        Subscription sub = new Subscription(tail.get());
+        subscribers.add(sub);
+
+        // writers that didn't see the new subscriber could have overwritten elements up to here
+        sub.cursor.set(tail.get());
+
+        return sub;
+    }
+
+    /**
+     * Marks the stream as finished. Subscribers can still read the elements already written,
+     * after which reads throw StreamClosedException.
+     */
+    public void finish() {
+        this.finished = true;
+        this.readers.signalAll();
+    }
+
+    /**
+     * Adds an element to the end of the stream, waiting for the slowest subscriber if the stream is full
+     *
+     * @param   el  The element to add
+     *
+     * @return      True if the element was added, or false if the thread was interrupted while waiting for room,
+     *              in which case it stays interrupted
+     *
+     * @exception   NullPointerException    If the element is null
+     */
+    public boolean write(T el) {
+        if (el == null)
+            throw new NullPointerException();
+
+        if (offer(el)) {
+            readers.signalAll();
+            return true;
+        }
+
+        while (true) {
+            Waiters.Node node = writers.register();
+
+            // check again now that subscribers can see us, so we can't miss a wakeup
+            boolean added = offer(el);
+            if (!added) {
+                node.park(this);
+                added = offer(el);
+            }
+
+            boolean signalled = writers.cancel(node);
+
+            if (added) {
+                readers.signalAll();
+
+                // pass on a wakeup that another writer may have needed
+                if (signalled && !isFull())
+                    writers.signal();
+
+                return true;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                if (signalled && !isFull())
+                    writers.signal();
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the stream is finished and every subscriber has read every element
+     */
+    public boolean isClosed() {
+        return finished && slowest(tail.get()) >= tail.get();
+    }
+
+    private boolean offer(T el) {
+        while (true) {
+            // the tail must be read before looking at the subscribers, so that a subscriber
+            // that joins in the meantime starts after anything this might overwrite
+            long pos = tail.get();
+
+            if (pos - slowest >= capacity) {
+                slowest = slowest(pos);
+
+                if (pos - slowest >= capacity)
+                    return false;
+            }
+
+            if (tail.compareAndSet(pos, pos + 1)) {
+                int index = (int)pos & mask;
+
+                // a writer a lap behind may have claimed this slot but not filled it yet. If it filled the slot
+                // after us, our element would be lost and a subscriber waiting for it would never see it, so wait for it.
+                // This can only happen when nobody is subscribed that far back, and that writer is just about to publish.
+                long previous = Math.max(pos - items.length, -1);
+                while (published.get(index) != previous)
+                    Thread.yield();
+
+                items[index] = el;
+                published.set(index, pos);
+                return true;
+            }
+        }
+    }
+
+    private boolean isFull() {
+        long pos = tail.get();
+        return pos - slowest(pos) >= capacity;
+    }
+
+    private long slowest(long pos) {
+        long min = pos;
+
+        for (Subscription sub : subscribers)
+            min = Math.min(min, sub.cursor.get());
+
+        return min;
+    }
+
+    /**
+     * A single subscriber's view of the stream. Each subscription should only be read by one thread at a time.
+     *
+     * @author Kyle Cutler
+     */
+    public final class Subscription implements AutoCloseable {
+        // the position of the next element to read
+        private final AtomicLong cursor;
+
+        private Subscription(long start) {
+            this.cursor = new AtomicLong(start);
+        }
+
+        /**
+         * Returns the next element, waiting for one to be written if this subscriber has read everything so far
+         *
+         * @return  The element read
+         *
+         * @exception   StreamClosedException   If the stream is finished and this subscriber has read everything
+         * @exception   InterruptedException    If the thread was interrupted while waiting
+         */
+        public T read() throws StreamClosedException, InterruptedException {
+            return take(false, 0);
+        }
+
+        /**
+         * Returns the next element, if there is one, without waiting
+         *
+         * @return  The element read, or null if this subscriber has read everything so far
+         *
+         * @exception   StreamClosedException   If the stream is finished and this subscriber has read everything
+         */
+        public T poll() throws StreamClosedException {
+            T el = next();
+
+            if (el == null && finished) {
+                // an element may have been written just before the stream was finished
+                el = next();
+                if (el == null)
+                    throw new StreamClosedException();
+            }
+
+            return el;
+        }
+
+        /**
+         * Returns the next element, waiting up to the given time for one to be written if this subscriber has read everything so far
+         *
+         * @param   timeout     How long to wait for an element
+         * @param   unit        The unit of the timeout
+         *
+         * @return              The element read, or null if none was written in time
+         *
+         * @exception   StreamClosedException   If the stream is finished and this subscriber has read everything
+         * @exception   InterruptedException    If the thread was interrupted while waiting
+         */
+        public T poll(long timeout, TimeUnit unit) throws StreamClosedException, InterruptedException {
+            return take(true, unit.toNanos(timeout));
+        }
+
+        /**
+         * Stops receiving elements, so that writers no longer wait for this subscriber
+         */
+        public void close() {
+            if (subscribers.remove(this))
+                writers.signal();
+        }
+
+        private T take(boolean timed, long nanos) throws StreamClosedException, InterruptedException {
+            T el = next();
+
+            if (el != null)
+                return el;
+
+            long deadline = System.nanoTime() + nanos;
+
+            while (true) {
+                Waiters.Node node = readers.register();
+
+                // check again now that writers can see us, so we can't miss a wakeup
+                el = next();
+                if (el == null && !finished) {
+                    if (!timed)
+                        node.park(BroadcastStream.this);
+                    else if (deadline - System.nanoTime() > 0)
+                        node.park(BroadcastStream.this, deadline - System.nanoTime());
+
+                    el = next();
+                }
+
+                // every waiting subscriber is woken up for each element, so there's no wakeup to pass on
+                readers.cancel(node);
+
+                if (el != null)
+                    return el;
+
+                if (finished) {
+                    el = next();
+                    if (el == null)
+                        throw new StreamClosedException();
+
+                    return el;
+                }
+
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+
+                if (timed && deadline - System.nanoTime() <= 0)
+                    return null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T next() {
+            long pos = cursor.get();
+            int index = (int)pos & mask;
+
+            if (published.get(index) != pos)
+                return null;
+
+            T el = (T)items[index];
+            cursor.lazySet(pos + 1);
+
+            // this may have been the slowest subscriber
+            writers.signal();
+
+            return el;
+        }
+    }
+}
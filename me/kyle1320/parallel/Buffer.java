@@ -0,0 +1,66 @@
+package me.kyle1320.parallel;
+
+import java.util.Collection;
+
+/**
+ * The storage behind a ConcurrentStream. Implementations must be safe to use
+ * from many threads at once, and must never block.
+ *
+ * @author Kyle Cutler
+ */
+interface Buffer<T> {
+    /**
+     * Adds an element to the back of the buffer
+     *
+     * @param   el  The element to add, which is never null
+     *
+     * @return      True if the element was added, or false if the buffer is full
+     */
+    boolean offer(T el);
+
+    /**
+     * Removes the element at the front of the buffer
+     *
+     * @return  The element removed, or null if the buffer is empty
+     */
+    T poll();
+
+    /**
+     * Adds elements to the back of the buffer, stopping early if it fills up
+     *
+     * @param   els     The elements to add, none of which are null
+     * @param   from    The index of the first element to add
+     * @param   to      The index after the last element to add
+     *
+     * @return          The number of elements added, starting from els[from]
+     */
+    int offerAll(T[] els, int from, int to);
+
+    /**
+     * Removes elements from the front of the buffer.
+     * If the collection throws an exception while adding an element, the elements it already took are removed,
+     * and the one it refused and the rest are left at the front of the buffer, to be removed before anything else.
+     * Another thread reading at the same time may already have taken newer elements, though.
+     *
+     * @param   out     The collection to add the removed elements to
+     * @param   max     The maximum number of elements to remove
+     *
+     * @return          The number of elements removed
+     */
+    int drainTo(Collection<? super T> out, int max);
+
+    /**
+     * Returns the number of elements in the buffer, or -1 if they can't be counted without going through them all
+     */
+    long size();
+
+    /**
+     * Returns true if the buffer has no elements
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns true if the buffer can't hold any more elements
+     */
+    boolean isFull();
+}
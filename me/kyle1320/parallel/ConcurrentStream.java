@@ -1,39 +1,536 @@
 package me.kyle1320.parallel;
 
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stream of elements handed from any number of writers to any number of readers.
+ * Each element is read exactly once, and each write wakes at most one waiting reader.
+ *
+ * A stream can either be unbounded, in which case writing never blocks, or bounded,
+ * in which case writers are held back according to an OverflowPolicy once the stream is full.
+ *
+ * Waiting readers and writers are parked rather than blocked on a monitor,
+ * so any number of virtual threads can wait on a stream without pinning their carrier threads.
+ *
+ * @author Kyle Cutler
+ */
 public class ConcurrentStream<T> {
-    private LinkedList<T> queue;
-    private boolean finished;
+    private final Buffer<T> buffer;
+    private final Waiters readers, writers;
+    private final OverflowPolicy policy;
+    private final long timeout;
+    private volatile boolean finished;
+
+    // null unless metrics have been turned on
+    private volatile StreamMetrics metrics;
 
-    public final class StreamClosedException extends Exception {}
+    public static final class StreamClosedException extends Exception {}
 
+    /**
+     * What a write to a full bounded stream does
+     */
+    public enum OverflowPolicy {
+        // wait until there is room
+        BLOCK,
+        // wait until there is room, or give up after a timeout
+        TIMEOUT,
+        // give up right away
+        FAIL
+    }
+
+    /**
+     * Creates an unbounded stream
+     */
     public ConcurrentStream() {
-        this.queue = new LinkedList<>();
+        this(new LinkedBuffer<>(), OverflowPolicy.FAIL, 0);
+    }
+
+    /**
+     * Creates a bounded stream where writes wait for room when the stream is full
+     *
+     * @param   capacity    The maximum number of unread elements
+     */
+    public ConcurrentStream(int capacity) {
+        this(capacity, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Creates a bounded stream
+     *
+     * @param   capacity    The maximum number of unread elements
+     * @param   policy      What to do when writing to a full stream. Must be BLOCK or FAIL;
+     *                      use the constructor that takes a timeout for TIMEOUT.
+     */
+    public ConcurrentStream(int capacity, OverflowPolicy policy) {
+        this(new RingBuffer<>(capacity), policy, 0);
+
+        if (policy == OverflowPolicy.TIMEOUT)
+            throw new IllegalArgumentException("TIMEOUT needs a timeout");
+    }
+
+    /**
+     * Creates a bounded stream where writes wait up to the given time for room when the stream is full
+     *
+     * @param   capacity    The maximum number of unread elements
+     * @param   timeout     How long to wait for room
+     * @param   unit        The unit of the timeout
+     */
+    public ConcurrentStream(int capacity, long timeout, TimeUnit unit) {
+        this(new RingBuffer<>(capacity), OverflowPolicy.TIMEOUT, unit.toNanos(timeout));
+    }
+
+    private ConcurrentStream(Buffer<T> buffer, OverflowPolicy policy, long timeout) {
+        this.buffer = buffer;
+        this.readers = new Waiters();
+        this.writers = new Waiters();
+        this.policy = policy;
+        this.timeout = timeout;
         this.finished = false;
     }
 
-    public synchronized void finish() {
+    /**
+     * Creates a bounded stream for exactly one writing thread and one reading thread, where writes wait for room
+     * when the stream is full. Handing elements over this way is much cheaper than with a regular stream,
+     * but the stream may lose or repeat elements if more than one thread writes or reads at the same time.
+     *
+     * @param   capacity    The maximum number of unread elements
+     */
+    public static <T> ConcurrentStream<T> singleWriterSingleReader(int capacity) {
+        return new ConcurrentStream<>(new SpscRingBuffer<>(capacity), OverflowPolicy.BLOCK, 0);
+    }
+
+    /**
+     * Starts gathering metrics for this stream, if it wasn't already. Streams without metrics don't pay for them.
+     *
+     * @return  The stream's metrics
+     */
+    public synchronized StreamMetrics enableMetrics() {
+        if (metrics == null)
+            metrics = new StreamMetrics(buffer::size);
+
+        return metrics;
+    }
+
+    /**
+     * Returns the stream's metrics, or null if they haven't been turned on
+     */
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Marks the stream as finished. Elements already written can still be read,
+     * after which reads throw StreamClosedException.
+     */
+    public void finish() {
         this.finished = true;
+        this.readers.signalAll();
+    }
+
+    /**
+     * Adds an element to the end of the stream. If the stream is bounded and full,
+     * this waits or fails depending on the stream's OverflowPolicy.
+     *
+     * @param   el  The element to add
+     *
+     * @return      True if the element was added, or false if the stream was full
+     *              (or the thread was interrupted while waiting for room, in which case it stays interrupted)
+     *
+     * @exception   NullPointerException    If the element is null
+     */
+    public boolean write(T el) {
+        if (el == null)
+            throw new NullPointerException();
+
+        if (buffer.offer(el)) {
+            readers.signal();
+            countWrites(1);
+            return true;
+        }
+
+        if (policy == OverflowPolicy.FAIL)
+            return false;
+
+        StreamMetrics m = metrics;
+        if (m == null)
+            return waitToWrite(el);
+
+        long start = System.nanoTime();
+        boolean added = waitToWrite(el);
+        m.writerBlocked(System.nanoTime() - start);
+
+        if (added)
+            m.wrote(1);
+
+        return added;
+    }
+
+    private boolean waitToWrite(T el) {
+        long deadline = System.nanoTime() + timeout;
+
+        while (true) {
+            Waiters.Node node = writers.register();
+
+            // check again now that readers can see us, so we can't miss a wakeup
+            boolean added = buffer.offer(el);
+            if (!added) {
+                if (policy == OverflowPolicy.TIMEOUT) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining > 0)
+                        node.park(this, remaining);
+                } else {
+                    node.park(this);
+                }
+
+                added = buffer.offer(el);
+            }
+
+            boolean signalled = writers.cancel(node);
+
+            if (added) {
+                readers.signal();
+
+                // pass on a wakeup that another writer may have needed
+                if (signalled && !buffer.isFull())
+                    writers.signal();
+
+                return true;
+            }
+
+            if (Thread.currentThread().isInterrupted()
+                    || policy == OverflowPolicy.TIMEOUT && deadline - System.nanoTime() <= 0) {
+                // we're giving up, so don't take a wakeup with us
+                if (signalled && !buffer.isFull())
+                    writers.signal();
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds a number of elements to the end of the stream, waking up waiting readers once
+     * per batch rather than once per element. If the stream is bounded and fills up,
+     * this waits or fails depending on the stream's OverflowPolicy, the same as write.
+     *
+     * @param   els     The elements to add, in order
+     *
+     * @return          The number of elements added, which is less than the number given
+     *                  only if the stream was full (or the thread was interrupted while waiting for room,
+     *                  in which case it stays interrupted)
+     *
+     * @exception   NullPointerException    If any of the elements are null, in which case none are added
+     */
+    @SuppressWarnings("unchecked")
+    public int writeAll(Collection<? extends T> els) {
+        T[] arr = (T[])els.toArray();
+
+        for (T el : arr)
+            if (el == null)
+                throw new NullPointerException();
+
+        int count = 0;
+
+        while (count < arr.length) {
+            int added = buffer.offerAll(arr, count, arr.length);
+
+            if (added > 0) {
+                count += added;
+                countWrites(added);
+
+                // a single reader is enough, since each woken reader wakes up the next while there's more to read
+                readers.signal();
+            } else {
+                // the stream is full, so wait for room the same way as a single write
+                if (!write(arr[count]))
+                    break;
+
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Removes elements from the front of the stream, waiting for one to be written if the stream is empty.
+     * Once there is something to read, this takes as many elements as are available at once, up to the given maximum.
+     * If the collection throws an exception while adding an element, the elements it already took are read,
+     * and the one it refused and the rest are left in the stream to be read again.
+     *
+     * @param   out     The collection to add the elements read to, in order
+     * @param   max     The maximum number of elements to read
+     *
+     * @return          The number of elements read
+     *
+     * @exception   StreamClosedException   If the stream is finished and empty
+     * @exception   InterruptedException    If the thread was interrupted while waiting
+     */
+    public int drainTo(Collection<? super T> out, int max) throws StreamClosedException, InterruptedException {
+        if (max <= 0)
+            return 0;
+
+        boolean signalled = false;
+
+        while (true) {
+            int count = drainBuffer(out, max);
+
+            if (count > 0) {
+                // we may have taken a wakeup meant for another reader, so pass it on if there's still something to read
+                if (signalled && !buffer.isEmpty())
+                    readers.signal();
+
+                return count;
+            }
+
+            // elements are only taken once they can go straight into the collection, so that none are lost if it refuses one
+            signalled = awaitElements();
+        }
+    }
+
+    private int drainBuffer(Collection<? super T> out, int max) {
+        StreamMetrics m = metrics;
+        Counter<T> counter = m == null ? null : new Counter<>(out);
+        int count;
+
+        try {
+            count = buffer.drainTo(counter == null ? out : counter, max);
+        } catch (RuntimeException | Error e) {
+            // the elements added before the collection refused one were still read
+            writers.signal();
+
+            // and the rest are back in the buffer, where another reader may be waiting for them
+            if (!buffer.isEmpty())
+                readers.signal();
+
+            if (counter != null)
+                m.read(counter.count);
+
+            throw e;
+        }
+
+        if (count > 0) {
+            // likewise, a single writer passes the wakeup on while there's room
+            writers.signal();
+            if (m != null)
+                m.read(count);
+        }
+
+        return count;
     }
 
-    public synchronized void write(T el) {
-        queue.addLast(el);
-        this.notifyAll();
+    /**
+     * Waits until there may be something to read, without reading it
+     *
+     * @return  True if the thread was signalled, meaning it took a wakeup that it may need to pass on
+     */
+    private boolean awaitElements() throws StreamClosedException, InterruptedException {
+        StreamMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+
+        Waiters.Node node = readers.register();
+
+        // check again now that writers can see us, so we can't miss a wakeup
+        if (buffer.isEmpty() && !finished)
+            node.park(this);
+
+        boolean signalled = readers.cancel(node);
+
+        if (m != null)
+            m.readerWaited(System.nanoTime() - start);
+
+        // an element may have been written just before the stream was finished
+        if (finished && buffer.isEmpty())
+            throw new StreamClosedException();
+
+        if (buffer.isEmpty() && Thread.interrupted())
+            throw new InterruptedException();
+
+        return signalled;
     }
 
-    public synchronized T read() throws StreamClosedException {
+    /**
+     * Removes and returns the element at the front of the stream,
+     * waiting for one to be written if the stream is empty.
+     *
+     * @return  The element read
+     *
+     * @exception   StreamClosedException   If the stream is finished and empty
+     * @exception   InterruptedException    If the thread was interrupted while waiting
+     */
+    public T read() throws StreamClosedException, InterruptedException {
+        return take(false, 0);
+    }
+
+    /**
+     * Removes and returns the element at the front of the stream, if there is one, without waiting
+     *
+     * @return  The element read, or null if the stream is empty
+     *
+     * @exception   StreamClosedException   If the stream is finished and empty
+     */
+    public T poll() throws StreamClosedException {
+        T el = buffer.poll();
+
+        if (el == null && finished) {
+            // an element may have been written just before the stream was finished
+            el = buffer.poll();
+            if (el == null)
+                throw new StreamClosedException();
+        }
+
+        if (el != null) {
+            writers.signal();
+            countReads(1);
+        }
+
+        return el;
+    }
+
+    /**
+     * Removes and returns the element at the front of the stream,
+     * waiting up to the given time for one to be written if the stream is empty.
+     *
+     * @param   timeout     How long to wait for an element
+     * @param   unit        The unit of the timeout
+     *
+     * @return              The element read, or null if none was written in time
+     *
+     * @exception   StreamClosedException   If the stream is finished and empty
+     * @exception   InterruptedException    If the thread was interrupted while waiting
+     */
+    public T poll(long timeout, TimeUnit unit) throws StreamClosedException, InterruptedException {
+        return take(true, unit.toNanos(timeout));
+    }
+
+    private T take(boolean timed, long nanos) throws StreamClosedException, InterruptedException {
+        T el = buffer.poll();
+
+        if (el != null) {
+            writers.signal();
+            countReads(1);
+            return el;
+        }
+
+        StreamMetrics m = metrics;
+        if (m == null)
+            return waitToRead(timed, nanos);
+
+        long start = System.nanoTime();
+
         try {
-            while (true) {
-                if (!this.queue.isEmpty()) return this.queue.removeFirst();
-                if (this.finished) throw new StreamClosedException();
+            el = waitToRead(timed, nanos);
+        } finally {
+            m.readerWaited(System.nanoTime() - start);
+        }
 
-                this.wait();
+        if (el != null)
+            m.read(1);
+
+        return el;
+    }
+
+    private T waitToRead(boolean timed, long nanos) throws StreamClosedException, InterruptedException {
+        T el;
+        long deadline = System.nanoTime() + nanos;
+
+        while (true) {
+            Waiters.Node node = readers.register();
+
+            // check again now that writers can see us, so we can't miss a wakeup
+            el = buffer.poll();
+            if (el == null && !finished) {
+                if (!timed)
+                    node.park(this);
+                else if (deadline - System.nanoTime() > 0)
+                    node.park(this, deadline - System.nanoTime());
+
+                el = buffer.poll();
             }
-        } catch (InterruptedException e) {
-            return null;
+
+            boolean signalled = readers.cancel(node);
+
+            if (el != null) {
+                writers.signal();
+
+                // we may have taken a wakeup meant for an element that another reader got to first,
+                // so pass it on if there's still something to read
+                if (signalled && !buffer.isEmpty())
+                    readers.signal();
+
+                return el;
+            }
+
+            if (finished) {
+                el = buffer.poll();
+                if (el == null)
+                    throw new StreamClosedException();
+
+                writers.signal();
+                return el;
+            }
+
+            boolean interrupted = Thread.interrupted();
+            boolean expired = timed && deadline - System.nanoTime() <= 0;
+
+            if (interrupted || expired) {
+                // we're giving up, so don't take a wakeup with us
+                if (signalled && !buffer.isEmpty())
+                    readers.signal();
+
+                if (interrupted)
+                    throw new InterruptedException();
+
+                return null;
+            }
+        }
+    }
+
+    private void countWrites(int count) {
+        StreamMetrics m = metrics;
+        if (m != null)
+            m.wrote(count);
+    }
+
+    private void countReads(int count) {
+        StreamMetrics m = metrics;
+        if (m != null)
+            m.read(count);
+    }
+
+    /**
+     * Passes elements on to another collection, counting the ones it takes
+     */
+    private static final class Counter<T> extends AbstractCollection<T> {
+        private final Collection<? super T> out;
+        private int count;
+
+        Counter(Collection<? super T> out) {
+            this.out = out;
+        }
+
+        public boolean add(T el) {
+            boolean changed = out.add(el);
+            count++;
+            return changed;
+        }
+
+        public Iterator<T> iterator() {
+            throw new UnsupportedOperationException();
+        }
+
+        public int size() {
+            return count;
         }
     }
 
-    public synchronized boolean isClosed() {
-        return this.finished && this.queue.isEmpty();
+    /**
+     * Returns true if the stream is finished and every element has been read
+     */
+    public boolean isClosed() {
+        return this.finished && this.buffer.isEmpty();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package me.kyle1320.parallel;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An unbounded lock-free buffer, backed by a linked queue
+ *
+ * @author Kyle Cutler
+ */
+final class LinkedBuffer<T> implements Buffer<T> {
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+
+    // elements that drainTo took but its collection didn't, which are read before anything in the queue
+    private final ConcurrentLinkedDeque<T> returned = new ConcurrentLinkedDeque<>();
+
+    public boolean offer(T el) {
+        return queue.offer(el);
+    }
+
+    public T poll() {
+        if (!returned.isEmpty()) {
+            T el = returned.pollFirst();
+
+            if (el != null)
+                return el;
+        }
+
+        return queue.poll();
+    }
+
+    public int offerAll(T[] els, int from, int to) {
+        // the queue links the new elements together first, then appends them all at once
+        queue.addAll(Arrays.asList(els).subList(from, to));
+        return to - from;
+    }
+
+    public int drainTo(Collection<? super T> out, int max) {
+        int count = 0;
+        T el;
+
+        while (count < max && (el = poll()) != null) {
+            try {
+                out.add(el);
+            } catch (RuntimeException | Error e) {
+                // the queue can't take the element back at the front, so it goes ahead of it instead
+                returned.offerFirst(el);
+                throw e;
+            }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    public long size() {
+        return -1;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty() && returned.isEmpty();
+    }
+
+    public boolean isFull() {
+        return false;
+    }
+}
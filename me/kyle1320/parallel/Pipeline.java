@@ -0,0 +1,522 @@
+package me.kyle1320.parallel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A chain of processing stages, each running on its own threads and connected to the next by a bounded ConcurrentStream.
+ * A pipeline is built up from a source, then started by giving it somewhere to send its results:
+ *
+ * <pre>
+ *     Pipeline.from(lines)
+ *             .map(Record::parse, 4)
+ *             .filter(Record::isValid)
+ *             .batch(100)
+ *             .to(database::insertAll)
+ *             .await();
+ * </pre>
+ *
+ * Once the source runs out, each stage finishes the stream after it as soon as all of its threads are done,
+ * so the end of the stream passes all the way down the pipeline. By default, stages with more than one thread
+ * may pass elements on in a different order than they arrived in; an ordered pipeline keeps the source's order
+ * at the cost of holding back results that finish early.
+ *
+ * Building a pipeline doesn't change it, so the same pipeline can be extended in different ways or started more than once.
+ *
+ * @author Kyle Cutler
+ */
+public final class Pipeline<T> {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Supplier<Source> source;
+    private final List<Stage> stages;
+    private final boolean ordered;
+    private final int capacity;
+    private final ThreadFactory threads;
+
+    private Pipeline(Supplier<Source> source, List<Stage> stages, boolean ordered, int capacity, ThreadFactory threads) {
+        this.source = source;
+        this.stages = stages;
+        this.ordered = ordered;
+        this.capacity = capacity;
+        this.threads = threads;
+    }
+
+    /**
+     * Creates a pipeline that reads its elements from the given Iterable
+     *
+     * @param   source  The elements to send through the pipeline, none of which may be null
+     */
+    public static <T> Pipeline<T> from(Iterable<? extends T> source) {
+        return new Pipeline<>(() -> out -> {
+            for (T el : source)
+                out.accept(el);
+        }, Collections.emptyList(), false, DEFAULT_CAPACITY, Thread::new);
+    }
+
+    /**
+     * Creates a pipeline that reads its elements from the given stream until the stream is closed
+     *
+     * @param   source  The stream to read elements from
+     */
+    public static <T> Pipeline<T> from(ConcurrentStream<? extends T> source) {
+        return new Pipeline<>(() -> out -> {
+            try {
+                while (true)
+                    out.accept(source.read());
+            } catch (ConcurrentStream.StreamClosedException e) {}
+        }, Collections.emptyList(), false, DEFAULT_CAPACITY, Thread::new);
+    }
+
+    /**
+     * Adds a stage that runs each element through a function, on a single thread
+     *
+     * @param   fn  The function to apply to each element, which must not return null
+     */
+    public <R> Pipeline<R> map(Function<? super T, ? extends R> fn) {
+        return map(fn, 1);
+    }
+
+    /**
+     * Adds a stage that runs each element through a function
+     *
+     * @param   fn          The function to apply to each element, which must not return null
+     * @param   parallelism The number of threads to run the function on
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Pipeline<R> map(Function<? super T, ? extends R> fn, int parallelism) {
+        return then(() -> (in, out) -> out.accept(fn.apply((T)in)), parallelism);
+    }
+
+    /**
+     * Adds a stage that drops elements that don't pass a test, on a single thread
+     *
+     * @param   test    The test that elements must pass to be kept
+     */
+    public Pipeline<T> filter(Predicate<? super T> test) {
+        return filter(test, 1);
+    }
+
+    /**
+     * Adds a stage that drops elements that don't pass a test
+     *
+     * @param   test        The test that elements must pass to be kept
+     * @param   parallelism The number of threads to run the test on
+     */
+    @SuppressWarnings("unchecked")
+    public Pipeline<T> filter(Predicate<? super T> test, int parallelism) {
+        return then(() -> (in, out) -> {
+            if (test.test((T)in))
+                out.accept(in);
+        }, parallelism);
+    }
+
+    /**
+     * Adds a stage that replaces each element with any number of elements, on a single thread
+     *
+     * @param   fn  The function that gives the elements to replace each element with
+     */
+    public <R> Pipeline<R> flatMap(Function<? super T, ? extends Iterable<? extends R>> fn) {
+        return flatMap(fn, 1);
+    }
+
+    /**
+     * Adds a stage that replaces each element with any number of elements
+     *
+     * @param   fn          The function that gives the elements to replace each element with
+     * @param   parallelism The number of threads to run the function on
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Pipeline<R> flatMap(Function<? super T, ? extends Iterable<? extends R>> fn, int parallelism) {
+        return then(() -> (in, out) -> {
+            for (R el : fn.apply((T)in))
+                out.accept(el);
+        }, parallelism);
+    }
+
+    /**
+     * Adds a stage that groups consecutive elements into lists. The last list may be smaller if the source runs out.
+     *
+     * @param   size    The number of elements in each list
+     */
+    public Pipeline<List<T>> batch(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size must be positive");
+
+        return then(() -> new Operator() {
+            private List<Object> batch = new ArrayList<>(size);
+
+            public void accept(Object in, Consumer<Object> out) {
+                batch.add(in);
+
+                if (batch.size() == size) {
+                    out.accept(batch);
+                    batch = new ArrayList<>(size);
+                }
+            }
+
+            public void flush(Consumer<Object> out) {
+                if (!batch.isEmpty())
+                    out.accept(batch);
+            }
+        }, 1);
+    }
+
+    /**
+     * Returns a copy of this pipeline that passes elements on in the same order the source gave them
+     */
+    public Pipeline<T> ordered() {
+        return new Pipeline<>(source, stages, true, capacity, threads);
+    }
+
+    /**
+     * Returns a copy of this pipeline that lets stages with more than one thread pass elements on
+     * as soon as they are ready, in any order. This is the default.
+     */
+    public Pipeline<T> unordered() {
+        return new Pipeline<>(source, stages, false, capacity, threads);
+    }
+
+    /**
+     * Returns a copy of this pipeline with the given number of elements allowed to wait between each pair of stages
+     *
+     * @param   capacity    The capacity of the streams connecting the stages
+     */
+    public Pipeline<T> capacity(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        return new Pipeline<>(source, stages, ordered, capacity, threads);
+    }
+
+    /**
+     * Returns a copy of this pipeline that creates its threads with the given factory
+     *
+     * @param   threads     The factory to create each of the pipeline's threads with
+     */
+    public Pipeline<T> threads(ThreadFactory threads) {
+        return new Pipeline<>(source, stages, ordered, capacity, threads);
+    }
+
+    /**
+     * Starts the pipeline, passing each element that comes out of it to the given sink.
+     * The sink is always called from a single thread.
+     *
+     * @param   sink    What to do with each element
+     *
+     * @return          The running pipeline
+     */
+    @SuppressWarnings("unchecked")
+    public Job to(Consumer<? super T> sink) {
+        return new Job(this, out -> {
+            try {
+                while (true)
+                    sink.accept((T)out.read());
+            } catch (ConcurrentStream.StreamClosedException e) {}
+        }, new ConcurrentStream<>(capacity));
+    }
+
+    /**
+     * Starts the pipeline, writing each element that comes out of it to the given stream,
+     * and finishing the stream once the pipeline is done
+     *
+     * @param   out     The stream to write to
+     *
+     * @return          The running pipeline
+     */
+    @SuppressWarnings("unchecked")
+    public Job to(ConcurrentStream<? super T> out) {
+        return new Job(this, null, (ConcurrentStream<Object>)out);
+    }
+
+    private <R> Pipeline<R> then(Supplier<Operator> operator, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+
+        List<Stage> next = new ArrayList<>(stages);
+        next.add(new Stage(operator, parallelism));
+
+        return new Pipeline<>(source, Collections.unmodifiableList(next), ordered, capacity, threads);
+    }
+
+    /**
+     * A running pipeline
+     *
+     * @author Kyle Cutler
+     */
+    public static final class Job {
+        private final Pipeline<?> pipeline;
+        private final List<Thread> workers = new ArrayList<>();
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean cancelled;
+
+        private Job(Pipeline<?> pipeline, Sink sink, ConcurrentStream<Object> last) {
+            this.pipeline = pipeline;
+
+            List<Stage> stages = pipeline.stages;
+
+            // one stream leading into each stage, plus the one the last stage writes to
+            List<ConcurrentStream<Object>> streams = new ArrayList<>();
+            for (int i=0; i < stages.size(); i++)
+                streams.add(new ConcurrentStream<>(pipeline.capacity));
+            streams.add(last);
+
+            Source src = pipeline.source.get();
+            Output first = output(streams, 0);
+            workers.add(thread(() -> src.run(first), () -> first.stream.finish(), "source"));
+
+            for (int i=0; i < stages.size(); i++)
+                addStage(stages.get(i), i, streams.get(i), output(streams, i+1));
+
+            if (sink != null)
+                workers.add(thread(() -> sink.run(last), () -> {}, "sink"));
+
+            done = new CountDownLatch(workers.size());
+
+            for (Thread worker : workers)
+                worker.start();
+        }
+
+        /**
+         * Waits for every element to make it through the pipeline
+         *
+         * @exception   ExecutionException      If a stage threw an exception, which is given as the cause
+         * @exception   CancellationException   If the pipeline was cancelled
+         * @exception   InterruptedException    If the thread was interrupted while waiting
+         */
+        public void await() throws ExecutionException, InterruptedException {
+            done.await();
+
+            if (failure.get() != null)
+                throw new ExecutionException(failure.get());
+            if (cancelled)
+                throw new CancellationException();
+        }
+
+        /**
+         * Returns true if the pipeline has finished, failed, or been cancelled and all of its threads have stopped
+         */
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Stops the pipeline as soon as possible. Elements that are already on their way through may be lost.
+         */
+        public void cancel() {
+            cancelled = true;
+
+            for (Thread worker : workers)
+                worker.interrupt();
+        }
+
+        private void fail(Throwable t) {
+            if (failure.compareAndSet(null, t))
+                cancel();
+        }
+
+        private void addStage(Stage stage, int index, ConcurrentStream<Object> in, Output out) {
+            Operator operator = stage.operator.get();
+            AtomicInteger running = new AtomicInteger(stage.parallelism);
+            Reorder reorder = isSequenced(stage) ? new Reorder(out) : null;
+
+            // the last thread of the stage to stop flushes whatever the stage held on to, then passes on the end of the stream
+            Runnable finish = () -> {
+                if (running.decrementAndGet() == 0) {
+                    try {
+                        if (!cancelled)
+                            operator.flush(out);
+                    } finally {
+                        out.stream.finish();
+                    }
+                }
+            };
+
+            for (int i=0; i < stage.parallelism; i++) {
+                workers.add(thread(() -> {
+                    List<Object> results = reorder == null ? null : new ArrayList<>();
+
+                    try {
+                        while (true) {
+                            Object el = in.read();
+
+                            if (reorder == null) {
+                                operator.accept(el, out);
+                            } else {
+                                Sequenced seq = (Sequenced)el;
+
+                                results.clear();
+                                operator.accept(seq.value, results::add);
+                                reorder.complete(seq.index, results);
+                            }
+                        }
+                    } catch (ConcurrentStream.StreamClosedException e) {}
+                }, finish, "stage " + index + " worker " + i));
+            }
+        }
+
+        private Thread thread(Task task, Runnable finish, String name) {
+            Thread thread = pipeline.threads.newThread(() -> {
+                try {
+                    task.run();
+                } catch (Cancelled | InterruptedException e) {
+                    // the pipeline was cancelled, which has already been recorded
+                } catch (RuntimeException | Error e) {
+                    fail(e);
+                } finally {
+                    try {
+                        finish.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+
+            thread.setName("Pipeline " + name);
+            return thread;
+        }
+
+        private Output output(List<ConcurrentStream<Object>> streams, int index) {
+            // elements going into a stage that may reorder them are numbered so that they can be put back in order
+            boolean sequenced = index < pipeline.stages.size() && isSequenced(pipeline.stages.get(index));
+            return new Output(streams.get(index), sequenced);
+        }
+
+        private boolean isSequenced(Stage stage) {
+            return pipeline.ordered && stage.parallelism > 1;
+        }
+
+        /**
+         * Puts the results of a stage back in the order its input arrived in
+         */
+        private final class Reorder {
+            private final Output out;
+            private final Map<Long, List<Object>> pending = new HashMap<>();
+            private final ReentrantLock lock = new ReentrantLock();
+            private final Condition advanced = lock.newCondition();
+            private long next = 0;
+
+            Reorder(Output out) {
+                this.out = out;
+            }
+
+            void complete(long index, List<Object> results) throws InterruptedException {
+                lock.lock();
+
+                try {
+                    // don't let results pile up indefinitely behind a slow element
+                    while (index - next >= pipeline.capacity)
+                        advanced.await();
+
+                    if (index != next) {
+                        pending.put(index, new ArrayList<>(results));
+                        return;
+                    }
+
+                    results.forEach(out);
+
+                    List<Object> more;
+                    while ((more = pending.remove(++next)) != null)
+                        more.forEach(out);
+
+                    advanced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a stage's results to the next stream, numbering them if the next stage needs to keep them in order.
+     * Numbering only happens in ordered pipelines, where a stage's results are always written by one thread at a time.
+     */
+    private static final class Output implements Consumer<Object> {
+        private final ConcurrentStream<Object> stream;
+        private final boolean sequenced;
+        private long next = 0;
+
+        Output(ConcurrentStream<Object> stream, boolean sequenced) {
+            this.stream = stream;
+            this.sequenced = sequenced;
+        }
+
+        public void accept(Object el) {
+            if (!stream.write(sequenced ? new Sequenced(next++, el) : el))
+                throw new Cancelled();
+        }
+    }
+
+    private static final class Sequenced {
+        private final long index;
+        private final Object value;
+
+        Sequenced(long index, Object value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private static final class Stage {
+        private final Supplier<Operator> operator;
+        private final int parallelism;
+
+        Stage(Supplier<Operator> operator, int parallelism) {
+            this.operator = operator;
+            this.parallelism = parallelism;
+        }
+    }
+
+    /**
+     * The work done by a stage for each element
+     */
+    @FunctionalInterface
+    private interface Operator {
+        void accept(Object in, Consumer<Object> out);
+
+        /**
+         * Sends on anything held back, once there are no more elements
+         */
+        default void flush(Consumer<Object> out) {}
+    }
+
+    @FunctionalInterface
+    private interface Source {
+        void run(Consumer<Object> out) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface Sink {
+        void run(ConcurrentStream<Object> in) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * Thrown internally when a thread notices that the pipeline has been cancelled
+     */
+    private static final class Cancelled extends RuntimeException {
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package me.kyle1320.parallel;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free buffer for any number of writers and readers, backed by a preallocated array.
+ * Each slot has a sequence number that says whether it is ready to be written or read on the current
+ * lap around the ring, so adding and removing elements never allocates. For the element at position p,
+ * its slot's sequence is 2p while the slot is free to be written and 2p + 1 once the element can be read.
+ *
+ * @author Kyle Cutler
+ */
+final class RingBuffer<T> implements Buffer<T> {
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+
+    // the total number of elements ever read and written
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    // the positions behind the head of elements that drainTo claimed but its collection didn't take.
+    // they stay in their slots, which can't be written until they are read, and are read before anything at the head
+    private final ConcurrentSkipListSet<Long> returned = new ConcurrentSkipListSet<>();
+
+    /**
+     * Creates an empty buffer
+     *
+     * @param   capacity    The maximum number of elements the buffer can hold
+     */
+    RingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        this.capacity = capacity;
+        this.items = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+
+        // slot i is first written when the tail is at i
+        for (int i=0; i < capacity; i++)
+            sequences.set(i, 2L * i);
+    }
+
+    public boolean offer(T el) {
+        long pos = tail.get();
+
+        while (true) {
+            int index = (int)(pos % capacity);
+            long diff = sequences.get(index) - 2 * pos;
+
+            if (diff == 0) {
+                // the slot is free on this lap, try to claim it
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[index] = el;
+                    sequences.set(index, 2 * pos + 1);
+                    return true;
+                }
+
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the slot still holds an element from the last lap
+                return false;
+            } else {
+                // another writer claimed the slot first
+                pos = tail.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        if (!returned.isEmpty()) {
+            Long returnedPos = returned.pollFirst();
+
+            if (returnedPos != null)
+                return take(returnedPos);
+        }
+
+        long pos = head.get();
+
+        while (true) {
+            int index = (int)(pos % capacity);
+            long diff = sequences.get(index) - (2 * pos + 1);
+
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T el = (T)items[index];
+                    items[index] = null;
+
+                    // free the slot for the next lap
+                    sequences.set(index, 2 * (pos + capacity));
+                    return el;
+                }
+
+                pos = head.get();
+            } else if (diff < 0) {
+                // nothing has been written to the slot yet
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public int offerAll(T[] els, int from, int to) {
+        if (from >= to)
+            return 0;
+
+        while (true) {
+            long pos = tail.get();
+            int count = 0;
+
+            // count how many slots in a row are free on this lap. Only the writer that moves the tail past
+            // a free slot can fill it, so they stay free as long as the tail doesn't move.
+            while (count < to - from && count < capacity
+                    && sequences.get((int)((pos + count) % capacity)) == 2 * (pos + count))
+                count++;
+
+            if (count == 0) {
+                if (sequences.get((int)(pos % capacity)) < 2 * pos)
+                    return 0;
+
+                // another writer claimed the slot first
+                continue;
+            }
+
+            // claim all of the slots at once
+            if (tail.compareAndSet(pos, pos + count)) {
+                for (int i=0; i < count; i++) {
+                    int index = (int)((pos + i) % capacity);
+                    items[index] = els[from + i];
+                    sequences.set(index, 2 * (pos + i) + 1);
+                }
+
+                return count;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super T> out, int max) {
+        if (max <= 0)
+            return 0;
+
+        // the elements given back by earlier failures are older than anything at the head
+        int taken = 0;
+        Long returnedPos;
+
+        while (taken < max && !returned.isEmpty() && (returnedPos = returned.pollFirst()) != null) {
+            int index = (int)(returnedPos % capacity);
+
+            try {
+                out.add((T)items[index]);
+            } catch (RuntimeException | Error e) {
+                returned.add(returnedPos);
+                throw e;
+            }
+
+            take(returnedPos);
+            taken++;
+        }
+
+        if (taken > 0)
+            return taken;
+
+        while (true) {
+            long pos = head.get();
+            int count = 0;
+
+            // count how many slots in a row hold elements written on this lap
+            while (count < max && count < capacity
+                    && sequences.get((int)((pos + count) % capacity)) == 2 * (pos + count) + 1)
+                count++;
+
+            if (count == 0) {
+                if (sequences.get((int)(pos % capacity)) < 2 * pos + 1)
+                    return 0;
+
+                // another reader claimed the slot first
+                continue;
+            }
+
+            if (head.compareAndSet(pos, pos + count)) {
+                int i = 0;
+
+                try {
+                    for (; i < count; i++) {
+                        int index = (int)((pos + i) % capacity);
+                        out.add((T)items[index]);
+
+                        // only free the slot once the collection has taken its element
+                        items[index] = null;
+                        sequences.set(index, 2 * (pos + i + capacity));
+                    }
+                } finally {
+                    if (i < count)
+                        putBack(pos + i, pos + count);
+                }
+
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Gives back elements that drainTo claimed but the collection didn't take, so that none are lost
+     *
+     * @param   from    The position of the first element to give back
+     * @param   to      The position after the last one, which the head was moved to when they were claimed
+     */
+    private void putBack(long from, long to) {
+        // the elements are still in their slots, so if no other reader has claimed anything since,
+        // moving the head back returns them in order
+        if (head.compareAndSet(to, from))
+            return;
+
+        // otherwise another reader is already past them, so they are left where they are for the next read to pick up first
+        for (long p=from; p < to; p++)
+            returned.add(p);
+    }
+
+    /**
+     * Removes the element at the given position, which the caller has claimed, and frees its slot for the next lap
+     */
+    @SuppressWarnings("unchecked")
+    private T take(long pos) {
+        int index = (int)(pos % capacity);
+        T el = (T)items[index];
+        items[index] = null;
+        sequences.set(index, 2 * (pos + capacity));
+
+        return el;
+    }
+
+    public long size() {
+        // read the head first, so that a reader moving it in between can't make the size negative
+        long first = head.get();
+        long size = Math.max(0, tail.get() - first);
+
+        if (!returned.isEmpty())
+            size += returned.size();
+
+        return Math.min(capacity, size);
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get() && returned.isEmpty();
+    }
+
+    public boolean isFull() {
+        long first = head.get();
+        long size = tail.get() - first;
+
+        if (!returned.isEmpty())
+            size += returned.size();
+
+        return size >= capacity;
+    }
+}
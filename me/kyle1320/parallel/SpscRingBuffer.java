@@ -0,0 +1,134 @@
+package me.kyle1320.parallel;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded buffer for exactly one writer and one reader at a time, backed by a preallocated array.
+ * Neither side ever needs a CAS: the writer is the only one to move the tail and the reader is the only one to move the head,
+ * so each just publishes its new position with an ordered store once it is done with a slot.
+ *
+ * @author Kyle Cutler
+ */
+final class SpscRingBuffer<T> implements Buffer<T> {
+    // the head and tail are kept far apart so that the reader and writer don't keep stealing the same cache line from
+    // each other. Next to each is the other side's position as last seen, which only the owner of that position uses.
+    private static final int HEAD = 15, TAIL_SEEN = 16, TAIL = 31, HEAD_SEEN = 32, POSITIONS = 48;
+
+    private final Object[] items;
+    private final int capacity, mask;
+
+    // the total number of elements ever read and written
+    private final AtomicLongArray positions = new AtomicLongArray(POSITIONS);
+
+    /**
+     * Creates an empty buffer
+     *
+     * @param   capacity    The maximum number of elements the buffer can hold
+     */
+    SpscRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity is too large");
+
+        // use a power of two slots so that positions can be turned into indices with a mask
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity)
+            slots <<= 1;
+
+        this.capacity = capacity;
+        this.mask = slots - 1;
+        this.items = new Object[slots];
+    }
+
+    public boolean offer(T el) {
+        long tail = positions.getPlain(TAIL);
+
+        if (tail - positions.getPlain(HEAD_SEEN) >= capacity) {
+            // the buffer looked full last time, so see how far the reader has got since
+            positions.setPlain(HEAD_SEEN, positions.get(HEAD));
+
+            if (tail - positions.getPlain(HEAD_SEEN) >= capacity)
+                return false;
+        }
+
+        items[(int)tail & mask] = el;
+        positions.lazySet(TAIL, tail + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long head = positions.getPlain(HEAD);
+
+        if (head >= positions.getPlain(TAIL_SEEN)) {
+            // the buffer looked empty last time, so see how far the writer has got since
+            positions.setPlain(TAIL_SEEN, positions.get(TAIL));
+
+            if (head >= positions.getPlain(TAIL_SEEN))
+                return null;
+        }
+
+        int index = (int)head & mask;
+        T el = (T)items[index];
+        items[index] = null;
+        positions.lazySet(HEAD, head + 1);
+        return el;
+    }
+
+    public int offerAll(T[] els, int from, int to) {
+        long tail = positions.getPlain(TAIL);
+        long head = positions.get(HEAD);
+        positions.setPlain(HEAD_SEEN, head);
+
+        int count = (int)Math.min(to - from, capacity - (tail - head));
+
+        for (int i=0; i < count; i++)
+            items[(int)(tail + i) & mask] = els[from + i];
+
+        // publish the whole batch at once
+        if (count > 0)
+            positions.lazySet(TAIL, tail + count);
+
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super T> out, int max) {
+        long head = positions.getPlain(HEAD);
+        long tail = positions.get(TAIL);
+        positions.setPlain(TAIL_SEEN, tail);
+
+        int count = (int)Math.max(0, Math.min(max, tail - head));
+
+        int i = 0;
+
+        try {
+            for (; i < count; i++) {
+                int index = (int)(head + i) & mask;
+                out.add((T)items[index]);
+                items[index] = null;
+            }
+        } finally {
+            // if the collection refused an element, it and the ones after it stay in the buffer
+            if (i > 0)
+                positions.lazySet(HEAD, head + i);
+        }
+
+        return count;
+    }
+
+    public long size() {
+        long head = positions.get(HEAD);
+        return Math.min(capacity, Math.max(0, positions.get(TAIL) - head));
+    }
+
+    public boolean isEmpty() {
+        return positions.get(HEAD) >= positions.get(TAIL);
+    }
+
+    public boolean isFull() {
+        return positions.get(TAIL) - positions.get(HEAD) >= capacity;
+    }
+}
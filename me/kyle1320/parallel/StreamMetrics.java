@@ -0,0 +1,167 @@
+package me.kyle1320.parallel;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what goes through a stream and how long its readers and writers spend waiting.
+ * The counters are striped, so threads updating them at the same time don't contend with each other.
+ *
+ * @author Kyle Cutler
+ */
+public final class StreamMetrics implements StreamMetricsMBean {
+    // counting an unbounded stream means summing every cell of both counters,
+    // so its depth is only checked on about one write in this many
+    private static final int SAMPLE = 64;
+
+    private final LongAdder writes = new LongAdder(), reads = new LongAdder();
+    private final LongAdder readerWait = new LongAdder(), writerBlocked = new LongAdder();
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    // the number of elements in the stream's buffer, or -1 if it can't be counted cheaply
+    private final LongSupplier size;
+
+    private ObjectName registered;
+
+    StreamMetrics(LongSupplier size) {
+        this.size = size;
+    }
+
+    void wrote(int count) {
+        writes.add(count);
+
+        long depth = size.getAsLong();
+
+        if (depth < 0) {
+            if (ThreadLocalRandom.current().nextInt(SAMPLE) != 0)
+                return;
+
+            depth = writes.sum() - reads.sum();
+        }
+
+        raiseHighWaterMark(depth);
+    }
+
+    void read(int count) {
+        reads.add(count);
+    }
+
+    void readerWaited(long nanos) {
+        readerWait.add(nanos);
+    }
+
+    void writerBlocked(long nanos) {
+        writerBlocked.add(nanos);
+    }
+
+    public long getDepth() {
+        long depth = size.getAsLong();
+
+        // readers and writers may be part way through, so the counters can be briefly out of step
+        return depth >= 0 ? depth : Math.max(0, writes.sum() - reads.sum());
+    }
+
+    /**
+     * Returns the most elements that have been waiting to be read at once.
+     * For an unbounded stream the depth is only sampled, so a short peak between samples may be missed.
+     */
+    public long getHighWaterMark() {
+        // the current depth may not have been sampled yet
+        raiseHighWaterMark(getDepth());
+
+        return highWaterMark.get();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getReaderWaitNanos() {
+        return readerWait.sum();
+    }
+
+    public long getWriterBlockedNanos() {
+        return writerBlocked.sum();
+    }
+
+    private void raiseHighWaterMark(long depth) {
+        long high = highWaterMark.get();
+
+        while (depth > high && !highWaterMark.compareAndSet(high, depth))
+            high = highWaterMark.get();
+    }
+
+    /**
+     * Returns the current values of all of the metrics. The values are read one at a time while the stream is in use,
+     * so they may be slightly out of step with each other.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(getDepth(), getHighWaterMark(), getWrites(), getReads(), getReaderWaitNanos(), getWriterBlockedNanos());
+    }
+
+    /**
+     * Makes these metrics available through JMX, under me.kyle1320.parallel:type=ConcurrentStream,name=[name]
+     *
+     * @param   name    The name to register the metrics under
+     *
+     * @exception   JMException     If the metrics couldn't be registered, for example if the name is already taken
+     */
+    public synchronized void register(String name) throws JMException {
+        if (registered != null)
+            throw new IllegalStateException("already registered as " + registered);
+
+        ObjectName objectName = new ObjectName("me.kyle1320.parallel:type=ConcurrentStream,name=" + ObjectName.quote(name));
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registered = objectName;
+    }
+
+    /**
+     * Removes these metrics from JMX, if they were registered
+     *
+     * @exception   JMException     If the metrics couldn't be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (registered == null)
+            return;
+
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        registered = null;
+    }
+
+    /**
+     * The values of a stream's metrics at one point in time
+     *
+     * @author Kyle Cutler
+     */
+    public static final class Snapshot {
+        public final long depth, highWaterMark;
+        public final long writes, reads;
+        public final long readerWaitNanos, writerBlockedNanos;
+
+        private Snapshot(long depth, long highWaterMark, long writes, long reads, long readerWaitNanos, long writerBlockedNanos) {
+            this.depth = depth;
+            this.highWaterMark = highWaterMark;
+            this.writes = writes;
+            this.reads = reads;
+            this.readerWaitNanos = readerWaitNanos;
+            this.writerBlockedNanos = writerBlockedNanos;
+        }
+
+        public String toString() {
+            return "depth=" + depth + ", highWaterMark=" + highWaterMark + ", writes=" + writes + ", reads=" + reads
+                    + ", readerWait=" + readerWaitNanos / 1000000 + "ms, writerBlocked=" + writerBlockedNanos / 1000000 + "ms";
+        }
+    }
+}
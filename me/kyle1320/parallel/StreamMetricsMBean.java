@@ -0,0 +1,38 @@
+package me.kyle1320.parallel;
+
+/**
+ * The attributes of a stream's metrics that are exposed through JMX
+ *
+ * @author Kyle Cutler
+ */
+public interface StreamMetricsMBean {
+    /**
+     * Returns the number of elements currently waiting to be read
+     */
+    long getDepth();
+
+    /**
+     * Returns the most elements that have ever been waiting to be read at once
+     */
+    long getHighWaterMark();
+
+    /**
+     * Returns the total number of elements written
+     */
+    long getWrites();
+
+    /**
+     * Returns the total number of elements read
+     */
+    long getReads();
+
+    /**
+     * Returns the total time readers have spent waiting for elements, in nanoseconds
+     */
+    long getReaderWaitNanos();
+
+    /**
+     * Returns the total time writers have spent waiting for room, in nanoseconds
+     */
+    long getWriterBlockedNanos();
+}
@@ -0,0 +1,109 @@
+package me.kyle1320.parallel;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A queue of parked threads waiting for some condition, such as a stream having elements.
+ * Threads register themselves before re-checking the condition and parking, so a signal
+ * sent after the condition changes can never be missed. Threads are parked rather than blocked
+ * on a monitor, so virtual threads give up their carrier thread while waiting.
+ *
+ * @author Kyle Cutler
+ */
+final class Waiters {
+    private final ConcurrentLinkedQueue<Node> nodes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Registers the current thread as waiting. The caller should re-check its condition
+     * afterwards, and only park if it still doesn't hold.
+     *
+     * @return  The node to park on and to cancel once done waiting
+     */
+    Node register() {
+        Node node = new Node(Thread.currentThread());
+        nodes.offer(node);
+        return node;
+    }
+
+    /**
+     * Wakes up a single waiting thread, if there are any
+     *
+     * @return  True if a thread was woken up
+     */
+    boolean signal() {
+        Node node;
+
+        while ((node = nodes.poll()) != null) {
+            // skip over threads that already stopped waiting
+            if (node.state.compareAndSet(Node.WAITING, Node.SIGNALLED)) {
+                LockSupport.unpark(node.thread);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Stops waiting. Must be called once the thread is done waiting, whether or not it was signalled.
+     *
+     * @param   node    The node returned by register
+     *
+     * @return          True if the thread was signalled, meaning it took a wakeup that it may need to pass on
+     */
+    boolean cancel(Node node) {
+        if (node.state.compareAndSet(Node.WAITING, Node.CANCELLED)) {
+            // the node has to come out even when it's behind a thread that is still waiting, or timed waits would
+            // pile up cancelled nodes behind it forever. Only waiting threads are left in the queue, so this stays short.
+            nodes.remove(node);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Wakes up every waiting thread
+     */
+    void signalAll() {
+        while (signal());
+    }
+
+    /**
+     * A single waiting thread
+     */
+    static final class Node {
+        private static final int WAITING = 0, SIGNALLED = 1, CANCELLED = 2;
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Node(Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * Parks the current thread until it is signalled, interrupted, or wakes up spuriously
+         *
+         * @param   blocker     The object being waited on, for thread dumps
+         */
+        void park(Object blocker) {
+            if (state.get() == WAITING)
+                LockSupport.park(blocker);
+        }
+
+        /**
+         * Parks the current thread until it is signalled, interrupted, the time runs out, or it wakes up spuriously
+         *
+         * @param   blocker     The object being waited on, for thread dumps
+         * @param   nanos       The maximum time to wait, in nanoseconds
+         */
+        void park(Object blocker, long nanos) {
+            if (state.get() == WAITING)
+                LockSupport.parkNanos(blocker, nanos);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package me.kyle1320;
+
+/**
+ * The checks shared by the tests. Each test is a class with a main method that throws an AssertionError
+ * on the first failure, so that the tests can be run without a test framework.
+ *
+ * @author Kyle Cutler
+ */
+public final class Check {
+	// a check failing on another thread only ends that thread, so the first failure is kept for the test to report
+	private static volatile Throwable failure;
+
+	private Check() {}
+
+	/**
+	 * Fails the test if the given condition doesn't hold
+	 *
+	 * @param 	ok 		The condition to check
+	 * @param 	what 	What the condition means, for the failure message
+	 */
+	public static void check(boolean ok, String what) {
+		if (!ok)
+			throw new AssertionError(what);
+	}
+
+	/**
+	 * Fails the test unless the given action throws an exception of the given type
+	 *
+	 * @param 	type 	The type of exception that should be thrown
+	 * @param 	action 	The action to run
+	 * @param 	what 	What the action does, for the failure message
+	 *
+	 * @return 			The exception that was thrown
+	 */
+	public static <T extends Throwable> T expect(Class<T> type, Action action, String what) {
+		try {
+			action.run();
+		} catch (Throwable e) {
+			if (type.isInstance(e))
+				return type.cast(e);
+
+			throw new AssertionError(what + " threw " + e + " instead of " + type.getSimpleName(), e);
+		}
+
+		throw new AssertionError(what + " didn't throw " + type.getSimpleName());
+	}
+
+	/**
+	 * Keeps the first exception thrown on any other thread, so that passed can report it.
+	 * Every uncaught exception is still printed, including one that ends the test on the main thread.
+	 */
+	public static void catchThreadFailures() {
+		Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+			if (failure == null)
+				failure = e;
+
+			System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+			e.printStackTrace();
+		});
+	}
+
+	/**
+	 * Fails the test if any other thread failed, and otherwise reports that the test passed
+	 *
+	 * @param 	test 	The name of the test
+	 */
+	public static void passed(String test) {
+		if (failure != null)
+			throw new AssertionError("failed on another thread", failure);
+
+		System.out.println(test + " passed");
+	}
+
+	/**
+	 * Something that a test expects to fail
+	 */
+	public interface Action {
+		void run() throws Exception;
+	}
+}
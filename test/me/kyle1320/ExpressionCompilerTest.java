@@ -0,0 +1,480 @@
+package me.kyle1320;
+
+import java.io.File;
+
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import me.kyle1320.ExpressionCompiler.BulkDoubleFunction;
+import me.kyle1320.ExpressionCompiler.DoubleArrayFunction;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for ExpressionCompiler, comparing each compiled expression with the same expression compiled as part of this class.
+ *
+ * @author Kyle Cutler
+ */
+public class ExpressionCompilerTest {
+	public static void main(String[] args) throws Exception {
+		catchThreadFailures();
+
+		inMemory();
+		fastPath();
+		fallback();
+		unboxed();
+		cache();
+		batch();
+		bulk();
+		concurrent();
+		async();
+
+		passed("ExpressionCompilerTest");
+	}
+
+	/**
+	 * Compiles expressions that have to go through javac, and checks that nothing is written to disk along the way
+	 */
+	private static void inMemory() {
+		Set<String> before = classFiles();
+
+		BiFunction<Double, Double, Double> max = ExpressionCompiler.compileDoubleBiFunction("x > y ? x : y");
+		check(max != null && max.apply(2.0, 3.0) == 3.0 && max.apply(-1.0, -4.0) == -1.0, "javac compiles a conditional");
+
+		Describe describe = (Describe)ExpressionCompiler.compileCustomFunction(Describe.class, "\"x is \" + x", "x");
+		check(describe != null && describe.apply(1.5).equals("x is 1.5"), "javac compiles a custom function");
+
+		// the names of the classes have to stay unique
+		for (int i=0; i < 20; i++) {
+			DoubleBinaryOperator op = ExpressionCompiler.compileDoubleBinaryOperator("x > " + i + " ? y : -y");
+			check(op != null && op.applyAsDouble(i + 1, 2) == 2 && op.applyAsDouble(i, 2) == -2, "javac compiles expression " + i);
+		}
+
+		check(ExpressionCompiler.compileDoubleBiFunction("x +") == null, "an expression that doesn't parse isn't compiled");
+		check(ExpressionCompiler.compileDoubleBiFunction("z ? x : y") == null, "an unknown variable isn't compiled");
+		check(ExpressionCompiler.compileDoubleBiFunction("x; } Object f() { return null") == null, "more than one statement isn't compiled");
+		check(ExpressionCompiler.compileDoubleBiFunction("") == null, "an empty expression isn't compiled");
+
+		check(classFiles().equals(before), "nothing is written to disk");
+	}
+
+	/**
+	 * Checks that the expressions the bytecode path handles give exactly what javac gives,
+	 * following the same rules for promotion, overflow, remainders and Math overloads
+	 */
+	private static void fastPath() {
+		Object[][] doubles = {
+			{"x + y * 2", 			(DoubleBinaryOperator)(x, y) -> x + y * 2},
+			{"x % y", 				(DoubleBinaryOperator)(x, y) -> x % y},
+			{"-x - -y / 3", 		(DoubleBinaryOperator)(x, y) -> -x - -y / 3},
+			{"7 / 2 + x", 			(DoubleBinaryOperator)(x, y) -> 7 / 2 + x},
+			{"7 % 3 * y - x", 		(DoubleBinaryOperator)(x, y) -> 7 % 3 * y - x},
+			{"2147483647 + 1 + x", 	(DoubleBinaryOperator)(x, y) -> 2147483647 + 1 + x},
+			{"3000000000L * 2 + y", (DoubleBinaryOperator)(x, y) -> 3000000000L * 2 + y},
+			{"1e3 * x + .5 - 2d", 	(DoubleBinaryOperator)(x, y) -> 1e3 * x + .5 - 2d},
+			{"Math.max(1, 2L) + x", (DoubleBinaryOperator)(x, y) -> Math.max(1, 2L) + x},
+			{"max(x, 3) + abs(-7 / 2)", (DoubleBinaryOperator)(x, y) -> Math.max(x, 3) + Math.abs(-7 / 2)},
+			{"floorMod(7, -3) + round(x) + sqrt(y)", (DoubleBinaryOperator)(x, y) -> Math.floorMod(7, -3) + Math.round(x) + Math.sqrt(y)},
+			{"PI * x + Math.E", 	(DoubleBinaryOperator)(x, y) -> Math.PI * x + Math.E},
+			{"pow(x, 2) + hypot(x, y)", (DoubleBinaryOperator)(x, y) -> Math.pow(x, 2) + Math.hypot(x, y)},
+		};
+
+		double[] values = {-7.5, -1, -0.0, 0, 0.25, 2, 3, 1e300, Double.NaN};
+
+		for (Object[] test : doubles) {
+			String expression = (String)test[0];
+			DoubleBinaryOperator expected = (DoubleBinaryOperator)test[1];
+			DoubleBinaryOperator op = ExpressionCompiler.compileDoubleBinaryOperator(expression);
+
+			check(op != null && op.getClass().isHidden(), expression + " is compiled without javac");
+
+			for (double x : values)
+				for (double y : values)
+					check(Double.doubleToLongBits(op.applyAsDouble(x, y)) == Double.doubleToLongBits(expected.applyAsDouble(x, y)),
+							expression + " gives the same as javac for " + x + ", " + y);
+		}
+
+		Object[][] ints = {
+			{"x / y + x % y", 	(IntOp)(x, y) -> x / y + x % y},
+			{"x * y", 			(IntOp)(x, y) -> x * y},
+			{"-x / 2 - y", 		(IntOp)(x, y) -> -x / 2 - y},
+			{"abs(x) - max(x, y)", (IntOp)(x, y) -> Math.abs(x) - Math.max(x, y)},
+		};
+
+		int[] intValues = {Integer.MIN_VALUE, -7, -1, 1, 3, 65536, Integer.MAX_VALUE};
+
+		for (Object[] test : ints) {
+			String expression = (String)test[0];
+			IntOp expected = (IntOp)test[1];
+			IntOp op = (IntOp)ExpressionCompiler.compileCustomFunction(IntOp.class, expression, "x", "y");
+
+			check(op != null && op.getClass().isHidden(), expression + " is compiled without javac");
+
+			for (int x : intValues)
+				for (int y : intValues)
+					check(op.apply(x, y) == expected.apply(x, y), expression + " gives the same as javac for " + x + ", " + y);
+		}
+
+		Object[][] longs = {
+			{"x / y", 				(LongOp)(x, y) -> x / y},
+			{"y * 2147483647", 		(LongOp)(x, y) -> y * 2147483647},
+			{"x * 2147483647 + y", 	(LongOp)(x, y) -> x * 2147483647 + y},
+			{"max(x, y) % 1000", 	(LongOp)(x, y) -> Math.max(x, y) % 1000},
+		};
+
+		for (Object[] test : longs) {
+			String expression = (String)test[0];
+			LongOp expected = (LongOp)test[1];
+			LongOp op = (LongOp)ExpressionCompiler.compileCustomFunction(LongOp.class, expression, "x", "y");
+
+			check(op != null && op.getClass().isHidden(), expression + " is compiled without javac");
+
+			for (int x : intValues)
+				for (int y : intValues)
+					check(op.apply(x * 3L, y) == expected.apply(x * 3L, y), expression + " gives the same as javac for " + x * 3L + ", " + y);
+		}
+
+		BiFunction<Double, Double, Double> boxed = ExpressionCompiler.compileDoubleBiFunction("x * 2 - y");
+		check(boxed != null && boxed.getClass().isHidden() && boxed.apply(1.5, 4.0) == -1.0, "boxed parameters are compiled without javac");
+	}
+
+	/**
+	 * Checks that what the bytecode path doesn't handle is left to javac, which compiles it or rejects it as usual
+	 */
+	private static void fallback() {
+		Object[][] javac = {
+			{"x + 1.5f", 		(DoubleBinaryOperator)(x, y) -> x + 1.5f},
+			{"x + 0x10", 		(DoubleBinaryOperator)(x, y) -> x + 0x10},
+			{"x++ + y", 		(DoubleBinaryOperator)(x, y) -> x++ + y},
+			{"y + 1_000", 		(DoubleBinaryOperator)(x, y) -> y + 1_000},
+			{"(int)x + y", 		(DoubleBinaryOperator)(x, y) -> (int)x + y},
+			{"abs(-1.5f) * x", 	(DoubleBinaryOperator)(x, y) -> Math.abs(-1.5f) * x},
+			// 2147483648 is only an int when it is negated, which the parser doesn't look out for
+			{"abs(-2147483648) + x", (DoubleBinaryOperator)(x, y) -> Math.abs(-2147483648) + x},
+		};
+
+		for (Object[] test : javac) {
+			String expression = (String)test[0];
+			DoubleBinaryOperator expected = (DoubleBinaryOperator)test[1];
+			DoubleBinaryOperator op = ExpressionCompiler.compileDoubleBinaryOperator(expression);
+
+			check(op != null && !op.getClass().isHidden(), expression + " is left to javac");
+			check(op.applyAsDouble(2.5, -3) == expected.applyAsDouble(2.5, -3), expression + " gives the same as javac");
+		}
+
+		for (String expression : new String[] {"Math.x", "Math.x + 1", "hypot(x)", "x +* y"})
+			check(ExpressionCompiler.compileDoubleBinaryOperator(expression) == null, expression + " isn't compiled by either");
+
+		// neither narrows the result or boxes it into a different type
+		check(ExpressionCompiler.compileCustomFunction(IntOp.class, "x * 1.5", "x", "y") == null, "a double isn't returned as an int");
+		check(ExpressionCompiler.compileDoubleBiFunction("1 + 2") == null, "an int isn't boxed into a Double");
+	}
+
+	/**
+	 * Checks the unboxed functions, both when they are built as bytecode and when javac is needed
+	 */
+	private static void unboxed() {
+		DoubleUnaryOperator square = ExpressionCompiler.compileDoubleUnaryOperator("x * x - 1");
+		check(square != null && square.getClass().isHidden() && square.applyAsDouble(3) == 8, "a unary operator");
+
+		DoubleUnaryOperator sign = ExpressionCompiler.compileDoubleUnaryOperator("x < 0 ? -1 : 1");
+		check(sign != null && sign.applyAsDouble(-3) == -1 && sign.applyAsDouble(0) == 1, "a unary operator through javac");
+
+		DoubleArrayFunction sum = ExpressionCompiler.compileDoubleArrayFunction("a + b * c", "a", "b", "c");
+		check(sum != null && sum.getClass().isHidden() && sum.apply(new double[] {1, 2, 3}) == 7, "an array function");
+
+		DoubleArrayFunction pick = ExpressionCompiler.compileDoubleArrayFunction("a > b ? c : -c", "a", "b", "c");
+		check(pick != null && pick.apply(new double[] {2, 1, 5}) == 5 && pick.apply(new double[] {1, 2, 5}) == -5,
+				"an array function through javac");
+
+		DoubleArrayFunction none = ExpressionCompiler.compileDoubleArrayFunction("PI * 2");
+		check(none != null && none.apply(new double[0]) == Math.PI * 2, "an array function of nothing");
+
+		check(ExpressionCompiler.compileDoubleArrayFunction("a + a", "a", "a") == null, "parameters can't share a name");
+		check(ExpressionCompiler.compileDoubleArrayFunction("a + d", "a", "b") == null, "only the named parameters can be used");
+	}
+
+	/**
+	 * Checks that the cache shares compiled expressions that only differ by whitespace, and nothing else
+	 */
+	private static void cache() {
+		ExpressionCompiler.clearCache();
+		check(ExpressionCompiler.getCacheSize() == 0, "clearCache empties the cache");
+
+		long hits = ExpressionCompiler.getCacheHits();
+
+		DoubleBinaryOperator sum = ExpressionCompiler.compileDoubleBinaryOperator("x+y");
+		check(sum == ExpressionCompiler.compileDoubleBinaryOperator("x + y"), "x+y and x + y share an entry");
+		check(sum == ExpressionCompiler.compileDoubleBinaryOperator(" x  +\ty "), "extra whitespace is ignored");
+		check(ExpressionCompiler.getCacheHits() == hits + 2, "both were cache hits");
+
+		DoubleBinaryOperator max = ExpressionCompiler.compileDoubleBinaryOperator("x > y ? x : y");
+		check(max == ExpressionCompiler.compileDoubleBinaryOperator("x>y?x:y"), "expressions through javac are cached too");
+
+		// whitespace that changes the meaning is kept
+		DoubleBinaryOperator minus = ExpressionCompiler.compileDoubleBinaryOperator("x - -y");
+		check(minus != ExpressionCompiler.compileDoubleBinaryOperator("x--y"), "x - -y isn't x--y");
+		check(minus.applyAsDouble(1, 2) == 3, "x - -y is still a subtraction");
+
+		Object quoted = ExpressionCompiler.compileCustomFunction(Describe.class, "\"a  b\" + x", "x");
+		check(quoted != ExpressionCompiler.compileCustomFunction(Describe.class, "\"a b\" + x", "x"), "whitespace in strings is kept");
+
+		// the same expression for a different interface is a different class
+		check(ExpressionCompiler.compileDoubleUnaryOperator("x+y") == null, "y isn't a parameter of a unary operator");
+		check((Object)ExpressionCompiler.compileCustomFunction(IntOp.class, "x+y", "x", "y") != sum, "a different interface isn't shared");
+		check((Object)ExpressionCompiler.compileCustomFunction(IntOp.class, "y+x", "y", "x") != ExpressionCompiler.compileCustomFunction(IntOp.class, "y+x", "x", "y"),
+				"different parameter names aren't shared");
+
+		try {
+			long evictions = ExpressionCompiler.getCacheEvictions();
+			ExpressionCompiler.setCacheCapacity(3);
+			check(ExpressionCompiler.getCacheSize() == 3, "shrinking the cache evicts expressions");
+
+			for (int i=0; i < 5; i++)
+				ExpressionCompiler.compileDoubleUnaryOperator("x * " + i);
+
+			check(ExpressionCompiler.getCacheSize() == 3, "the cache stays within its capacity");
+			check(ExpressionCompiler.getCacheEvictions() >= evictions + 5, "evictions are counted");
+			check(ExpressionCompiler.compileDoubleUnaryOperator("x * 4") == ExpressionCompiler.compileDoubleUnaryOperator("x * 4"),
+					"the most recent expressions are kept");
+
+			ExpressionCompiler.setCacheCapacity(0);
+			check(ExpressionCompiler.getCacheSize() == 0, "a capacity of 0 empties the cache");
+			check(ExpressionCompiler.compileDoubleUnaryOperator("x * 4") != ExpressionCompiler.compileDoubleUnaryOperator("x * 4"),
+					"a capacity of 0 turns the cache off");
+		} finally {
+			ExpressionCompiler.setCacheCapacity(256);
+		}
+	}
+
+	/**
+	 * Compiles a batch where some of the expressions are broken, and checks that the rest still compile
+	 * and that each broken one is reported
+	 */
+	private static void batch() throws ReflectiveOperationException {
+		Map<String, String> expressions = new LinkedHashMap<>();
+		expressions.put("sum", "x + y + 0.5");
+		expressions.put("max", "x > y ? x : y + 0.5");
+		expressions.put("min", "x < y ? x : y + 0.5");
+		expressions.put("syntax", "x + ");
+		expressions.put("unknown", "z * 2 > 0 ? x : y");
+		expressions.put("type", "\"x\"");
+		expressions.put("empty", "");
+		expressions.put("statements", "x; } Object f() { return null");
+
+		Map<String, String> errors = new HashMap<>();
+		Map<String, BiFunction<Double, Double, Double>> functions = ExpressionCompiler.compileAll(expressions, errors);
+
+		check(functions.keySet().equals(new HashSet<>(Arrays.asList("sum", "max", "min"))), "the good expressions compile: " + functions.keySet());
+		check(functions.get("sum").apply(1.0, 2.0) == 3.5, "sum");
+		check(functions.get("max").apply(1.0, 2.0) == 2.5, "max");
+		check(functions.get("min").apply(1.0, 2.0) == 1.0, "min");
+
+		check(errors.keySet().equals(new HashSet<>(Arrays.asList("syntax", "unknown", "type", "empty", "statements"))),
+				"each broken expression is reported: " + errors.keySet());
+		check(errors.get("unknown").contains("cannot find symbol") && errors.get("type").contains("incompatible types"),
+				"the errors come from javac: " + errors);
+
+		// each class is loaded on its own, so that it can be unloaded while the others are still in use
+		ClassLoader loader = functions.get("max").getClass().getClassLoader();
+		Field classes = loader.getClass().getDeclaredField("classes");
+		classes.setAccessible(true);
+		check(((Map<?, ?>)classes.get(loader)).size() == 1, "a loader only holds its own class");
+		check(loader != functions.get("min").getClass().getClassLoader(), "each expression has a loader of its own");
+
+		check(ExpressionCompiler.compileAll(expressions).size() == 3, "the errors don't have to be collected");
+
+		errors.clear();
+		check(ExpressionCompiler.compileAllCustom(String.class, expressions, errors, "x").isEmpty() &&
+				errors.keySet().equals(expressions.keySet()), "every expression fails if the interface can't be implemented");
+	}
+
+	/**
+	 * Checks bulk evaluation over ranges and whole arrays, sequentially and split between threads
+	 * on either side of the size where splitting starts
+	 */
+	private static void bulk() {
+		DoubleBinaryOperator scalar = (x, y) -> x * y + Math.sin(x) - y / 3;
+
+		BulkDoubleFunction fast = ExpressionCompiler.compileBulkDoubleFunction("x * y + sin(x) - y / 3");
+		BulkDoubleFunction javac = ExpressionCompiler.compileBulkDoubleFunction("x > y ? x * y + sin(x) - y / 3 : x * y + sin(x) - y / 3");
+
+		check(fast != null && fast.getClass().isHidden(), "a bulk function is compiled without javac");
+		check(javac != null && !javac.getClass().isHidden(), "a bulk function through javac");
+
+		int threshold = BulkDoubleFunction.PARALLEL_THRESHOLD;
+		ForkJoinPool pool = new ForkJoinPool(3);
+
+		try {
+			for (int length : new int[] {0, 1, 100, threshold - 1, threshold, threshold + 1, threshold * 3 + 7}) {
+				double[] xs = new double[length], ys = new double[length];
+				Random random = new Random(length);
+
+				for (int i=0; i < length; i++) {
+					xs[i] = random.nextDouble() * 100 - 50;
+					ys[i] = random.nextDouble() * 100 - 50;
+				}
+
+				for (BulkDoubleFunction function : new BulkDoubleFunction[] {fast, javac}) {
+					double[] all = new double[length], parallel = new double[length], pooled = new double[length];
+					double[] range = new double[length];
+
+					function.evaluate(xs, ys, all);
+					function.evaluateParallel(xs, ys, parallel);
+					function.evaluateParallel(xs, ys, pooled, pool);
+					function.evaluate(xs, ys, range, length / 3, length / 2);
+
+					for (int i=0; i < length; i++) {
+						double expected = scalar.applyAsDouble(xs[i], ys[i]);
+
+						check(all[i] == expected && parallel[i] == expected && pooled[i] == expected,
+								"every element of " + length + " is evaluated, at " + i);
+						check(range[i] == (i >= length / 3 && i < length / 2 ? expected : 0), "only the range is evaluated, at " + i);
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compiles from many threads at once, both the same expression and different ones,
+	 * and checks that each thread gets a working function and that they all share one for the same expression
+	 */
+	private static void concurrent() throws InterruptedException {
+		int threads = 8;
+		CountDownLatch start = new CountDownLatch(1);
+		DoubleBinaryOperator[] shared = new DoubleBinaryOperator[threads];
+		List<Thread> workers = new ArrayList<>();
+
+		for (int t=0; t < threads; t++) {
+			int index = t;
+
+			workers.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+
+				// everyone compiles this one at the same time
+				shared[index] = ExpressionCompiler.compileDoubleBinaryOperator("x > y ? x - y : y - x");
+
+				// and each of these is only compiled by one thread, through javac
+				for (int i=0; i < 10; i++) {
+					int n = index * 10 + i;
+					DoubleUnaryOperator op = ExpressionCompiler.compileDoubleUnaryOperator("x > 0 ? x + " + n + " : x");
+					check(op != null && op.applyAsDouble(1) == n + 1, "thread " + index + " compiles expression " + n);
+				}
+			}));
+		}
+
+		for (Thread worker : workers)
+			worker.start();
+
+		start.countDown();
+
+		for (Thread worker : workers)
+			worker.join();
+
+		for (DoubleBinaryOperator op : shared)
+			check(op != null && op == shared[0] && op.applyAsDouble(1, 4) == 3, "every thread gets the same compiled expression");
+	}
+
+	/**
+	 * Checks that the asynchronous methods run on the executor they are given and report errors the same way
+	 */
+	private static void async() throws Exception {
+		AtomicInteger tasks = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		expect(NullPointerException.class, () -> ExpressionCompiler.setExecutor(null), "a null executor");
+
+		try {
+			ExpressionCompiler.setExecutor((task) -> {
+				tasks.incrementAndGet();
+				executor.execute(task);
+			});
+
+			BiFunction<Double, Double, Double> f = ExpressionCompiler.compileDoubleBiFunctionAsync("x / y - 0.25").get();
+			check(f != null && f.apply(1.0, 2.0) == 0.25, "an expression compiled in the background");
+
+			Object op = ExpressionCompiler.compileCustomFunctionAsync(IntOp.class, "x == y ? 1 : 0", "x", "y").get();
+			check(op instanceof IntOp && ((IntOp)op).apply(3, 3) == 1, "a custom function compiled in the background");
+
+			check(ExpressionCompiler.compileDoubleBiFunctionAsync("x +").get() == null, "a broken expression completes with null");
+
+			Map<String, String> expressions = new LinkedHashMap<>(), errors = new ConcurrentHashMap<>();
+			expressions.put("good", "x * y - 0.25");
+			expressions.put("bad", "x * ");
+
+			Map<String, BiFunction<Double, Double, Double>> all = ExpressionCompiler.compileAllAsync(expressions, errors).get();
+			check(all.keySet().equals(Collections.singleton("good")) && all.get("good").apply(2.0, 3.0) == 5.75, "a batch compiled in the background");
+			check(errors.keySet().equals(Collections.singleton("bad")), "the errors of a batch compiled in the background");
+
+			check(tasks.get() == 4, "every compile ran on the executor");
+		} finally {
+			ExpressionCompiler.setExecutor(ForkJoinPool.commonPool());
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the names of the files that javac would have written, in the temp and working directories
+	 */
+	private static Set<String> classFiles() {
+		Set<String> files = new HashSet<>();
+
+		for (String dir : new String[] {System.getProperty("java.io.tmpdir"), "."}) {
+			String[] names = new File(dir).list();
+
+			if (names != null)
+				for (String name : names)
+					if (name.startsWith("MyExpression"))
+						files.add(dir + File.separator + name);
+		}
+
+		return files;
+	}
+
+	/**
+	 * A function of two ints
+	 */
+	public interface IntOp {
+		int apply(int x, int y);
+	}
+
+	/**
+	 * A function of a long and an int
+	 */
+	public interface LongOp {
+		long apply(long x, int y);
+	}
+
+	/**
+	 * A function that javac has to be used for, since the bytecode path only handles numbers
+	 */
+	public interface Describe {
+		String apply(double x);
+	}
+}
@@ -0,0 +1,170 @@
+package me.kyle1320.grid;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for ChunkedGrid, checking it against a HashMap and running the same game of life as a plain Grid.
+ *
+ * @author Kyle Cutler
+ */
+public class ChunkedGridTest {
+	public static void main(String[] args) {
+		againstMap();
+		life(false);
+		life(true);
+		copies();
+
+		passed("ChunkedGridTest");
+	}
+
+	/**
+	 * Sets and clears cells at random across many chunks, including negative coordinates,
+	 * and checks the grid against a map after each round
+	 */
+	private static void againstMap() {
+		ChunkedGrid<Integer> grid = new ChunkedGrid<>();
+		Map<Long, Integer> expected = new HashMap<>();
+		Random random = new Random(1);
+
+		for (int round=0; round < 20; round++) {
+			for (int i=0; i < 5000; i++) {
+				int x = random.nextInt(2000) - 1000, y = random.nextInt(2000) - 1000;
+				long key = key(x, y);
+
+				// clearing about as often as setting keeps chunks being added and removed
+				if (random.nextBoolean() && !expected.isEmpty()) {
+					grid.set(x, y, null);
+					expected.remove(key);
+				} else {
+					int value = random.nextInt(100);
+					grid.set(x, y, value);
+					expected.put(key, value);
+				}
+			}
+
+			// and empty out some whole areas so that whole chunks go
+			int cx = random.nextInt(20) - 10, cy = random.nextInt(20) - 10;
+			for (int y=cy * 64; y < cy * 64 + 128; y++) {
+				for (int x=cx * 64; x < cx * 64 + 128; x++) {
+					grid.set(x, y, null);
+					expected.remove(key(x, y));
+				}
+			}
+
+			Set<Long> chunks = new HashSet<>();
+
+			for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+				int x = (int)(long)entry.getKey(), y = (int)(entry.getKey() >> 32);
+				check(entry.getValue().equals(grid.get(x, y)), "ChunkedGrid holds " + entry.getValue() + " at " + x + ", " + y);
+				chunks.add(key(x >> 6, y >> 6));
+			}
+
+			check(grid.getChunkCount() == chunks.size(), "only chunks with something in them are kept");
+
+			int[] visited = {0};
+			grid.each((x, y, v) -> {
+				check(v.equals(expected.get(key(x, y))), "each visits " + x + ", " + y + " with the value set there");
+				visited[0]++;
+			});
+			check(visited[0] == expected.size(), "each visits every cell that was set");
+
+			for (int i=0; i < 1000; i++) {
+				int x = random.nextInt(4000) - 2000, y = random.nextInt(4000) - 2000;
+				check((grid.get(x, y) != null) == expected.containsKey(key(x, y)), "ChunkedGrid is empty where nothing was set");
+			}
+		}
+
+		grid.clear();
+		check(grid.getChunkCount() == 0 && grid.get(0, 0) == null, "clear empties the grid");
+	}
+
+	/**
+	 * Runs a game of life around the origin, so that it crosses into negative coordinates and between chunks,
+	 * and checks it against a plain Grid big enough that nothing reaches its edges
+	 *
+	 * @param 	multithread 	Whether or not to transform with multiple threads
+	 */
+	private static void life(boolean multithread) {
+		int size = 400, offset = size / 2;
+		Random random = new Random(5);
+
+		Grid<Boolean> expected = new Grid<>(size, size, false);
+		ChunkedGrid<Boolean> grid = new ChunkedGrid<>(false);
+
+		// a few gliders heading off in each direction, and a patch of noise in the middle
+		int[][] glider = {{1, 0}, {2, 1}, {0, 2}, {1, 2}, {2, 2}};
+		for (int[] direction : new int[][] {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}}) {
+			for (int[] cell : glider) {
+				int x = 20 * direction[0] + cell[0] * direction[0], y = 20 * direction[1] + cell[1] * direction[1];
+				expected.set(x + offset, y + offset, true);
+				grid.set(x, y, true);
+			}
+		}
+
+		for (int y=-8; y < 8; y++) {
+			for (int x=-8; x < 8; x++) {
+				boolean alive = random.nextInt(3) == 0;
+				expected.set(x + offset, y + offset, alive);
+				grid.set(x, y, alive);
+			}
+		}
+
+		for (int step=0; step < 150; step++) {
+			boolean changed = expected.transform((x, y, copy, alive) -> {
+				int n = copy.countNeighbors(x, y, v -> v);
+				return n == 3 || (alive && n == 2);
+			}, multithread);
+
+			boolean chunkedChanged = grid.transform((x, y, copy, alive) -> {
+				int n = copy.countNeighbors(x, y, v -> v);
+				return n == 3 || (alive && n == 2);
+			}, multithread);
+
+			check(changed == chunkedChanged, "both grids agree on whether anything changed");
+		}
+
+		int[] alive = {0};
+		expected.each((x, y, v) -> {
+			check(grid.get(x - offset, y - offset) == v, "the grids match at " + (x - offset) + ", " + (y - offset));
+			if (v)
+				alive[0]++;
+		});
+
+		int[] chunkedAlive = {0};
+		grid.each((x, y, v) -> chunkedAlive[0]++);
+		check(chunkedAlive[0] == alive[0], "nothing lives outside of the plain grid");
+	}
+
+	/**
+	 * Checks that a copy doesn't share chunks with the grid it was copied from, and that plain operations
+	 * leave empty chunks behind
+	 */
+	private static void copies() {
+		ChunkedGrid<Integer> grid = new ChunkedGrid<>(0);
+		check(grid.getDefaultValue() == 0 && grid.get(-5, 7) == 0, "cells start with the default value");
+
+		grid.set(-1, -1, 3);
+		grid.set(100, 100, 4);
+
+		ChunkedGrid<Integer> copy = grid.copy();
+		copy.set(-1, -1, 5);
+
+		check(grid.get(-1, -1) == 3 && copy.get(-1, -1) == 5, "a copy has its own chunks");
+		check(copy.getChunkCount() == 2, "a copy has the same chunks");
+
+		// the operation leaves cells holding the default value alone, as it has to
+		check(grid.transform((x, y, v) -> v == 4 ? 0 : v), "a transform clears a cell");
+		check(grid.getChunkCount() == 1 && grid.get(100, 100) == 0, "a chunk left holding only the default value is removed");
+		check(!grid.transform((x, y, v) -> v, true), "a transform that changes nothing");
+	}
+
+	private static long key(int x, int y) {
+		return ((long)y << 32) | (x & 0xffffffffL);
+	}
+}
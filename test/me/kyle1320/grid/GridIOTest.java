@@ -0,0 +1,126 @@
+package me.kyle1320.grid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Random;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for GridIO: grids load back exactly as they were saved, and files that aren't whole grids are refused.
+ * The files are written to a temporary directory, which is deleted afterwards.
+ *
+ * @author Kyle Cutler
+ */
+public class GridIOTest {
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("grid-io-test");
+
+		try {
+			roundTrip(dir.resolve("a.grid"));
+			badHeaders(dir.resolve("b.grid"));
+		} finally {
+			MappedGridTest.deleteAll(dir);
+		}
+
+		channels();
+
+		passed("GridIOTest");
+	}
+
+	/**
+	 * Saves and loads grids that need each kind of run: empty cells, repeated values,
+	 * lists of different values longer than a single run can hold, and runs crossing the ends of rows
+	 */
+	private static void roundTrip(Path file) throws IOException {
+		Random random = new Random(1);
+
+		for (int width : new int[] {0, 1, 7, 5000}) {
+			int height = width == 0 ? 3 : 9;
+			Grid<Integer> grid = new Grid<>(width, height);
+
+			grid.transform((x, y, v) -> {
+				switch (y % 3) {
+					// a run of different values, longer than a single run can hold on the wide grid
+					case 0: return random.nextInt();
+					// empty cells with the odd value between them
+					case 1: return x % 100 == 50 ? 3 : null;
+					// a value repeated, then changing part way through
+					default: return x < width / 2 ? 7 : -7;
+				}
+			});
+
+			GridIO.save(grid, file, CellCodec.INT);
+			Grid<Integer> loaded = GridIO.load(file, CellCodec.INT);
+
+			check(loaded.getWidth() == width && loaded.getHeight() == height, "a loaded grid is the same size");
+			check(loaded.equals(grid), "a loaded grid holds the same cells, at width " + width);
+		}
+
+		Grid<Boolean> empty = new Grid<>(300, 300);
+		GridIO.save(empty, file, CellCodec.BOOLEAN);
+		check(Files.size(file) < 64, "an empty grid takes up next to nothing, not " + Files.size(file) + " bytes");
+		check(GridIO.load(file, CellCodec.BOOLEAN).equals(empty), "an empty grid loads back empty");
+
+		Grid<Double> filled = new Grid<>(300, 300, 0.5);
+		GridIO.save(filled, file, CellCodec.DOUBLE);
+		check(Files.size(file) < 64, "a grid of one value takes up next to nothing, not " + Files.size(file) + " bytes");
+		check(GridIO.load(file, CellCodec.DOUBLE).equals(filled), "a grid of one value loads back the same");
+
+		// padded rows are saved without their padding
+		Grid<Integer> aligned = Grid.aligned(37, 5, 16);
+		aligned.fill((x, y) -> x * y);
+		GridIO.save(aligned, file, CellCodec.INT);
+		check(GridIO.load(file, CellCodec.INT).equals(aligned), "an aligned grid loads back the same");
+	}
+
+	/**
+	 * Checks that GridIO refuses files that aren't whole grids of the codec's size
+	 */
+	private static void badHeaders(Path file) throws IOException {
+		GridIO.save(new Grid<>(20, 20, (short)4), file, CellCodec.SHORT);
+
+		expect(IOException.class, () -> GridIO.load(file, CellCodec.INT), "loading with a codec of a different size");
+
+		MappedGridTest.putInt(file, 8, -1);
+		expect(IOException.class, () -> GridIO.load(file, CellCodec.SHORT), "loading a grid with a negative height");
+
+		MappedGridTest.putInt(file, 0, 0);
+		expect(IOException.class, () -> GridIO.load(file, CellCodec.SHORT), "loading a file without the magic number");
+
+		GridIO.save(new Grid<>(20, 20, (x, y) -> (short)(x * y)), file, CellCodec.SHORT);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 10);
+		}
+		expect(IOException.class, () -> GridIO.load(file, CellCodec.SHORT), "loading a grid cut off part way through");
+	}
+
+	/**
+	 * Writes a grid to a stream and reads it back, checking that the channel is left open both ways
+	 */
+	private static void channels() throws IOException {
+		Grid<Long> grid = new Grid<>(50, 40, (x, y) -> x == y ? null : (long)x << y);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel out = Channels.newChannel(bytes);
+		GridIO.write(grid, out, CellCodec.LONG);
+		check(out.isOpen(), "writing leaves the channel open");
+
+		ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+		check(GridIO.read(in, CellCodec.LONG).equals(grid), "a grid written to a channel reads back the same");
+		check(in.isOpen(), "reading leaves the channel open");
+
+		ReadableByteChannel cut = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray(), 0, bytes.size() - 1));
+		expect(IOException.class, () -> GridIO.read(cut, CellCodec.LONG), "reading a stream that ends part way through a grid");
+	}
+}
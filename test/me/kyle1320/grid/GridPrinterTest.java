@@ -0,0 +1,110 @@
+package me.kyle1320.grid;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for GridPrinter's conversions between grids and images, checking the bulk raster path against getRGB.
+ *
+ * @author Kyle Cutler
+ */
+public class GridPrinterTest {
+	public static void main(String[] args) throws Exception {
+		roundTrip(1, 1);
+		roundTrip(300, 200);
+
+		for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR}) {
+			fullImage(type);
+			subImage(type);
+		}
+
+		callsBackIntoGrid();
+
+		passed("GridPrinterTest");
+	}
+
+	/**
+	 * Renders a grid to an image with both toImage and toImageRGB, and reads it back with both fromImage and fromImageRGB
+	 */
+	private static void roundTrip(int width, int height) throws Exception {
+		Random random = new Random(width);
+		Grid<Integer> grid = new Grid<>(width, height, (x, y) -> random.nextInt(0x1000000));
+
+		BufferedImage rgb = GridPrinter.toImageRGB(grid, v -> v);
+		BufferedImage argb = GridPrinter.toImage(grid, v -> new Color(v));
+
+		check(rgb.getWidth() == width && rgb.getHeight() == height, "the image is the size of the grid");
+		check(rgb.getType() == BufferedImage.TYPE_INT_RGB, "toImageRGB makes an RGB image");
+
+		grid.each((x, y, v) -> {
+			check(rgb.getRGB(x, y) == (v | 0xff000000), "toImageRGB draws each cell at " + x + ", " + y);
+			check(argb.getRGB(x, y) == (v | 0xff000000), "toImage draws each cell at " + x + ", " + y);
+		});
+
+		check(GridPrinter.fromImageRGB(rgb, v -> v & 0xffffff).equals(grid), "a grid drawn with toImageRGB reads back the same");
+		check(GridPrinter.fromImage(argb, (r, g, b) -> r << 16 | g << 8 | b).equals(grid), "a grid drawn with toImage reads back the same");
+	}
+
+	/**
+	 * Checks that fromImageRGB reads the same pixels as getRGB, including the alpha that getRGB gives images without any
+	 */
+	private static void fullImage(int type) {
+		BufferedImage img = randomImage(64, 48, type);
+		Grid<Integer> grid = GridPrinter.fromImageRGB(img, v -> v);
+
+		grid.each((x, y, v) -> check(v == img.getRGB(x, y), "fromImageRGB reads " + Integer.toHexString(v) + " at " + x + ", " + y
+				+ " of an image of type " + type + " instead of " + Integer.toHexString(img.getRGB(x, y))));
+
+		if (type == BufferedImage.TYPE_INT_RGB)
+			grid.each((x, y, v) -> check(v >>> 24 == 0xff, "pixels of an RGB image are opaque"));
+	}
+
+	/**
+	 * Checks that fromImageRGB reads only the pixels of a sub-image, which shares its pixel array with the larger image
+	 */
+	private static void subImage(int type) {
+		BufferedImage img = randomImage(64, 48, type);
+		BufferedImage sub = img.getSubimage(5, 7, 20, 30);
+
+		Grid<Integer> grid = GridPrinter.fromImageRGB(sub, v -> v);
+		check(grid.getWidth() == 20 && grid.getHeight() == 30, "the grid is the size of the sub-image");
+
+		grid.each((x, y, v) -> check(v == img.getRGB(x + 5, y + 7), "fromImageRGB reads " + x + ", " + y
+				+ " of a sub-image of type " + type + " from where it is in the larger image"));
+
+		// and a sub-image of a sub-image, offset further still
+		BufferedImage inner = sub.getSubimage(3, 2, 4, 4);
+		GridPrinter.fromImageRGB(inner, v -> v).each((x, y, v) -> check(v == img.getRGB(x + 8, y + 9), "fromImageRGB reads a nested sub-image"));
+	}
+
+	/**
+	 * Checks that toImageRGB doesn't hold on to the grid while the colors are worked out on other threads,
+	 * so that the color function can call the grid's synchronized methods
+	 */
+	private static void callsBackIntoGrid() throws Exception {
+		Grid<Boolean> grid = new Grid<>(500, 500, (x, y) -> (x ^ y) % 3 == 0);
+		BufferedImage[] img = new BufferedImage[1];
+
+		Thread render = new Thread(() -> img[0] = GridPrinter.toImageRGB(grid, v -> grid.getNeighbors(0, 0).size() == 3 && v ? 0xffffff : 0));
+		render.setDaemon(true);
+		render.start();
+		render.join(30000);
+
+		check(!render.isAlive(), "a color function that calls back into the grid doesn't deadlock");
+		grid.each((x, y, v) -> check(img[0].getRGB(x, y) == (v ? 0xffffffff : 0xff000000), "the image is drawn from the grid"));
+	}
+
+	private static BufferedImage randomImage(int width, int height, int type) {
+		Random random = new Random(type);
+		BufferedImage img = new BufferedImage(width, height, type);
+
+		for (int y=0; y < height; y++)
+			for (int x=0; x < width; x++)
+				img.setRGB(x, y, random.nextInt());
+
+		return img;
+	}
+}
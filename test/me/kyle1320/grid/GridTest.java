@@ -0,0 +1,378 @@
+package me.kyle1320.grid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for Grid, checking its multithreaded transforms against the same transforms run on one thread.
+ *
+ * @author Kyle Cutler
+ */
+public class GridTest {
+	static final Grid.CopiedOperation<Boolean> LIFE = (x, y, copy, alive) -> {
+		// when wrapping, getNeighbors only leaves out empty cells, so the live ones are counted here
+		int n = 0;
+		for (Boolean v : copy.getNeighbors(x, y, Grid.SURROUNDING, v -> v, true))
+			if (v)
+				n++;
+		return n == 3 || (alive && n == 2);
+	};
+
+	public static void main(String[] args) {
+		sizes();
+		alignedRows();
+
+		for (int[] size : new int[][] {{1, 1}, {300, 200}, {2000, 40}, {3, 20000}})
+			multithreaded(size[0], size[1]);
+
+		transformFailure();
+		pool();
+
+		doubleBuffered(false);
+		doubleBuffered(true);
+
+		neighbors(Grid.aligned(23, 17, 16));
+		neighbors(new Grid<>(1, 1));
+		neighbors(new Grid<>(2, 9));
+
+		for (int mode=0; mode < 8; mode++)
+			trackedLife(mode);
+		quietTiles();
+
+		passed("GridTest");
+	}
+
+	/**
+	 * Runs a game of life and a plain operation on two grids, one transformed on a single thread
+	 * and the other split into bands of rows, and checks that they agree every generation
+	 */
+	private static void multithreaded(int width, int height) {
+		Random random = new Random(width * 31 + height);
+
+		Grid<Boolean> single = new Grid<>(width, height, (x, y) -> random.nextInt(3) == 0);
+		Grid<Boolean> banded = single.copy();
+
+		for (int step=0; step < 6; step++) {
+			boolean changed = single.transform(LIFE, false);
+			check(banded.transform(LIFE, true) == changed, "both grids agree on whether anything changed");
+			check(single.equals(banded), "a banded transform matches a single threaded one at step " + step);
+		}
+
+		// an operation that changes one cell in the last row has to be noticed, wherever that row was transformed
+		int lastRow = height - 1;
+		Grid.Operation<Boolean> flipOne = (x, y, v) -> x == 0 && y == lastRow ? !v : v;
+
+		check(single.transform(flipOne) && banded.transform(flipOne, true), "a change in the last row is noticed");
+		check(single.equals(banded), "a banded operation matches a single threaded one");
+		check(!banded.transform((x, y, v) -> v, true), "an operation that changes nothing is noticed");
+	}
+
+	/**
+	 * Checks that an exception thrown in any band comes out of the transform, once every band has stopped
+	 */
+	private static void transformFailure() {
+		int width = 400, height = 400;
+		Grid<Integer> grid = new Grid<>(width, height, 0);
+
+		for (int failY : new int[] {0, height / 2, height - 1}) {
+			expect(IllegalStateException.class, () -> grid.transform((x, y, v) -> {
+				if (x == 7 && y == failY)
+					throw new IllegalStateException("failed at row " + y);
+				return v;
+			}, true), "a transform failing in row " + failY);
+
+			expect(IllegalStateException.class, () -> grid.transform((x, y, copy, v) -> {
+				if (x == 7 && y == failY)
+					throw new IllegalStateException("failed at row " + y);
+				return v;
+			}, true), "a copied transform failing in row " + failY);
+		}
+
+		// the grid can still be transformed afterwards
+		check(grid.transform((x, y, v) -> v + 1, true), "a transform after a failure");
+		grid.each((x, y, v) -> check(v == 1, "every cell is transformed after a failure"));
+	}
+
+	/**
+	 * Checks that multithreaded transforms run on the pool they are given
+	 */
+	private static void pool() {
+		ForkJoinPool pool = new ForkJoinPool(3);
+		Grid<Boolean> grid = new Grid<>(500, 500, false);
+
+		try {
+			Grid.setPool(pool);
+
+			grid.transform((x, y, v) -> {
+				Thread thread = Thread.currentThread();
+				check(thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)thread).getPool() == pool,
+						"a multithreaded transform runs on the grid's pool");
+				return v;
+			}, true);
+		} finally {
+			Grid.setPool(ForkJoinPool.commonPool());
+			pool.shutdown();
+		}
+
+		expect(NullPointerException.class, () -> Grid.setPool(null), "a null pool");
+	}
+
+	/**
+	 * Runs a game of life on a double buffered grid and a plain one, checking that they agree every generation,
+	 * and that a transform failing part way through leaves the double buffered grid as it was
+	 *
+	 * @param 	multithread 	Whether or not to transform with multiple threads
+	 */
+	private static void doubleBuffered(boolean multithread) {
+		Random random = new Random(17);
+		int width = 200, height = 150;
+
+		Grid<Boolean> plain = new Grid<>(width, height, (x, y) -> random.nextInt(3) == 0);
+		Grid<Boolean> buffered = plain.copy();
+
+		check(!buffered.isDoubleBuffered(), "grids aren't double buffered to start with");
+		buffered.setDoubleBuffered(true);
+		check(buffered.isDoubleBuffered(), "double buffering is turned on");
+
+		for (int step=0; step < 12; step++) {
+			if (step % 4 == 2) {
+				int[] calls = {0};
+				Grid<Boolean> before = buffered.copy();
+
+				expect(IllegalStateException.class, () -> buffered.transform((x, y, copy, alive) -> {
+					synchronized (calls) {
+						if (++calls[0] == width * height / 2)
+							throw new IllegalStateException("failed part way through");
+					}
+					return !alive;
+				}, multithread), "a transform failing part way through");
+
+				check(buffered.equals(before), "a failed transform leaves a double buffered grid as it was");
+			}
+
+			// setting a cell from outside a transform has to carry over into the next generation
+			if (step == 5) {
+				plain.set(3, 4, !plain.get(3, 4));
+				buffered.set(3, 4, !buffered.get(3, 4));
+			}
+
+			boolean changed = plain.transform(LIFE, multithread);
+			check(buffered.transform(LIFE, multithread) == changed, "both grids agree on whether anything changed");
+			check(plain.equals(buffered), "a double buffered grid matches a plain one after step " + step);
+		}
+
+		// the grid given to the operation shows the generation being transformed, not the one being written
+		Grid<Boolean> expected = buffered.copy();
+		buffered.transform((x, y, copy, alive) -> {
+			check(copy.get(x, y) == expected.get(x, y) && copy.get(width - 1 - x, y) == expected.get(width - 1 - x, y),
+					"the operation sees the current generation");
+			return !alive;
+		}, multithread);
+
+		buffered.setDoubleBuffered(false);
+		check(!buffered.isDoubleBuffered(), "double buffering is turned off");
+
+		plain.transform((x, y, alive) -> !alive);
+		check(plain.equals(buffered), "the grid keeps its cells when double buffering is turned off");
+		check(buffered.transform(LIFE, multithread) == plain.transform(LIFE, multithread) && plain.equals(buffered),
+				"a grid transforms the same once double buffering is turned off");
+	}
+
+	/**
+	 * Checks that empty grids work, that bad sizes are refused before anything is allocated,
+	 * and that a coordinate past the edge of a row doesn't spill over into the next one
+	 */
+	private static void sizes() {
+		check(new Grid<Object>(0, 0).copy().getWidth() == 0, "an empty Grid");
+		check(!new Grid<Integer>(0, 5, 1).transform((x, y, v) -> v + 1), "nothing to change in a grid with no columns");
+		check(new Grid<Integer>(5, 0, 1).equals(new Grid<Integer>(5, 0)), "grids with no rows are equal");
+
+		for (int[] size : new int[][] {{-1, 5}, {5, -1}})
+			expect(IllegalArgumentException.class, () -> new Grid<Object>(size[0], size[1]), "a negative size");
+
+		expect(IllegalArgumentException.class, () -> Grid.aligned(-1, 5, 16), "a negative size");
+		expect(IllegalArgumentException.class, () -> Grid.aligned(5, 5, 0), "an alignment of zero");
+		expect(ArithmeticException.class, () -> new Grid<Object>(1 << 16, 1 << 16), "a grid too large for one array");
+
+		Grid<Integer> grid = new Grid<>(4, 3, (x, y) -> y * 4 + x);
+		for (int[] at : new int[][] {{4, 0}, {-1, 1}, {0, 3}, {0, -1}})
+			expect(ArrayIndexOutOfBoundsException.class, () -> grid.get(at[0], at[1]), "reading " + at[0] + ", " + at[1]);
+
+		expect(ArrayIndexOutOfBoundsException.class, () -> grid.set(4, 1, 0), "setting a cell past the end of a row");
+		check(grid.get(0, 2) == 8, "setting a cell past the end of a row doesn't change the next row");
+	}
+
+	/**
+	 * Checks that a grid with padded rows behaves the same as one without
+	 */
+	private static void alignedRows() {
+		Random random = new Random(3);
+		int width = 37, height = 90;
+
+		Grid<Boolean> plain = new Grid<>(width, height, (x, y) -> random.nextInt(3) == 0);
+		Grid<Boolean> aligned = Grid.aligned(width, height, 16);
+
+		check(!aligned.equals(plain), "a new aligned grid is empty");
+		plain.each((x, y, v) -> aligned.set(x, y, v));
+		check(aligned.equals(plain) && plain.equals(aligned), "an aligned grid holds the same cells");
+
+		for (int step=0; step < 4; step++) {
+			boolean multithread = step % 2 == 0;
+			check(aligned.transform(LIFE, multithread) == plain.transform(LIFE, multithread), "both grids agree on whether anything changed");
+			check(aligned.equals(plain), "an aligned grid transforms the same at step " + step);
+		}
+
+		check(aligned.copy().equals(plain), "a copy of an aligned grid holds the same cells");
+		check(aligned.getNeighbors(width - 1, 0, Grid.ADJACENT, v -> true).size() == 2, "a corner cell of an aligned grid has two adjacent cells");
+
+		aligned.empty();
+		check(!aligned.isFull(), "an emptied grid has no cells");
+		aligned.fill(true);
+		check(aligned.isFull(), "a filled aligned grid is full, whatever is in the padding");
+	}
+
+	/**
+	 * Checks forEachNeighbor and countNeighbors against getNeighbors at every cell, with and without wrapping
+	 *
+	 * @param 	grid 	An empty grid to fill and look around
+	 */
+	private static void neighbors(Grid<Integer> grid) {
+		int width = grid.getWidth(), height = grid.getHeight();
+
+		// leave some cells empty, which getNeighbors leaves out when wrapping
+		grid.fill((x, y) -> (x + y) % 5 == 0 ? null : y * width + x);
+
+		for (int[][] relatives : new int[][][] {Grid.SURROUNDING, Grid.ADJACENT, Grid.DIAGONAL}) {
+			for (int y=0; y < height; y++) {
+				for (int x=0; x < width; x++) {
+					for (boolean wrap : new boolean[] {false, true}) {
+						List<Integer> expected = grid.getNeighbors(x, y, relatives, v -> true, wrap);
+						expected.removeIf(v -> v == null);
+
+						List<Integer> visited = new ArrayList<>();
+						grid.forEachNeighbor(x, y, relatives, (nx, ny, v) -> {
+							check(v == grid.get(nx, ny), "forEachNeighbor gives each neighbor's own coordinates");
+							if (v != null)
+								visited.add(v);
+						}, wrap);
+
+						check(visited.equals(expected), "forEachNeighbor visits " + visited + " around " + x + ", " + y + " instead of " + expected);
+
+						int odd = (int)expected.stream().filter(v -> v % 2 == 1).count();
+						check(grid.countNeighbors(x, y, relatives, v -> v != null && v % 2 == 1, wrap) == odd,
+								"countNeighbors counts the neighbors that pass the test around " + x + ", " + y);
+					}
+				}
+			}
+		}
+
+		int[] total = {0};
+		grid.forEachNeighbor(0, 0, (nx, ny, v) -> total[0]++);
+		check(total[0] == Math.min(width, 2) * Math.min(height, 2) - 1, "forEachNeighbor stays inside the grid without wrapping");
+		check(grid.countNeighbors(0, 0, v -> true) == total[0], "countNeighbors stays inside the grid without wrapping");
+	}
+
+	/**
+	 * Runs a game of life with activity tracking on, checking it against a plain Grid. Every few generations
+	 * a transform fails part way through, which has to leave the grid and its tracking as they were.
+	 *
+	 * @param 	mode 	Bit 0 double buffers the grid, bit 1 transforms with multiple threads, and bit 2 uses full transforms
+	 */
+	private static void trackedLife(int mode) {
+		boolean buffered = (mode & 1) != 0, multithread = (mode & 2) != 0, full = (mode & 4) != 0;
+		int width = 300, height = 200;
+		Random random = new Random(mode);
+
+		Grid<Boolean> expected = new Grid<>(width, height, false);
+		Grid<Boolean> grid = new Grid<>(width, height, false);
+
+		// a few patches of life, so most tiles stay quiet
+		for (int i=0; i < 6; i++) {
+			int cx = random.nextInt(width), cy = random.nextInt(height);
+
+			for (int y=cy; y < cy + 20; y++) {
+				for (int x=cx; x < cx + 20; x++) {
+					boolean alive = random.nextInt(3) == 0;
+					expected.set(Math.floorMod(x, width), Math.floorMod(y, height), alive);
+					grid.set(Math.floorMod(x, width), Math.floorMod(y, height), alive);
+				}
+			}
+		}
+
+		grid.setDoubleBuffered(buffered);
+		grid.setTrackingActivity(true);
+
+		for (int step=0; step < 40; step++) {
+			if (step % 9 == 4) {
+				AtomicInteger calls = new AtomicInteger();
+				Grid.CopiedOperation<Boolean> failing = (x, y, copy, alive) -> {
+					if (calls.incrementAndGet() == width * height / 3)
+						throw new IllegalStateException("failed part way through");
+					return !alive;
+				};
+
+				expect(IllegalStateException.class,
+						() -> { if (full) grid.transform(failing, multithread); else grid.transformActive(failing, multithread); },
+						"a transform failing part way through in mode " + mode);
+
+				// a plain grid changes as it goes, so it has to be put back by hand
+				if (!buffered)
+					expected.each((x, y, v) -> grid.set(x, y, v));
+			}
+
+			boolean changed = expected.transform(LIFE);
+			boolean trackedChanged = full ? grid.transform(LIFE, multithread) : grid.transformActive(LIFE, multithread);
+
+			check(changed == trackedChanged, "both grids agree on whether anything changed in mode " + mode);
+			check(expected.equals(grid), "the grids match in mode " + mode + " after step " + step);
+
+			// a change from outside a transform has to be picked up too
+			if (step == 20) {
+				expected.set(5, 5, !expected.get(5, 5));
+				grid.set(5, 5, !grid.get(5, 5));
+			}
+		}
+	}
+
+	/**
+	 * Checks that an active transform only looks at the tiles around the ones that changed
+	 */
+	private static void quietTiles() {
+		Grid<Boolean> grid = new Grid<>(640, 640, false);
+		expect(IllegalStateException.class, () -> grid.transformActive(LIFE), "an active transform without tracking");
+
+		// a blinker, which keeps changing in the middle of one tile
+		for (int x=100; x < 103; x++)
+			grid.set(x, 100, true);
+
+		grid.setTrackingActivity(true);
+		check(grid.isTrackingActivity(), "activity tracking is turned on");
+
+		AtomicInteger calls = new AtomicInteger();
+		Grid.CopiedOperation<Boolean> counted = (x, y, copy, alive) -> {
+			calls.incrementAndGet();
+			return LIFE.apply(x, y, copy, alive);
+		};
+
+		// every tile is looked at once when tracking starts
+		check(grid.transformActive(counted), "the blinker turns");
+		check(calls.get() == 640 * 640, "every tile is looked at after tracking starts");
+
+		for (int step=0; step < 5; step++) {
+			calls.set(0);
+			check(grid.transformActive(counted, step % 2 == 0), "the blinker turns");
+			check(calls.get() == 9 * 64 * 64, "only the tiles around the blinker are looked at, not " + calls.get() + " cells");
+		}
+
+		check(grid.get(101, 99) == false && grid.get(100, 100) == true, "the blinker is back where it started after turning six times");
+
+		grid.setTrackingActivity(false);
+		check(!grid.isTrackingActivity(), "activity tracking is turned off");
+	}
+}
@@ -0,0 +1,132 @@
+package me.kyle1320.grid;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.stream.Stream;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for MappedGrid: cells are kept across closing and opening the file, and files with a bad header are refused.
+ * The files are written to a temporary directory, which is deleted afterwards.
+ *
+ * @author Kyle Cutler
+ */
+public class MappedGridTest {
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("mapped-grid-test");
+
+		try {
+			roundTrip(dir.resolve("a.grid"), dir.resolve("b.grid"));
+			badHeaders(dir.resolve("c.grid"), dir.resolve("d.grid"));
+		} finally {
+			deleteAll(dir);
+		}
+
+		passed("MappedGridTest");
+	}
+
+	/**
+	 * Writes to a MappedGrid in each of the ways it allows, and checks that the cells are still there after reopening it
+	 */
+	private static void roundTrip(Path file, Path copy) throws IOException {
+		int width = 5000, height = 700;
+
+		try (MappedGrid<Long> grid = MappedGrid.create(file, width, height, CellCodec.LONG)) {
+			grid.fill(9L);
+			grid.each((x, y, v) -> check(v == 9L, "fill sets every cell"));
+
+			check(grid.transform((x, y, v) -> (long)x * y, true), "a transform changes the grid");
+			grid.set(width - 1, height - 1, -1L);
+
+			try (MappedGrid<Long> snapshot = grid.snapshot(copy)) {
+				grid.set(0, 0, 5L);
+				check(snapshot.get(0, 0) == 0L && snapshot.get(width - 1, height - 1) == -1L, "a snapshot holds the grid as it was");
+			}
+
+			expect(ArrayIndexOutOfBoundsException.class, () -> grid.get(width, 0), "reading a cell past the end of a row");
+
+			grid.flush();
+		}
+
+		try (MappedGrid<Long> grid = MappedGrid.open(file, CellCodec.LONG)) {
+			check(grid.getWidth() == width && grid.getHeight() == height, "a reopened grid is the same size");
+
+			grid.each((x, y, v) -> {
+				long expected = x == 0 && y == 0 ? 5L : x == width - 1 && y == height - 1 ? -1L : (long)x * y;
+				check(v == expected, "a reopened grid holds " + expected + " at " + x + ", " + y);
+			});
+
+			// fill with a value that doesn't look the same in every byte
+			grid.fill(0x0102030405060708L);
+		}
+
+		try (MappedGrid<Long> grid = MappedGrid.open(file, CellCodec.LONG)) {
+			grid.each((x, y, v) -> check(v == 0x0102030405060708L, "fill is kept after reopening"));
+			check(!grid.transform((x, y, v) -> v), "a transform that changes nothing");
+		}
+
+		try (MappedGrid<Byte> grid = MappedGrid.create(file, 0, 4, CellCodec.BYTE)) {
+			grid.fill((byte)1);
+			check(!grid.transform((x, y, v) -> v), "nothing to change in an empty MappedGrid");
+		}
+	}
+
+	/**
+	 * Checks that MappedGrid refuses files that aren't its own, or whose header doesn't match the file
+	 */
+	private static void badHeaders(Path file, Path saved) throws IOException {
+		GridIO.save(new Grid<>(10, 10, 1), saved, CellCodec.INT);
+		expect(IOException.class, () -> MappedGrid.open(saved, CellCodec.INT), "opening a grid saved by GridIO");
+
+		expect(IllegalArgumentException.class, () -> MappedGrid.create(file, -1, 4, CellCodec.INT), "a negative width");
+
+		MappedGrid.create(file, 10, 10, CellCodec.INT).close();
+		expect(IOException.class, () -> MappedGrid.open(file, CellCodec.SHORT), "opening with a codec of a different size");
+
+		int[][] corruptions = {
+			{4, -3},                    // a negative width
+			{8, Integer.MIN_VALUE},     // a negative height
+			{4, Integer.MAX_VALUE},     // rows too long to map
+			{8, 1000},                  // more rows than the file holds
+			{12, 0},                    // cells with no size
+		};
+
+		for (int[] corruption : corruptions) {
+			MappedGrid.create(file, 10, 10, CellCodec.INT).close();
+			putInt(file, corruption[0], corruption[1]);
+			expect(IOException.class, () -> MappedGrid.open(file, CellCodec.INT), "opening a header with " + corruption[1] + " at " + corruption[0]);
+		}
+
+		Files.write(file, new byte[7]);
+		expect(IOException.class, () -> MappedGrid.open(file, CellCodec.INT), "opening a file shorter than a header");
+	}
+
+	/**
+	 * Overwrites an int in the header of a file, in the byte order both GridIO and MappedGrid use
+	 */
+	static void putInt(Path file, int position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value), position);
+		}
+	}
+
+	/**
+	 * Deletes a directory of files
+	 */
+	static void deleteAll(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>)files::iterator)
+				Files.delete(file);
+		}
+
+		Files.delete(dir);
+	}
+}
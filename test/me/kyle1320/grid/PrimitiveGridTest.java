@@ -0,0 +1,118 @@
+package me.kyle1320.grid;
+
+import java.util.Random;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for the primitive grids, which each run the same game of life as a plain Grid and have to agree with it.
+ *
+ * @author Kyle Cutler
+ */
+public class PrimitiveGridTest {
+	public static void main(String[] args) {
+		// BooleanGrid packs its rows into longs, so try widths on either side of a whole word
+		for (int width : new int[] {1, 63, 64, 65, 130})
+			primitiveGrids(width, 70);
+
+		emptyRows();
+
+		passed("PrimitiveGridTest");
+	}
+
+	/**
+	 * Runs the same game of life on a Grid and on each primitive grid, checking that they agree every generation
+	 */
+	private static void primitiveGrids(int width, int height) {
+		Random random = new Random(width);
+		boolean[][] start = new boolean[height][width];
+
+		for (int y=0; y < height; y++)
+			for (int x=0; x < width; x++)
+				start[y][x] = random.nextInt(3) == 0;
+
+		Grid<Boolean> grid = new Grid<>(width, height, (x, y) -> start[y][x]);
+		BooleanGrid bools = new BooleanGrid(width, height, (x, y) -> start[y][x]);
+		IntGrid ints = new IntGrid(width, height, (x, y) -> start[y][x] ? 1 : 0);
+		ByteGrid bytes = new ByteGrid(width, height, (x, y) -> (byte)(start[y][x] ? 1 : 0));
+		DoubleGrid doubles = new DoubleGrid(width, height, (x, y) -> start[y][x] ? 1 : 0);
+
+		int[] intBuffer = new int[8];
+		byte[] byteBuffer = new byte[8];
+
+		for (int step=0; step < 12; step++) {
+			boolean multithread = step % 2 == 0;
+
+			grid.transform(GridTest.LIFE, multithread);
+
+			bools.transform((x, y, copy, alive) -> {
+				int n = 0;
+				for (boolean v : copy.getNeighbors(x, y, Grid.SURROUNDING, true))
+					if (v)
+						n++;
+				return n == 3 || (alive && n == 2);
+			}, multithread);
+
+			ints.transform((x, y, copy, alive) -> {
+				int count = copy.getNeighbors(x, y, Grid.SURROUNDING, true, intBuffer), n = 0;
+				for (int i=0; i < count; i++)
+					n += intBuffer[i];
+				return n == 3 || (alive == 1 && n == 2) ? 1 : 0;
+			});
+
+			bytes.transform((x, y, copy, alive) -> {
+				int count = copy.getNeighbors(x, y, Grid.SURROUNDING, true, byteBuffer), n = 0;
+				for (int i=0; i < count; i++)
+					n += byteBuffer[i];
+				return (byte)(n == 3 || (alive == 1 && n == 2) ? 1 : 0);
+			});
+
+			doubles.transform((x, y, copy, alive) -> {
+				double n = 0;
+				for (double v : copy.getNeighbors(x, y, Grid.SURROUNDING, true))
+					n += v;
+				return n == 3 || (alive == 1 && n == 2) ? 1 : 0;
+			}, multithread);
+
+			int[] alive = {0};
+
+			grid.each((x, y, v) -> {
+				check(bools.get(x, y) == v, "BooleanGrid matches at " + x + ", " + y);
+				check(ints.get(x, y) == (v ? 1 : 0), "IntGrid matches at " + x + ", " + y);
+				check(bytes.get(x, y) == (v ? 1 : 0), "ByteGrid matches at " + x + ", " + y);
+				check(doubles.get(x, y) == (v ? 1 : 0), "DoubleGrid matches at " + x + ", " + y);
+				if (v)
+					alive[0]++;
+			});
+
+			check(bools.count() == alive[0], "BooleanGrid counts its cells");
+		}
+
+		check(bools.copy().equals(bools) && bools.copy().hashCode() == bools.hashCode(), "copies are equal");
+		check(ints.getNeighbors(0, 0).length == (width > 1 ? 3 : 1), "edge cells have fewer neighbors");
+
+		bools.fill(true);
+		check(bools.count() == width * height, "fill sets every cell, including the last partial word of each row");
+		bools.fill(false);
+		check(bools.count() == 0, "fill clears every cell");
+
+		expect(ArrayIndexOutOfBoundsException.class, () -> ints.get(width, 0), "reading a cell past the edge");
+		expect(ArrayIndexOutOfBoundsException.class, () -> bools.set(0, height, true), "setting a cell past the edge");
+	}
+
+	/**
+	 * Checks that grids with no columns or no rows can still be filled and transformed
+	 */
+	private static void emptyRows() {
+		BooleanGrid noColumns = new BooleanGrid(0, 5, true);
+		check(noColumns.count() == 0, "a grid with no columns has no cells");
+		noColumns.fill(true);
+		noColumns.transform((x, y, v) -> true);
+		check(noColumns.count() == 0 && noColumns.getHeight() == 5, "a grid with no columns stays empty");
+
+		check(new BooleanGrid(5, 0, true).count() == 0, "a grid with no rows has no cells");
+		check(!new IntGrid(0, 3, 7).transform((x, y, v) -> v + 1), "nothing to change in an empty grid");
+		check(!new ByteGrid(3, 0, (byte)1).transform((x, y, v) -> (byte)(v + 1), true), "nothing to change in an empty grid");
+		check(new DoubleGrid(0, 0).copy().getWidth() == 0, "an empty DoubleGrid");
+	}
+}
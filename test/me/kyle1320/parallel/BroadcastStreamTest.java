@@ -0,0 +1,259 @@
+package me.kyle1320.parallel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import me.kyle1320.parallel.ConcurrentStream.StreamClosedException;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for BroadcastStream: every subscriber seeing every element in order,
+ * with several writers going around the ring many times while subscribers come and go.
+ *
+ * @author Kyle Cutler
+ */
+public class BroadcastStreamTest {
+    public static void main(String[] args) throws Exception {
+        catchThreadFailures();
+
+        broadcast();
+        subscribing();
+        stalledWriter();
+        manyLaps(4, 1, true);
+        manyLaps(4, 4, true);
+        manyLaps(3, 5, true);
+
+        // with nobody there from the start, writers can get laps ahead of each other whenever nobody is subscribed
+        manyLaps(4, 4, false);
+        manyLaps(1, 8, false);
+
+        expect(IllegalArgumentException.class, () -> new BroadcastStream<>(0), "a stream with no room");
+
+        passed("BroadcastStreamTest");
+    }
+
+    /**
+     * Checks that every subscriber sees every element in order, even when the writer has to wait for the slowest one
+     */
+    private static void broadcast() throws Exception {
+        BroadcastStream<Integer> stream = new BroadcastStream<>(8);
+        int total = 20000;
+
+        List<Thread> readers = new ArrayList<>();
+
+        for (int r=0; r < 3; r++) {
+            BroadcastStream<Integer>.Subscription sub = stream.subscribe();
+            boolean slow = r == 0;
+
+            readers.add(new Thread(() -> {
+                int expected = 0;
+
+                try {
+                    while (true) {
+                        int el = sub.read();
+                        check(el == expected++, "subscriber sees elements in order");
+
+                        if (slow && el % 1000 == 0)
+                            Thread.sleep(1);
+                    }
+                } catch (StreamClosedException e) {
+                    check(expected == total, "subscriber sees every element");
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+
+        for (Thread t : readers)
+            t.start();
+
+        for (int i=0; i < total; i++)
+            check(stream.write(i), "write to a broadcast stream");
+
+        stream.finish();
+
+        for (Thread t : readers)
+            t.join();
+
+        check(stream.isClosed(), "closed once every subscriber has read everything");
+    }
+
+    /**
+     * Checks that a subscriber only sees elements written after it subscribes,
+     * and that closing a subscription stops writers waiting for it
+     */
+    private static void subscribing() throws Exception {
+        BroadcastStream<Integer> stream = new BroadcastStream<>(2);
+
+        // with nobody subscribed, elements are dropped
+        for (int i=0; i < 10; i++)
+            check(stream.write(i), "write with no subscribers");
+
+        BroadcastStream<Integer>.Subscription sub = stream.subscribe();
+        check(sub.poll() == null, "a new subscriber sees nothing written before it");
+        check(sub.poll(20, TimeUnit.MILLISECONDS) == null, "a timed poll with nothing written");
+
+        check(stream.write(10) && stream.write(11), "write with room");
+
+        Thread writer = new Thread(() -> check(stream.write(12), "write once the subscriber closes"));
+        writer.start();
+
+        writer.join(50);
+        check(writer.isAlive(), "a writer waits for the slowest subscriber");
+
+        check(sub.poll() == 10, "the subscriber sees elements written after it");
+        sub.close();
+
+        writer.join(5000);
+        check(!writer.isAlive(), "a writer no longer waits for a closed subscription");
+
+        stream.finish();
+        check(stream.isClosed(), "closed with no subscribers left");
+    }
+
+    /**
+     * Claims a slot the way a writer does and holds on to it while another writer comes around the ring to the same slot,
+     * then checks that a subscriber still sees the second writer's element once the first has filled its slot
+     */
+    private static void stalledWriter() throws Exception {
+        BroadcastStream<Integer> stream = new BroadcastStream<>(4);
+
+        AtomicLong tail = (AtomicLong)field("tail").get(stream);
+        AtomicLongArray published = (AtomicLongArray)field("published").get(stream);
+        Object[] items = (Object[])field("items").get(stream);
+
+        // with nobody subscribed, claim the first slot but don't fill it yet
+        check(tail.getAndIncrement() == 0, "the first slot is claimed");
+
+        BroadcastStream<Integer>.Subscription sub = stream.subscribe();
+
+        // the fourth element goes back around to the claimed slot
+        Thread writer = new Thread(() -> {
+            for (int i=1; i <= 4; i++)
+                check(stream.write(i), "write to a broadcast stream");
+        });
+        writer.start();
+
+        writer.join(50);
+        check(writer.isAlive(), "a writer waits for the slot's last writer to fill it");
+
+        items[0] = 0;
+        published.set(0, 0);
+
+        for (int i=1; i <= 4; i++) {
+            Integer el = sub.poll(5, TimeUnit.SECONDS);
+            check(el != null && el == i, "the subscriber sees every element written after it, not " + el);
+        }
+
+        writer.join();
+        sub.close();
+    }
+
+    private static Field field(String name) throws NoSuchFieldException {
+        Field field = BroadcastStream.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    /**
+     * Has several writers go around the ring many times while subscribers keep joining and leaving,
+     * and checks that every subscriber sees each writer's elements in order, with none missing, and never gets stuck
+     *
+     * @param   capacity    The capacity of the stream
+     * @param   writerCount The number of writers
+     * @param   fromStart   Whether one subscriber stays for the whole run
+     */
+    private static void manyLaps(int capacity, int writerCount, boolean fromStart) throws Exception {
+        BroadcastStream<Long> stream = new BroadcastStream<>(capacity);
+        int perWriter = 20000;
+
+        List<Thread> writers = new ArrayList<>(), readers = new ArrayList<>();
+
+        for (int w=0; w < writerCount; w++) {
+            long id = w;
+
+            writers.add(new Thread(() -> {
+                for (int i=0; i < perWriter; i++)
+                    check(stream.write(id << 32 | i), "write to a broadcast stream");
+            }));
+        }
+
+        if (fromStart) {
+            // one subscriber that stays for the whole run and sees everything
+            BroadcastStream<Long>.Subscription whole = stream.subscribe();
+            readers.add(new Thread(() -> check(readAll(whole, writerCount, -1) == perWriter * writerCount, "a subscriber from the start sees every element")));
+        }
+
+        // and a few that keep joining part way through and leaving again
+        for (int r=0; r < 2; r++) {
+            readers.add(new Thread(() -> {
+                while (!stream.isClosed()) {
+                    try (BroadcastStream<Long>.Subscription sub = stream.subscribe()) {
+                        readAll(sub, writerCount, 50);
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : writers)
+            t.start();
+        for (Thread t : writers) {
+            t.join(60000);
+            check(!t.isAlive(), "writers never get stuck");
+        }
+
+        stream.finish();
+
+        for (Thread t : readers) {
+            t.join(60000);
+            check(!t.isAlive(), "subscribers never get stuck");
+        }
+    }
+
+    /**
+     * Reads from a subscription until the stream closes or enough elements have been read,
+     * checking that each writer's elements come one after the other
+     *
+     * @param   sub         The subscription to read from
+     * @param   writerCount The number of writers
+     * @param   max         The number of elements to read, or -1 to read until the stream closes
+     *
+     * @return              The number of elements read
+     */
+    private static int readAll(BroadcastStream<Long>.Subscription sub, int writerCount, int max) {
+        long[] last = new long[writerCount];
+        for (int w=0; w < writerCount; w++)
+            last[w] = -1;
+
+        int count = 0;
+
+        try {
+            while (max < 0 || count < max) {
+                // an element written after subscribing must always show up, however long its writer took
+                Long el = sub.poll(10, TimeUnit.SECONDS);
+                check(el != null, "a subscriber never gets stuck on an element that was lost");
+
+                int w = (int)(el >>> 32), i = (int)(long)el;
+
+                // a subscriber that joined late starts part way through each writer's elements
+                check(last[w] < 0 ? max >= 0 || i == 0 : i == last[w] + 1, "writer " + w + "'s elements come in order, not " + last[w] + " then " + i);
+
+                last[w] = i;
+                count++;
+            }
+        } catch (StreamClosedException e) {
+            // done
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+
+        return count;
+    }
+}
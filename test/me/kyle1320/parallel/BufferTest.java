@@ -0,0 +1,341 @@
+package me.kyle1320.parallel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for the buffers behind ConcurrentStream: elements going in and out in order,
+ * and every element coming out exactly once under contention.
+ *
+ * @author Kyle Cutler
+ */
+public class BufferTest {
+    public static void main(String[] args) throws Exception {
+        catchThreadFailures();
+
+        roundTrip(new RingBuffer<>(5), true);
+        roundTrip(new SpscRingBuffer<>(5), true);
+        roundTrip(new LinkedBuffer<>(), false);
+        batchedRoundTrip(new RingBuffer<>(5), true);
+        batchedRoundTrip(new SpscRingBuffer<>(5), true);
+        batchedRoundTrip(new LinkedBuffer<>(), false);
+
+        drainFailure(new RingBuffer<>(64));
+        drainFailure(new SpscRingBuffer<>(64));
+        drainFailure(new LinkedBuffer<>());
+        failureKeepsOrder(new RingBuffer<>(64));
+        failureKeepsOrder(new LinkedBuffer<>());
+        racingFailures(new RingBuffer<>(64));
+        racingFailures(new LinkedBuffer<>());
+
+        exactlyOnce(new RingBuffer<>(128), 4, 4);
+        exactlyOnce(new LinkedBuffer<>(), 4, 4);
+        exactlyOnce(new RingBuffer<>(128), 4, 4, true);
+        exactlyOnce(new LinkedBuffer<>(), 4, 4, true);
+
+        // only one thread may write and one read at a time
+        exactlyOnce(new SpscRingBuffer<>(128), 1, 1);
+        exactlyOnce(new SpscRingBuffer<>(128), 1, 1, true);
+        exactlyOnce(new SpscRingBuffer<>(3), 1, 1, true);
+
+        expect(IllegalArgumentException.class, () -> new RingBuffer<>(0), "a buffer with no room");
+        expect(IllegalArgumentException.class, () -> new SpscRingBuffer<>(0), "a buffer with no room");
+        expect(IllegalArgumentException.class, () -> new SpscRingBuffer<>((1 << 30) + 1), "a buffer too large to index");
+
+        passed("BufferTest");
+    }
+
+    /**
+     * Goes around the buffer several times, checking that order is kept and that a bounded buffer fills up
+     */
+    private static void roundTrip(Buffer<Integer> buffer, boolean bounded) {
+        int next = 0, expected = 0;
+
+        check(buffer.isEmpty() && buffer.poll() == null, "a new buffer is empty");
+
+        for (int lap=0; lap < 20; lap++) {
+            for (int i=0; i < 5; i++)
+                check(buffer.offer(next++), "offer into a buffer with room");
+
+            check(!bounded || buffer.isFull(), "isFull once the buffer is full");
+            check(!bounded || !buffer.offer(-1), "offer into a full buffer");
+            check(!bounded || buffer.size() == 5, "size of a full buffer");
+
+            // leave some behind each lap, so that the elements wrap around the ring
+            for (int i=0; i < 3; i++)
+                check(buffer.poll() == expected++, "poll returns the oldest element");
+
+            check(!buffer.isEmpty() && !buffer.isFull(), "neither empty nor full");
+            check(!bounded || buffer.size() == 2, "size of a part full buffer");
+
+            for (int i=0; i < 2; i++)
+                check(buffer.poll() == expected++, "poll returns the oldest element");
+
+            check(buffer.isEmpty() && buffer.poll() == null, "empty once everything is read");
+        }
+    }
+
+    /**
+     * Goes around the buffer several times with batched operations, checking that order is kept
+     */
+    private static void batchedRoundTrip(Buffer<Integer> buffer, boolean bounded) {
+        int next = 0, expected = 0;
+
+        for (int lap=0; lap < 20; lap++) {
+            check(buffer.offer(next), "offer into an empty buffer");
+            next++;
+
+            Integer[] batch = {next, next + 1, next + 2, next + 3, next + 4, next + 5};
+            int added = buffer.offerAll(batch, 0, batch.length);
+            check(added == (bounded ? 4 : 6), "offerAll stops once the buffer is full");
+            next += added;
+
+            check(!bounded || buffer.offerAll(batch, 0, batch.length) == 0, "offerAll into a full buffer");
+            check(buffer.poll() == expected++, "poll returns the oldest element");
+
+            List<Integer> out = new ArrayList<>();
+            check(buffer.drainTo(out, 2) == 2 && out.size() == 2, "drainTo stops at the maximum");
+
+            int drained = buffer.drainTo(out, Integer.MAX_VALUE);
+            check(drained == out.size() - 2 && out.size() == next - expected, "drainTo takes everything");
+
+            for (int el : out)
+                check(el == expected++, "drainTo keeps order");
+
+            check(buffer.isEmpty() && buffer.poll() == null, "empty after draining");
+            check(buffer.drainTo(out, 10) == 0, "drainTo from an empty buffer");
+        }
+    }
+
+    /**
+     * Drains into a collection that refuses every few elements, and checks that every element still comes out once
+     */
+    static void drainFailure(Buffer<Integer> buffer) {
+        int total = 1000, next = 0;
+        Refusing out = new Refusing(3);
+
+        while (next < total || !buffer.isEmpty()) {
+            while (next < total && buffer.offer(next))
+                next++;
+
+            try {
+                buffer.drainTo(out, 10);
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        check(out.size() == total, "every element is drained, not " + out.size());
+
+        boolean[] seen = new boolean[total];
+        for (int el : out) {
+            check(!seen[el], "no element is drained twice");
+            seen[el] = true;
+        }
+    }
+
+    /**
+     * Checks that elements a collection refuses are read before newer ones, even when another reader
+     * has moved past them in the meantime
+     */
+    private static void failureKeepsOrder(Buffer<Integer> buffer) {
+        for (int i=0; i < 20; i++)
+            check(buffer.offer(i), "offer into a buffer with room");
+
+        // takes two elements, then lets another reader take one before refusing the next
+        List<Integer> stolen = new ArrayList<>();
+        List<Integer> out = new ArrayList<Integer>() {
+            public boolean add(Integer el) {
+                if (size() == 2) {
+                    stolen.add(buffer.poll());
+                    throw new IllegalStateException("refused " + el);
+                }
+
+                return super.add(el);
+            }
+        };
+
+        expect(IllegalStateException.class, () -> buffer.drainTo(out, 10), "draining into a collection that refuses");
+        check(out.size() == 2 && stolen.size() == 1 && stolen.get(0) != null, "another reader takes an element first");
+
+        // other than the stolen one, the rest must still come out oldest first, starting with the refused element
+        List<Integer> rest = new ArrayList<>();
+        while (!buffer.isEmpty())
+            buffer.drainTo(rest, 3);
+
+        int expected = 2;
+        for (int el : rest) {
+            if (expected == stolen.get(0))
+                expected++;
+
+            check(el == expected++, "elements come out in order after a failure, not " + rest);
+        }
+
+        check(expected == 20, "every element comes out after a failure");
+        check(buffer.poll() == null, "empty after draining");
+    }
+
+    /**
+     * Has two readers drain into collections that keep refusing elements while a writer fills the buffer,
+     * and checks that every element arrives exactly once without either reader getting stuck
+     */
+    private static void racingFailures(Buffer<Integer> buffer) throws InterruptedException {
+        int total = 100000;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        int[] read = new int[1];
+        List<Thread> threads = new ArrayList<>();
+
+        threads.add(new Thread(() -> {
+            for (int i=0; i < total; ) {
+                if (buffer.offer(i))
+                    i++;
+                else
+                    Thread.yield();
+            }
+        }));
+
+        for (int r=0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                Refusing out = new Refusing(5);
+
+                while (true) {
+                    synchronized (read) {
+                        if (read[0] >= total)
+                            return;
+                    }
+
+                    out.clear();
+                    try {
+                        buffer.drainTo(out, 8);
+                    } catch (IllegalStateException e) {
+                        // expected
+                    }
+
+                    if (out.isEmpty())
+                        Thread.yield();
+
+                    for (int i : out)
+                        seen.incrementAndGet(i);
+
+                    synchronized (read) {
+                        read[0] += out.size();
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads) {
+            t.join(60000);
+            check(!t.isAlive(), "no thread gets stuck while drains fail");
+        }
+
+        for (int i=0; i < total; i++)
+            check(seen.get(i) == 1, "element " + i + " read " + seen.get(i) + " times");
+        check(buffer.isEmpty(), "empty once everything is read");
+    }
+
+    /**
+     * Moves elements from several writers to several readers at once, and checks that each arrives exactly once
+     */
+    static void exactlyOnce(Buffer<Integer> buffer, int writerCount, int readerCount) throws InterruptedException {
+        exactlyOnce(buffer, writerCount, readerCount, false);
+    }
+
+    /**
+     * Moves elements from several writers to several readers at once, and checks that each arrives exactly once
+     *
+     * @param   batched     Whether the readers also drain elements in batches
+     */
+    static void exactlyOnce(Buffer<Integer> buffer, int writerCount, int readerCount, boolean batched) throws InterruptedException {
+        int perWriter = 100000, total = perWriter * writerCount;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w=0; w < writerCount; w++) {
+            int from = w * perWriter;
+
+            threads.add(new Thread(() -> {
+                for (int i=from; i < from + perWriter; ) {
+                    if (buffer.offer(i))
+                        i++;
+                    else
+                        Thread.yield();
+                }
+            }));
+        }
+
+        int[] read = new int[1];
+
+        for (int r=0; r < readerCount; r++) {
+            threads.add(new Thread(() -> {
+                List<Integer> out = new ArrayList<>();
+
+                while (true) {
+                    synchronized (read) {
+                        if (read[0] >= total)
+                            return;
+                    }
+
+                    out.clear();
+                    Integer el = buffer.poll();
+                    if (el != null)
+                        out.add(el);
+                    if (batched)
+                        buffer.drainTo(out, 16);
+
+                    if (out.isEmpty()) {
+                        Thread.yield();
+                        continue;
+                    }
+
+                    for (int i : out)
+                        seen.incrementAndGet(i);
+
+                    synchronized (read) {
+                        read[0] += out.size();
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        for (int i=0; i < total; i++)
+            check(seen.get(i) == 1, "element " + i + " read " + seen.get(i) + " times");
+    }
+
+    /**
+     * A collection that refuses every few elements added to it
+     */
+    static final class Refusing extends ArrayList<Integer> {
+        private final int every;
+        private int calls;
+
+        Refusing(int every) {
+            this.every = every;
+        }
+
+        public boolean add(Integer el) {
+            if (++calls % every == 0)
+                throw new IllegalStateException("refused " + el);
+
+            return super.add(el);
+        }
+
+        public boolean addAll(Collection<? extends Integer> els) {
+            for (Integer el : els)
+                add(el);
+
+            return !els.isEmpty();
+        }
+    }
+}
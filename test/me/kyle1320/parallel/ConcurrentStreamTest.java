@@ -0,0 +1,417 @@
+package me.kyle1320.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import me.kyle1320.parallel.ConcurrentStream.OverflowPolicy;
+import me.kyle1320.parallel.ConcurrentStream.StreamClosedException;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for ConcurrentStream, with many writers and readers at once on each kind of stream.
+ *
+ * @author Kyle Cutler
+ */
+public class ConcurrentStreamTest {
+    public static void main(String[] args) throws Exception {
+        catchThreadFailures();
+
+        exchange(new ConcurrentStream<>(), 4, 4);
+        exchange(new ConcurrentStream<>(16), 4, 4);
+        exchange(new ConcurrentStream<>(1), 2, 2);
+        inOrder(new ConcurrentStream<>());
+        inOrder(new ConcurrentStream<>(16));
+        exchange(ConcurrentStream.singleWriterSingleReader(16), 1, 1);
+        inOrder(ConcurrentStream.singleWriterSingleReader(16));
+        inOrder(ConcurrentStream.singleWriterSingleReader(1));
+        finishWakesReaders(new ConcurrentStream<>());
+        finishWakesReaders(new ConcurrentStream<>(16));
+        overflow();
+
+        batchedExchange(new ConcurrentStream<>(), 4, 4);
+        batchedExchange(new ConcurrentStream<>(64), 4, 4);
+        drainFailure(new ConcurrentStream<>());
+        drainFailure(new ConcurrentStream<>(64));
+        drainFailure(ConcurrentStream.singleWriterSingleReader(64));
+        batchedExchange(ConcurrentStream.singleWriterSingleReader(64), 1, 1);
+        writeAllNulls(new ConcurrentStream<>(8));
+
+        timedReads(new ConcurrentStream<>());
+        timedReads(new ConcurrentStream<>(16));
+        timedReads(ConcurrentStream.singleWriterSingleReader(16));
+        interruptedReads(new ConcurrentStream<>());
+        timedExchange(new ConcurrentStream<>(), 2, 4);
+        timedExchange(new ConcurrentStream<>(16), 2, 4);
+
+        passed("ConcurrentStreamTest");
+    }
+
+    /**
+     * Writes from several threads and reads from several others, and checks that each element
+     * is read exactly once and that the stream closes once it is finished and empty
+     */
+    static void exchange(ConcurrentStream<Integer> stream, int writerCount, int readerCount) throws InterruptedException {
+        int perWriter = 50000, total = perWriter * writerCount;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+
+        List<Thread> writers = new ArrayList<>(), readers = new ArrayList<>();
+
+        for (int w=0; w < writerCount; w++) {
+            int from = w * perWriter;
+
+            writers.add(new Thread(() -> {
+                for (int i=from; i < from + perWriter; i++)
+                    check(stream.write(i), "write to a stream that waits for room");
+            }));
+        }
+
+        for (int r=0; r < readerCount; r++) {
+            readers.add(new Thread(() -> {
+                try {
+                    while (true)
+                        seen.incrementAndGet(stream.read());
+                } catch (StreamClosedException e) {
+                    // done
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+
+        runAll(writers, readers, stream);
+
+        for (int i=0; i < total; i++)
+            check(seen.get(i) == 1, "element " + i + " read " + seen.get(i) + " times");
+
+        check(stream.isClosed(), "closed once finished and empty");
+    }
+
+    /**
+     * Starts the readers, then the writers, and finishes the stream once the writers are done
+     */
+    static void runAll(List<Thread> writers, List<Thread> readers, ConcurrentStream<?> stream) throws InterruptedException {
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : writers)
+            t.start();
+        for (Thread t : writers)
+            t.join();
+
+        stream.finish();
+
+        for (Thread t : readers)
+            t.join();
+    }
+
+    /**
+     * Checks that a single writer's elements are read back in the order they were written
+     */
+    private static void inOrder(ConcurrentStream<Integer> stream) throws InterruptedException {
+        int total = 100000;
+
+        Thread writer = new Thread(() -> {
+            for (int i=0; i < total; i++)
+                stream.write(i);
+
+            stream.finish();
+        });
+        writer.start();
+
+        int expected = 0;
+
+        try {
+            while (true)
+                check(stream.read() == expected++, "elements are read in order");
+        } catch (StreamClosedException e) {
+            check(expected == total, "every element is read before the stream closes");
+        }
+
+        writer.join();
+    }
+
+    /**
+     * Checks that finishing an empty stream wakes up every reader waiting on it
+     */
+    private static void finishWakesReaders(ConcurrentStream<Integer> stream) throws InterruptedException {
+        List<Thread> readers = new ArrayList<>();
+
+        for (int r=0; r < 4; r++) {
+            readers.add(new Thread(() -> expect(StreamClosedException.class, stream::read, "reading a finished stream")));
+            readers.get(r).start();
+        }
+
+        // give the readers time to start waiting
+        Thread.sleep(50);
+        stream.finish();
+
+        for (Thread t : readers) {
+            t.join(5000);
+            check(!t.isAlive(), "a waiting reader sees the stream close");
+        }
+    }
+
+    /**
+     * Checks what each OverflowPolicy does when writing to a full stream
+     */
+    private static void overflow() throws Exception {
+        ConcurrentStream<Integer> failing = new ConcurrentStream<>(2, OverflowPolicy.FAIL);
+        check(failing.write(0) && failing.write(1), "write to a stream with room");
+        check(!failing.write(2), "FAIL gives up right away when full");
+        check(failing.read() == 0 && failing.write(2), "write once a read makes room");
+
+        ConcurrentStream<Integer> timing = new ConcurrentStream<>(1, 50, TimeUnit.MILLISECONDS);
+        check(timing.write(0), "write to a stream with room");
+
+        long start = System.nanoTime();
+        check(!timing.write(1), "TIMEOUT gives up when full");
+        check(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50), "TIMEOUT waits out the timeout first");
+
+        ConcurrentStream<Integer> blocking = new ConcurrentStream<>(1);
+        check(blocking.write(0), "write to a stream with room");
+
+        Thread writer = new Thread(() -> check(blocking.write(1), "BLOCK writes once there is room"));
+        writer.start();
+
+        // the writer should still be waiting for room
+        writer.join(50);
+        check(writer.isAlive(), "BLOCK waits while the stream is full");
+
+        check(blocking.read() == 0, "read from a full stream");
+        writer.join(5000);
+        check(!writer.isAlive(), "a read wakes up a waiting writer");
+        check(blocking.read() == 1, "the waiting writer's element is read next");
+
+        // an interrupted writer gives up, and stays interrupted
+        Thread.currentThread().interrupt();
+        check(blocking.write(2) && !blocking.write(3), "an interrupted write to a full stream fails");
+        check(Thread.interrupted(), "the writer stays interrupted");
+
+        expect(IllegalArgumentException.class, () -> new ConcurrentStream<>(1, OverflowPolicy.TIMEOUT), "TIMEOUT without a timeout");
+        expect(NullPointerException.class, () -> blocking.write(null), "writing null");
+    }
+
+    /**
+     * Writes and reads in batches from several threads at once, and checks that each element is read exactly once
+     */
+    private static void batchedExchange(ConcurrentStream<Integer> stream, int writerCount, int readerCount) throws InterruptedException {
+        int perWriter = 50000, total = perWriter * writerCount;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+
+        List<Thread> writers = new ArrayList<>(), readers = new ArrayList<>();
+
+        for (int w=0; w < writerCount; w++) {
+            int from = w * perWriter;
+
+            writers.add(new Thread(() -> {
+                List<Integer> batch = new ArrayList<>();
+
+                for (int i=from; i < from + perWriter; i += batch.size()) {
+                    batch.clear();
+                    for (int j=i; j < Math.min(i + 37, from + perWriter); j++)
+                        batch.add(j);
+
+                    check(stream.writeAll(batch) == batch.size(), "writeAll to a stream that waits for room");
+                }
+            }));
+        }
+
+        for (int r=0; r < readerCount; r++) {
+            readers.add(new Thread(() -> {
+                List<Integer> out = new ArrayList<>();
+
+                try {
+                    while (true) {
+                        out.clear();
+                        check(stream.drainTo(out, 50) == out.size(), "drainTo returns the number read");
+
+                        for (int i : out)
+                            seen.incrementAndGet(i);
+                    }
+                } catch (StreamClosedException e) {
+                    // done
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+
+        runAll(writers, readers, stream);
+
+        for (int i=0; i < total; i++)
+            check(seen.get(i) == 1, "element " + i + " read " + seen.get(i) + " times");
+    }
+
+    /**
+     * Drains the stream into a collection that keeps refusing elements, and checks that none are lost or repeated
+     */
+    private static void drainFailure(ConcurrentStream<Integer> stream) throws Exception {
+        int total = 20000;
+
+        Thread writer = new Thread(() -> {
+            for (int i=0; i < total; i++)
+                stream.write(i);
+
+            stream.finish();
+        });
+        writer.start();
+
+        BufferTest.Refusing out = new BufferTest.Refusing(7);
+
+        try {
+            while (true) {
+                try {
+                    stream.drainTo(out, 50);
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            }
+        } catch (StreamClosedException e) {
+            // done
+        }
+
+        writer.join();
+        check(out.size() == total, "every element is drained, not " + out.size());
+
+        // with a single reader, refused elements are read again before anything newer
+        for (int i=0; i < total; i++)
+            check(out.get(i) == i, "elements are drained in order after a failure");
+    }
+
+    /**
+     * Checks that writeAll adds none of the elements if any of them are null
+     */
+    private static void writeAllNulls(ConcurrentStream<Integer> stream) throws Exception {
+        expect(NullPointerException.class, () -> stream.writeAll(Arrays.asList(1, 2, null, 4)), "writeAll with a null");
+        check(stream.poll() == null, "nothing is written before the null is found");
+
+        check(stream.writeAll(Arrays.asList(1, 2, 3)) == 3, "writeAll to a stream with room");
+        check(stream.read() == 1 && stream.read() == 2 && stream.read() == 3, "writeAll keeps order");
+    }
+
+    /**
+     * Checks poll with and without a timeout, on an empty stream, a stream written to while waiting, and a finished stream
+     */
+    private static void timedReads(ConcurrentStream<Integer> stream) throws Exception {
+        check(stream.poll() == null, "poll on an empty stream");
+
+        long start = System.nanoTime();
+        check(stream.poll(50, TimeUnit.MILLISECONDS) == null, "a timed poll on an empty stream");
+        check(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50), "a timed poll waits out the timeout first");
+
+        Thread writer = new Thread(() -> {
+            sleep(20);
+            stream.write(1);
+        });
+        writer.start();
+
+        Integer el = stream.poll(5, TimeUnit.SECONDS);
+        check(el != null && el == 1, "a timed poll returns an element written while it waits");
+        writer.join();
+
+        stream.write(2);
+        stream.finish();
+
+        check(!stream.isClosed() && stream.poll() == 2, "elements written before finishing can still be polled");
+        check(stream.isClosed(), "closed once finished and empty");
+
+        expect(StreamClosedException.class, stream::poll, "poll on a closed stream");
+        expect(StreamClosedException.class, () -> stream.poll(50, TimeUnit.MILLISECONDS), "a timed poll on a closed stream");
+    }
+
+    /**
+     * Checks that interrupting a waiting read or timed poll throws InterruptedException
+     */
+    private static void interruptedReads(ConcurrentStream<Integer> stream) throws Exception {
+        List<Thread> readers = new ArrayList<>();
+
+        readers.add(new Thread(() -> expect(InterruptedException.class, stream::read, "interrupting a read")));
+        readers.add(new Thread(() -> expect(InterruptedException.class,
+                () -> stream.poll(1, TimeUnit.MINUTES), "interrupting a timed poll")));
+
+        for (Thread t : readers)
+            t.start();
+
+        // give the readers time to start waiting
+        Thread.sleep(50);
+
+        for (Thread t : readers) {
+            t.interrupt();
+            t.join(5000);
+            check(!t.isAlive(), "an interrupted reader stops waiting");
+        }
+
+        // an interrupted reader doesn't take a wakeup with it
+        Thread reader = new Thread(() -> {
+            try {
+                check(stream.read() == 1, "a reader after the interrupted ones is woken up");
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        reader.start();
+
+        Thread.sleep(50);
+        stream.write(1);
+
+        reader.join(5000);
+        check(!reader.isAlive(), "a reader after the interrupted ones is woken up");
+    }
+
+    /**
+     * Reads with short timed polls that keep timing out, and checks that every element is still read exactly once
+     */
+    private static void timedExchange(ConcurrentStream<Integer> stream, int writerCount, int readerCount) throws InterruptedException {
+        int perWriter = 20000, total = perWriter * writerCount;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+
+        List<Thread> writers = new ArrayList<>(), readers = new ArrayList<>();
+
+        for (int w=0; w < writerCount; w++) {
+            int from = w * perWriter;
+
+            writers.add(new Thread(() -> {
+                for (int i=from; i < from + perWriter; i++) {
+                    check(stream.write(i), "write to a stream that waits for room");
+
+                    // leave the readers waiting now and then
+                    if (i % 1000 == 0)
+                        sleep(2);
+                }
+            }));
+        }
+
+        for (int r=0; r < readerCount; r++) {
+            readers.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        Integer el = stream.poll(100, TimeUnit.MICROSECONDS);
+
+                        if (el != null)
+                            seen.incrementAndGet(el);
+                    }
+                } catch (StreamClosedException e) {
+                    // done
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+
+        runAll(writers, readers, stream);
+
+        for (int i=0; i < total; i++)
+            check(seen.get(i) == 1, "element " + i + " read " + seen.get(i) + " times");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
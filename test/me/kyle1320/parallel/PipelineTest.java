@@ -0,0 +1,249 @@
+package me.kyle1320.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import me.kyle1320.parallel.ConcurrentStream.StreamClosedException;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for Pipeline: each kind of stage, keeping order across threads,
+ * and stopping the pipeline by cancelling it or by a stage failing.
+ *
+ * @author Kyle Cutler
+ */
+public class PipelineTest {
+    public static void main(String[] args) throws Exception {
+        catchThreadFailures();
+
+        unordered();
+        ordered();
+        stages();
+        toStream();
+        reused();
+        cancel();
+        failure();
+
+        expect(IllegalArgumentException.class, () -> Pipeline.from(range(1)).map(x -> x, 0), "a stage with no threads");
+        expect(IllegalArgumentException.class, () -> Pipeline.from(range(1)).batch(0), "an empty batch");
+        expect(IllegalArgumentException.class, () -> Pipeline.from(range(1)).capacity(0), "a pipeline with no room between stages");
+
+        passed("PipelineTest");
+    }
+
+    /**
+     * Checks that every element makes it through stages running on several threads, in some order
+     */
+    private static void unordered() throws Exception {
+        List<Integer> out = new ArrayList<>();
+
+        Pipeline.from(range(10000))
+                .map(x -> x * 2, 4)
+                .map(x -> x + 1, 3)
+                .capacity(16)
+                .to(out::add)
+                .await();
+
+        Collections.sort(out);
+        check(out.size() == 10000, "every element reaches the sink, not " + out.size());
+
+        for (int i=0; i < out.size(); i++)
+            check(out.get(i) == i * 2 + 1, "each element goes through every stage");
+    }
+
+    /**
+     * Checks that an ordered pipeline keeps the source's order through stages with several threads,
+     * even when later elements finish before earlier ones
+     */
+    private static void ordered() throws Exception {
+        List<Integer> out = new ArrayList<>();
+
+        Pipeline.from(range(5000))
+                .ordered()
+                .map(x -> {
+                    // make some elements much slower than the ones after them
+                    if (x % 100 == 0)
+                        sleep(1);
+
+                    return x;
+                }, 4)
+                .flatMap(x -> Arrays.asList(x, -x), 3)
+                .capacity(8)
+                .to(out::add)
+                .await();
+
+        check(out.size() == 10000, "every element reaches the sink, not " + out.size());
+
+        for (int i=0; i < 5000; i++)
+            check(out.get(2*i) == i && out.get(2*i + 1) == -i, "an ordered pipeline keeps the source's order");
+    }
+
+    /**
+     * Checks filter, flatMap and batch, including the smaller last batch flushed once the source runs out
+     */
+    private static void stages() throws Exception {
+        List<List<Integer>> out = new ArrayList<>();
+
+        Pipeline.from(range(100))
+                .filter(x -> x % 2 == 0)
+                .flatMap(x -> x % 4 == 0 ? Arrays.asList(x, x) : Collections.<Integer>emptyList())
+                .batch(7)
+                .to(out::add)
+                .await();
+
+        // 0, 0, 4, 4, ..., 96, 96
+        List<Integer> expected = IntStream.range(0, 50).map(i -> i / 2 * 4).boxed().collect(Collectors.toList());
+
+        check(out.size() == 8, "the elements are split into batches, not " + out.size());
+
+        for (int i=0; i < out.size(); i++) {
+            List<Integer> batch = out.get(i);
+            int from = i * 7;
+
+            check(batch.size() == Math.min(7, expected.size() - from), "each batch is full except the last");
+            check(batch.equals(expected.subList(from, from + batch.size())), "filter and flatMap give " + batch);
+        }
+    }
+
+    /**
+     * Checks that the end of the source passes down the pipeline to a stream, which is finished once everything is written
+     */
+    private static void toStream() throws Exception {
+        ConcurrentStream<Integer> in = new ConcurrentStream<>(), out = new ConcurrentStream<>();
+
+        Pipeline.Job job = Pipeline.from(in)
+                .map(x -> x + 1, 2)
+                .to(out);
+
+        for (int i=0; i < 1000; i++)
+            in.write(i);
+        in.finish();
+
+        boolean[] seen = new boolean[1000];
+        int count = 0;
+
+        try {
+            while (true) {
+                int el = out.read() - 1;
+
+                check(!seen[el], "no element is written twice");
+                seen[el] = true;
+                count++;
+            }
+        } catch (StreamClosedException e) {
+            check(count == 1000, "every element is written before the stream is finished, not " + count);
+        }
+
+        job.await();
+        check(job.isDone(), "done once everything is through");
+    }
+
+    /**
+     * Checks that the same pipeline can be extended in different ways and started more than once
+     */
+    private static void reused() throws Exception {
+        Pipeline<Integer> base = Pipeline.from(range(100)).map(x -> x * 10);
+        List<Integer> first = new ArrayList<>(), second = new ArrayList<>(), third = new ArrayList<>();
+
+        base.to(first::add).await();
+        base.to(second::add).await();
+        base.filter(x -> x < 500).to(third::add).await();
+
+        check(first.size() == 100 && first.equals(second), "starting a pipeline twice gives the same results");
+        check(third.equals(first.subList(0, 50)), "extending a pipeline doesn't change it");
+    }
+
+    /**
+     * Checks that cancelling a pipeline with an endless source stops all of its threads
+     */
+    private static void cancel() throws Exception {
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r);
+            threads.add(t);
+            return t;
+        };
+
+        Pipeline.Job job = Pipeline.from(endless())
+                .map(x -> x + 1, 3)
+                .filter(x -> x % 3 != 0)
+                .capacity(16)
+                .threads(factory)
+                .to(x -> {});
+
+        Thread.sleep(50);
+        check(!job.isDone(), "a pipeline with an endless source runs until it is cancelled");
+
+        job.cancel();
+        expect(CancellationException.class, job::await, "waiting for a cancelled pipeline");
+        check(job.isDone(), "done once cancelled");
+
+        // source, three map threads, one filter thread and the sink
+        check(threads.size() == 6, "every thread comes from the factory");
+
+        for (Thread t : threads) {
+            t.join(5000);
+            check(!t.isAlive(), t.getName() + " stops once the pipeline is cancelled");
+        }
+    }
+
+    /**
+     * Checks that an exception in a stage stops the pipeline and comes out of await
+     */
+    private static void failure() throws Exception {
+        IllegalStateException thrown = new IllegalStateException("bad element");
+
+        Pipeline.Job job = Pipeline.from(endless())
+                .map(x -> {
+                    if (x == 500)
+                        throw thrown;
+
+                    return x;
+                }, 2)
+                .capacity(16)
+                .to(x -> {});
+
+        ExecutionException e = expect(ExecutionException.class, job::await, "waiting for a pipeline whose stage failed");
+        check(e.getCause() == thrown, "await gives the stage's exception as the cause");
+        check(job.isDone(), "done once a stage has failed");
+
+        ExecutionException sunk = expect(ExecutionException.class,
+                () -> Pipeline.from(range(10)).to(x -> { throw thrown; }).await(), "waiting for a pipeline whose sink failed");
+        check(sunk.getCause() == thrown, "await gives the sink's exception as the cause");
+    }
+
+    private static List<Integer> range(int count) {
+        return IntStream.range(0, count).boxed().collect(Collectors.toList());
+    }
+
+    private static Iterable<Integer> endless() {
+        return () -> new Iterator<Integer>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Integer next() {
+                return next++;
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
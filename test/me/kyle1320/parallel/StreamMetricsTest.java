@@ -0,0 +1,148 @@
+package me.kyle1320.parallel;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for the metrics a ConcurrentStream gathers once they are turned on, and for publishing them through JMX.
+ *
+ * @author Kyle Cutler
+ */
+public class StreamMetricsTest {
+    public static void main(String[] args) throws Exception {
+        catchThreadFailures();
+
+        counts(new ConcurrentStream<>(16));
+        counts(new ConcurrentStream<>());
+        drainFailure(new ConcurrentStream<>(16));
+        drainFailure(new ConcurrentStream<>());
+        waits();
+        jmx();
+
+        passed("StreamMetricsTest");
+    }
+
+    /**
+     * Checks the counts of writes and reads through each kind of operation, the depth, and the high water mark
+     */
+    private static void counts(ConcurrentStream<Integer> stream) throws Exception {
+        check(stream.getMetrics() == null, "no metrics until they are turned on");
+
+        StreamMetrics metrics = stream.enableMetrics();
+        check(stream.getMetrics() == metrics && stream.enableMetrics() == metrics, "metrics are only turned on once");
+
+        for (int i=0; i < 10; i++)
+            stream.write(i);
+        stream.writeAll(Arrays.asList(10, 11, 12, 13, 14));
+
+        check(metrics.getWrites() == 15 && metrics.getReads() == 0, "writes are counted: " + metrics.snapshot());
+        check(metrics.getDepth() == 15 && metrics.getHighWaterMark() == 15, "the depth is counted: " + metrics.snapshot());
+
+        for (int i=0; i < 3; i++)
+            stream.read();
+        stream.poll();
+        stream.poll(1, TimeUnit.SECONDS);
+        stream.drainTo(new ArrayList<>(), 4);
+
+        StreamMetrics.Snapshot snapshot = metrics.snapshot();
+        check(snapshot.writes == 15 && snapshot.reads == 9, "reads are counted: " + snapshot);
+        check(snapshot.depth == 6 && snapshot.highWaterMark == 15, "the high water mark stays at the deepest point: " + snapshot);
+
+        stream.drainTo(new ArrayList<>(), 100);
+        check(metrics.getDepth() == 0 && metrics.getReads() == 15, "an empty stream has no depth: " + metrics.snapshot());
+    }
+
+    /**
+     * Checks that the elements taken before a collection refuses one are still counted as read
+     */
+    private static void drainFailure(ConcurrentStream<Integer> stream) throws Exception {
+        StreamMetrics metrics = stream.enableMetrics();
+
+        for (int i=0; i < 10; i++)
+            stream.write(i);
+
+        List<Integer> out = new BufferTest.Refusing(3);
+        expect(IllegalStateException.class, () -> stream.drainTo(out, 10), "draining into a collection that refuses");
+
+        check(out.size() == 2 && metrics.getReads() == 2, "the elements taken before a failure are counted: " + metrics.snapshot());
+        check(metrics.getDepth() == 8, "the refused elements are still in the stream: " + metrics.snapshot());
+    }
+
+    /**
+     * Checks that the time readers spend waiting for elements and writers spend waiting for room is counted
+     */
+    private static void waits() throws Exception {
+        ConcurrentStream<Integer> stream = new ConcurrentStream<>(1);
+        StreamMetrics metrics = stream.enableMetrics();
+
+        Thread writer = new Thread(() -> {
+            sleep(30);
+            stream.write(0);
+        });
+        writer.start();
+
+        check(stream.read() == 0, "read an element written while waiting");
+        check(metrics.getReaderWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(10), "a waiting reader is counted: " + metrics.snapshot());
+        writer.join();
+
+        // the stream is full, so the next write waits for a read
+        stream.write(1);
+        writer = new Thread(() -> stream.write(2));
+        writer.start();
+
+        sleep(30);
+        check(stream.read() == 1 && stream.read() == 2, "read the elements written while full");
+        writer.join();
+
+        check(metrics.getWriterBlockedNanos() >= TimeUnit.MILLISECONDS.toNanos(10), "a waiting writer is counted: " + metrics.snapshot());
+        check(metrics.getWrites() == 3 && metrics.getReads() == 3, "elements are counted after waiting: " + metrics.snapshot());
+    }
+
+    /**
+     * Checks registering metrics with the platform MBean server, and that a name can't be taken twice
+     */
+    private static void jmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("me.kyle1320.parallel:type=ConcurrentStream,name=" + ObjectName.quote("test stream"));
+
+        ConcurrentStream<Integer> stream = new ConcurrentStream<>(16);
+        StreamMetrics metrics = stream.enableMetrics();
+
+        metrics.register("test stream");
+        check(server.isRegistered(name), "registered metrics can be found through JMX");
+
+        stream.write(1);
+        stream.write(2);
+        check((Long)server.getAttribute(name, "Writes") == 2, "the metrics can be read through JMX");
+        check((Long)server.getAttribute(name, "Depth") == 2, "the metrics can be read through JMX");
+
+        expect(IllegalStateException.class, () -> metrics.register("another name"), "registering metrics twice");
+        expect(JMException.class, () -> new ConcurrentStream<>().enableMetrics().register("test stream"), "registering a name that is taken");
+
+        metrics.unregister();
+        check(!server.isRegistered(name), "unregistered metrics are gone from JMX");
+        metrics.unregister();
+
+        // once unregistered, the name can be used again
+        metrics.register("test stream");
+        check(server.isRegistered(name), "metrics can be registered again");
+        metrics.unregister();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package me.kyle1320.parallel;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static me.kyle1320.Check.*;
+
+/**
+ * Tests for Waiters, the queue of parked threads behind ConcurrentStream's blocking and timed operations.
+ *
+ * @author Kyle Cutler
+ */
+public class WaitersTest {
+    public static void main(String[] args) throws Exception {
+        catchThreadFailures();
+
+        signals();
+        cancelledWaiters();
+
+        passed("WaitersTest");
+    }
+
+    /**
+     * Checks that a signal wakes up a parked thread, and that a timed park gives up by itself
+     */
+    private static void signals() throws Exception {
+        Waiters waiters = new Waiters();
+        check(!waiters.signal(), "signal with nobody waiting");
+
+        Thread waiter = new Thread(() -> {
+            // parking can return spuriously, so wait again until the signal arrives
+            boolean signalled;
+            do {
+                Waiters.Node node = waiters.register();
+                node.park(waiters);
+                signalled = waiters.cancel(node);
+            } while (!signalled);
+        });
+        waiter.start();
+
+        // keep signalling until the thread has registered
+        while (!waiters.signal())
+            Thread.yield();
+
+        waiter.join(5000);
+        check(!waiter.isAlive(), "a signal wakes up a parked thread");
+
+        Waiters.Node node = waiters.register();
+        node.park(waiters, TimeUnit.MILLISECONDS.toNanos(20));
+
+        check(!waiters.cancel(node), "a timed out thread wasn't signalled");
+        check(!waiters.signal(), "a timed out thread is no longer waiting");
+    }
+
+    /**
+     * Checks that waits which time out or are interrupted don't pile up in the queue behind a thread that is still waiting
+     */
+    private static void cancelledWaiters() throws Exception {
+        Waiters waiters = new Waiters();
+        Waiters.Node parked = waiters.register();
+
+        for (int i=0; i < 100000; i++)
+            check(!waiters.cancel(waiters.register()), "a cancelled wait wasn't signalled");
+
+        Field nodes = Waiters.class.getDeclaredField("nodes");
+        nodes.setAccessible(true);
+        check(((Collection<?>)nodes.get(waiters)).size() == 1, "only the waiting thread is left in the queue");
+
+        check(waiters.signal(), "the waiting thread is still signalled");
+        check(waiters.cancel(parked), "the waiting thread knows it was signalled");
+        check(!waiters.signal(), "nobody is left waiting");
+    }
+}